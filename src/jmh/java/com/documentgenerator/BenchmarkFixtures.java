@@ -0,0 +1,143 @@
+package com.documentgenerator;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic workbooks and templates for the benchmarks. Column 0 is always
+ * "Name" so generated rows also work with the batch file naming; the other
+ * columns are Field1, Field2, ...
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    static String columnName(int column) {
+        return column == 0 ? "Name" : "Field" + column;
+    }
+
+    /**
+     * One data row with a value for every column
+     */
+    static Map<String, String> row(int rowIndex, int columns) {
+        Map<String, String> data = new LinkedHashMap<>();
+        for (int c = 0; c < columns; c++) {
+            data.put(columnName(c), "Value " + rowIndex + "-" + c);
+        }
+        return data;
+    }
+
+    /**
+     * Write a workbook with a header row and the given number of data rows,
+     * streaming rows so large sizes don't need the whole sheet in memory
+     */
+    static Path writeWorkbook(Path dir, int rows, int columns) throws IOException {
+        Path file = dir.resolve("data-" + rows + "x" + columns + ".xlsx");
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try (OutputStream out = new FileOutputStream(file.toFile())) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < columns; c++) {
+                header.createCell(c).setCellValue(columnName(c));
+            }
+            for (int r = 1; r <= rows; r++) {
+                Row row = sheet.createRow(r);
+                for (int c = 0; c < columns; c++) {
+                    if (c % 4 == 3) {
+                        row.createCell(c).setCellValue(r * 10 + c);
+                    } else {
+                        row.createCell(c).setCellValue("Value " + r + "-" + c);
+                    }
+                }
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+        return file;
+    }
+
+    /**
+     * Write a template whose body paragraphs, table cells and optional
+     * header and footer each hold placeholdersPerParagraph placeholders,
+     * cycling through the columns
+     */
+    static Path writeTemplate(Path dir, int paragraphs, int placeholdersPerParagraph, int columns,
+                              int tables, boolean headersAndFooters) throws IOException {
+        Path file = dir.resolve("template-" + paragraphs + "p" + placeholdersPerParagraph + "x"
+                + columns + "c" + tables + "t" + (headersAndFooters ? "hf" : "") + ".docx");
+        int[] next = {0};
+        try (XWPFDocument document = new XWPFDocument();
+             OutputStream out = new FileOutputStream(file.toFile())) {
+            for (int p = 0; p < paragraphs; p++) {
+                document.createParagraph().createRun()
+                        .setText(paragraphText(placeholdersPerParagraph, columns, next));
+            }
+            for (int t = 0; t < tables; t++) {
+                XWPFTable table = document.createTable(4, 3);
+                for (int r = 0; r < 4; r++) {
+                    for (int c = 0; c < 3; c++) {
+                        table.getRow(r).getCell(c).setText(paragraphText(placeholdersPerParagraph, columns, next));
+                    }
+                }
+            }
+            if (headersAndFooters) {
+                XWPFHeaderFooter header = document.createHeader(HeaderFooterType.DEFAULT);
+                header.createParagraph().createRun().setText(paragraphText(placeholdersPerParagraph, columns, next));
+                XWPFHeaderFooter footer = document.createFooter(HeaderFooterType.DEFAULT);
+                footer.createParagraph().createRun().setText(paragraphText(placeholdersPerParagraph, columns, next));
+            }
+            document.write(out);
+        }
+        return file;
+    }
+
+    private static String paragraphText(int placeholders, int columns, int[] next) {
+        StringBuilder text = new StringBuilder("Lorem ipsum dolor sit amet");
+        for (int i = 0; i < placeholders; i++) {
+            String column = columnName(next[0]++ % columns);
+            text.append(", ").append(column).append(": <<").append(column).append(">>");
+        }
+        return text.append('.').toString();
+    }
+
+    /**
+     * The generators log every row; keep that out of the measurements
+     */
+    static void silenceConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static Path createTempDir() throws IOException {
+        return Files.createTempDirectory("documerge-bench");
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.documentgenerator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of reading a whole workbook into row maps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExcelReaderBenchmark {
+
+    @Param({"1000", "10000"})
+    int rows;
+
+    @Param({"5", "20"})
+    int columns;
+
+    private Path dir;
+    private String workbookPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFixtures.silenceConsole();
+        dir = BenchmarkFixtures.createTempDir();
+        workbookPath = BenchmarkFixtures.writeWorkbook(dir, rows, columns).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> readExcelData() {
+        return ExcelReader.readExcelData(workbookPath);
+    }
+}
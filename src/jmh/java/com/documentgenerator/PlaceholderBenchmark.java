@@ -0,0 +1,120 @@
+package com.documentgenerator;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Placeholder detection and the replacement loop, measured apart from
+ * reading and writing the package.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaceholderBenchmark {
+
+    @Param({"50"})
+    int paragraphs;
+
+    @Param({"1", "8"})
+    int placeholdersPerParagraph;
+
+    @Param({"10"})
+    int columns;
+
+    @Param({"0", "4"})
+    int tables;
+
+    @Param({"true"})
+    boolean headersAndFooters;
+
+    private Path dir;
+    private CompiledTemplate template;
+    private XWPFDocument detectionDocument;
+    private List<String> paragraphTexts;
+    private Map<String, String> data;
+    private Set<String> active;
+    private Matcher matcher;
+    private StringBuilder buffer;
+
+    /** Fresh copy for the replacement loop, which rewrites runs in place */
+    private XWPFDocument replacementDocument;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFixtures.silenceConsole();
+        dir = BenchmarkFixtures.createTempDir();
+        Path templatePath = BenchmarkFixtures.writeTemplate(dir, paragraphs, placeholdersPerParagraph,
+                columns, tables, headersAndFooters);
+        template = CompiledTemplate.forPath(templatePath.toString());
+        detectionDocument = template.openDocument();
+        paragraphTexts = new ArrayList<>();
+        for (XWPFParagraph paragraph : template.resolveParagraphs(detectionDocument)) {
+            paragraphTexts.add(paragraph.getText());
+        }
+        data = BenchmarkFixtures.row(1, columns);
+        active = new HashSet<>(template.getPlaceholders());
+        matcher = WordGenerator.PLACEHOLDER_PATTERN.matcher("");
+        buffer = new StringBuilder(256);
+    }
+
+    @Setup(Level.Invocation)
+    public void openReplacementDocument() throws Exception {
+        replacementDocument = template.openDocument();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeReplacementDocument() throws Exception {
+        replacementDocument.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        detectionDocument.close();
+        BenchmarkFixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Set<String> detectPlaceholders() {
+        return WordGenerator.detectPlaceholders(detectionDocument);
+    }
+
+    /**
+     * String substitution alone, over the text of every placeholder paragraph
+     */
+    @Benchmark
+    public int substituteText() {
+        int length = 0;
+        for (String text : paragraphTexts) {
+            String replaced = WordGenerator.substitutePlaceholders(text, data, active, matcher, buffer);
+            length += replaced != null ? replaced.length() : 0;
+        }
+        return length;
+    }
+
+    /**
+     * Substitution plus rewriting the runs of every placeholder paragraph
+     */
+    @Benchmark
+    public int replaceInParagraphs() {
+        int changed = 0;
+        for (XWPFParagraph paragraph : template.resolveParagraphs(replacementDocument)) {
+            if (WordGenerator.replacePlaceholdersInParagraph(paragraph, data, active, matcher, buffer)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,87 @@
+package com.documentgenerator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the headless CLI to its first document: every invocation
+ * launches a fresh JVM on the packaged jars and generates a one-row
+ * workbook. Class sharing is off, the JDK's default archive, or the
+ * AppCDS archive from the training run.
+ *
+ * Needs the output of mvn -P cds package; -Ddocumerge.lib points
+ * elsewhere than target/lib.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"OFF", "JDK", "APP"})
+    String classSharing;
+
+    private Path dir;
+    private List<String> command;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path lib = Paths.get(System.getProperty("documerge.lib", "target/lib")).toAbsolutePath();
+        Path archive = lib.resolve("documerge-cli.jsa");
+        if (!Files.isRegularFile(archive)) {
+            throw new IllegalStateException("No " + archive + "; run mvn -P cds package first");
+        }
+        dir = BenchmarkFixtures.createTempDir();
+        Path workbook = BenchmarkFixtures.writeWorkbook(dir, 1, 10);
+        Path template = BenchmarkFixtures.writeTemplate(dir, 50, 1, 10, 0, false);
+
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        switch (classSharing) {
+            case "OFF":
+                command.add("-Xshare:off");
+                break;
+            case "APP":
+                command.add("-XX:SharedArchiveFile=" + archive);
+                break;
+            default:
+                break;
+        }
+        command.add("-cp");
+        command.add(lib.resolve("*").toString());
+        command.add("com.documentgenerator.Cli");
+        command.add("--source");
+        command.add(workbook.toString());
+        command.add("--template");
+        command.add(template.toString());
+        command.add("--output");
+        command.add(dir.resolve("out").toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int firstDocument() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        int status = process.waitFor();
+        if (status != 0) {
+            throw new IllegalStateException("CLI exited with " + status);
+        }
+        return status;
+    }
+}
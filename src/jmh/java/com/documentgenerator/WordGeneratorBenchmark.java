@@ -0,0 +1,64 @@
+package com.documentgenerator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of generating one document file from a compiled template,
+ * per output engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WordGeneratorBenchmark {
+
+    @Param({"50"})
+    int paragraphs;
+
+    @Param({"1", "8"})
+    int placeholdersPerParagraph;
+
+    @Param({"10"})
+    int columns;
+
+    @Param({"0", "4"})
+    int tables;
+
+    @Param({"false", "true"})
+    boolean headersAndFooters;
+
+    @Param({"POI", "ZIP_PATCH", "SEGMENT"})
+    RenderEngine engine;
+
+    private Path dir;
+    private CompiledTemplate template;
+    private Map<String, String> data;
+    private String outputPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFixtures.silenceConsole();
+        dir = BenchmarkFixtures.createTempDir();
+        Path templatePath = BenchmarkFixtures.writeTemplate(dir, paragraphs, placeholdersPerParagraph,
+                columns, tables, headersAndFooters);
+        template = CompiledTemplate.forPath(templatePath.toString());
+        data = BenchmarkFixtures.row(1, columns);
+        outputPath = dir.resolve("output.docx").toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void generateDocument() throws Exception {
+        WordGenerator.generateDocument(template, outputPath, data, null, engine);
+    }
+}
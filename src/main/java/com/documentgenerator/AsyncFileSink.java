@@ -0,0 +1,293 @@
+package com.documentgenerator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One file per document in a directory, written by a dedicated thread so
+ * the engine only hands over the bytes. Documents waiting to be written
+ * are limited by size (64 MB by default); beyond that write() blocks.
+ *
+ * Each file is written under a temporary name and renamed when complete,
+ * so a failed write or a crashed process never leaves a truncated document
+ * under its final name. Files are not forced one by one, so after a power
+ * loss a renamed file may still be empty or truncated. With sync on close,
+ * closing forces every written file and the directory to disk in one pass
+ * at the end of the job instead of after every file.
+ *
+ * Duplicates are hard links to the first file with the same content.
+ * A failed write is only reported by close(), which throws once all the
+ * other documents are written; the listener has by then already seen
+ * those rows as completed. Store callbacks never run for a failed write.
+ * Without sync on close they run on the writer thread once the file has
+ * been renamed into place; with it they are held until close() has synced,
+ * so a manifest never lists a document that is not yet on disk.
+ */
+public class AsyncFileSink implements OutputSink {
+
+    static final int DEFAULT_QUEUE_BYTES = 64 * 1024 * 1024;
+
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private static final class Pending {
+        static final Pending END = new Pending(null, null, null, 0, null);
+
+        final Path path;
+        // File with the same content to link to, or null
+        final Path original;
+        final byte[] content;
+        final int permits;
+        // Run once the file is in place, or null
+        final StoredCallback stored;
+
+        Pending(Path path, Path original, byte[] content, int permits, StoredCallback stored) {
+            this.path = path;
+            this.original = original;
+            this.content = content;
+            this.permits = permits;
+            this.stored = stored;
+        }
+    }
+
+    private final Path directory;
+    private final boolean syncOnClose;
+    private final int queueBytes;
+    private final Semaphore queueSpace;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // Only touched by the writer thread until it has been joined
+    private final List<Path> written = new ArrayList<>();
+    private final List<StoredCallback> heldCallbacks = new ArrayList<>();
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+    private volatile boolean closed;
+    // Set once the writer thread has exited, normally or not
+    private volatile boolean stopped;
+
+    public AsyncFileSink(Path directory, boolean syncOnClose) {
+        this(directory, syncOnClose, DEFAULT_QUEUE_BYTES);
+    }
+
+    /**
+     * @param queueBytes most bytes waiting to be written before write() blocks
+     */
+    public AsyncFileSink(Path directory, boolean syncOnClose, int queueBytes) {
+        if (queueBytes < 1) {
+            throw new IllegalArgumentException("Queue size must be at least 1 byte: " + queueBytes);
+        }
+        this.directory = directory;
+        this.syncOnClose = syncOnClose;
+        this.queueBytes = queueBytes;
+        this.queueSpace = new Semaphore(queueBytes);
+        this.writer = new Thread(this::writeLoop, "documerge-file-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public String write(int rowIndex, String name, byte[] content) throws IOException {
+        return enqueue(name, null, content, null);
+    }
+
+    @Override
+    public String write(int rowIndex, String name, byte[] content, StoredCallback stored) throws IOException {
+        return enqueue(name, null, content, stored);
+    }
+
+    /**
+     * Queued like any other document; the writer links it to the original,
+     * which is written first, or writes the bytes if it cannot
+     */
+    @Override
+    public String writeDuplicate(int rowIndex, String name, String originalName, byte[] content)
+            throws IOException {
+        return enqueue(name, directory.resolve(originalName), content, null);
+    }
+
+    @Override
+    public String writeDuplicate(int rowIndex, String name, String originalName, byte[] content,
+                                 StoredCallback stored) throws IOException {
+        return enqueue(name, directory.resolve(originalName), content, stored);
+    }
+
+    private String enqueue(String name, Path original, byte[] content, StoredCallback stored)
+            throws IOException {
+        if (closed) {
+            throw new IOException("Sink is already closed");
+        }
+        checkWriter();
+        // A document larger than the whole queue waits for it to empty
+        int permits = Math.max(1, Math.min(content.length, queueBytes));
+        try {
+            queueSpace.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to queue " + name);
+        }
+        if (stopped) {
+            // Pass the space on to the next caller woken by the stopped writer
+            queueSpace.release(permits);
+            checkWriter();
+        }
+        Path path = directory.resolve(name);
+        queue.add(new Pending(path, original, content, permits, stored));
+        return path.toString();
+    }
+
+    @Override
+    public Path localPath(String name) {
+        return directory.resolve(name);
+    }
+
+    private void checkWriter() throws IOException {
+        if (stopped && !closed) {
+            throw new IOException("Document writer has stopped", firstFailure.get());
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            writeQueued();
+        } catch (Error e) {
+            failures.incrementAndGet();
+            firstFailure.compareAndSet(null, e);
+            throw e;
+        } finally {
+            // Nothing takes from the queue any more, so wake any write() waiting for space
+            stopped = true;
+            queueSpace.release(queueBytes);
+        }
+    }
+
+    private void writeQueued() {
+        while (true) {
+            Pending pending;
+            try {
+                pending = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pending == Pending.END) {
+                return;
+            }
+            try {
+                if (pending.original == null || !DirectorySink.link(pending.path, pending.original)) {
+                    writeFile(pending.path, pending.content);
+                    written.add(pending.path);
+                }
+                writtenCount.incrementAndGet();
+                if (pending.stored != null && syncOnClose) {
+                    heldCallbacks.add(pending.stored);
+                } else if (pending.stored != null) {
+                    pending.stored.stored();
+                }
+            } catch (IOException | RuntimeException e) {
+                // Anything short of an Error fails this document only; the writer carries on
+                failures.incrementAndGet();
+                firstFailure.compareAndSet(null, e);
+            } finally {
+                queueSpace.release(pending.permits);
+            }
+        }
+    }
+
+    private static void writeFile(Path path, byte[] content) throws IOException {
+        Path partial = path.resolveSibling(path.getFileName() + PARTIAL_SUFFIX);
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Number of documents written so far
+     */
+    public int getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Wait for every queued document, then sync them and run the held store
+     * callbacks if configured
+     *
+     * @throws IOException if any document could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(Pending.END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for documents to be written");
+        }
+        // Left behind by a writer that stopped early
+        int unwritten = 0;
+        for (Pending pending : queue) {
+            if (pending != Pending.END) {
+                unwritten++;
+            }
+        }
+        if (unwritten > 0) {
+            failures.addAndGet(unwritten);
+            firstFailure.compareAndSet(null, new IOException("Document writer stopped with documents queued"));
+        }
+        if (syncOnClose) {
+            for (Path path : written) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            syncDirectory();
+            for (StoredCallback stored : heldCallbacks) {
+                try {
+                    stored.stored();
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    firstFailure.compareAndSet(null, e);
+                }
+            }
+        }
+        if (failures.get() > 0) {
+            throw new IOException(failures.get() + " document(s) could not be written; first: "
+                    + firstFailure.get().getMessage(), firstFailure.get());
+        }
+    }
+
+    /**
+     * Make the new directory entries durable; not every platform can open a directory
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Files are synced; their names are left to the file system
+        }
+    }
+}
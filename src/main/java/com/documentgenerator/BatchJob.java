@@ -0,0 +1,338 @@
+package com.documentgenerator;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One batch described as properties - the same keys whether it comes from
+ * a job file, command-line options or a request to the merge server:
+ * <pre>
+ *   source=people.xlsx            .xlsx path or Google Sheets URL
+ *   template=letter.docx
+ *   output=out/letters
+ *   sheet=Sheet1                  Google Sheets tab
+ *   engine=SEGMENT                POI, ZIP_PATCH or SEGMENT
+ *   threads=VIRTUAL               PLATFORM or VIRTUAL
+ *   parallelism=8
+ *   archive=true                  write one documents.zip
+ *   storeOnly=true                archive without compression
+ *   incremental=true              skip rows unchanged since the last run
+ *   asyncWrites=true              write files on a background thread, synced at the end
+ *   adaptive=true                 vary active workers with throughput and heap pressure
+ *   renderCache=true              render rows with the same placeholder values once
+ *   detailSheet=Items             sheet with the records for repeating rows
+ *   detailKey=InvoiceNo           column linking records to document rows
+ *   detailSource=lines.xlsx       workbook or URL of the detail sheet, if not the source
+ * </pre>
+ * Only source, template and output are required. The Google Sheets reader
+ * and its client libraries are loaded only when the source is a Sheets URL.
+ * Only the columns the template uses are read from the sheets.
+ */
+public class BatchJob {
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    final int id;
+    final String source;
+    final String sheet;
+    final String template;
+    final String output;
+    final RenderEngine engine;
+    final ThreadingMode threads;
+    final int parallelism;
+    final boolean archive;
+    final boolean storeOnly;
+    final boolean incremental;
+    final boolean asyncWrites;
+    final boolean adaptive;
+    final boolean renderCache;
+    final String detailSheet;
+    final String detailKey;
+    final String detailSource;
+
+    final GenerationMetrics metrics = new GenerationMetrics();
+    final AtomicInteger completed = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    volatile State state = State.QUEUED;
+    volatile int total = -1;
+    volatile long queuedAt = System.currentTimeMillis();
+    volatile long startedAt;
+    volatile long finishedAt;
+    volatile GenerationEngine.GenerationResult result;
+    volatile String error;
+
+    /**
+     * @throws IllegalArgumentException if a required key is missing or a value is invalid
+     */
+    public BatchJob(int id, Properties description) {
+        this.id = id;
+        this.source = required(description, "source");
+        this.template = required(description, "template");
+        this.output = required(description, "output");
+        this.sheet = description.getProperty("sheet", "Sheet1").trim();
+        String engineName = description.getProperty("engine");
+        this.engine = engineName != null ? RenderEngine.valueOf(engineName.trim().toUpperCase())
+                : RenderEngine.defaultEngine();
+        String threadsName = description.getProperty("threads");
+        this.threads = threadsName != null ? ThreadingMode.valueOf(threadsName.trim().toUpperCase())
+                : ThreadingMode.defaultMode();
+        String workers = description.getProperty("parallelism");
+        this.parallelism = workers != null ? Integer.parseInt(workers.trim())
+                : GenerationEngine.defaultParallelism();
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.archive = Boolean.parseBoolean(description.getProperty("archive", "false").trim());
+        this.storeOnly = Boolean.parseBoolean(description.getProperty("storeOnly", "false").trim());
+        this.incremental = Boolean.parseBoolean(description.getProperty("incremental", "false").trim());
+        this.asyncWrites = Boolean.parseBoolean(description.getProperty("asyncWrites", "false").trim());
+        String adaptiveSetting = description.getProperty("adaptive");
+        this.adaptive = adaptiveSetting != null ? Boolean.parseBoolean(adaptiveSetting.trim())
+                : Boolean.getBoolean("documerge.adaptive");
+        String renderCacheSetting = description.getProperty("renderCache");
+        this.renderCache = renderCacheSetting != null ? Boolean.parseBoolean(renderCacheSetting.trim())
+                : Boolean.getBoolean("documerge.renderCache");
+        this.detailSheet = optional(description, "detailSheet");
+        this.detailKey = optional(description, "detailKey");
+        String details = optional(description, "detailSource");
+        this.detailSource = details != null ? details : source;
+        if ((detailSheet == null) != (detailKey == null)) {
+            throw new IllegalArgumentException("detailSheet and detailKey go together");
+        }
+    }
+
+    private static String optional(Properties description, String key) {
+        String value = description.getProperty(key);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static String required(Properties description, String key) {
+        String value = description.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing " + key);
+        }
+        return value.trim();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Result of the run, null until it has finished generating
+     */
+    public GenerationEngine.GenerationResult getResult() {
+        return result;
+    }
+
+    /**
+     * Why the job failed, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @param columns columns to read, null for all
+     */
+    RowSource rowSource(Set<String> columns) {
+        return source.contains("/spreadsheets/d/") ? RowSource.googleSheets(source, sheet, columns)
+                : RowSource.excel(source, null, columns);
+    }
+
+    RowSource detailRowSource(Set<String> columns) {
+        return detailSource.contains("/spreadsheets/d/")
+                ? RowSource.googleSheets(detailSource, detailSheet, columns)
+                : RowSource.excel(detailSource, detailSheet, columns);
+    }
+
+    /**
+     * Generate the batch on the calling thread and write the metrics reports
+     * next to the output. Errors are recorded on the job rather than thrown;
+     * any failed row makes the job FAILED.
+     *
+     * @param progress also told about every row, may be null
+     */
+    public void run(GenerationEngine.GenerationListener progress) {
+        state = State.RUNNING;
+        startedAt = System.currentTimeMillis();
+        DetailRows details = null;
+        try {
+            long start = metrics.startTimer();
+            CompiledTemplate compiled = CompiledTemplate.forPath(template);
+            metrics.stopTimer(GenerationMetrics.Stage.LOAD_TEMPLATE, start);
+            Set<String> columns = GenerationEngine.requiredColumns(compiled);
+
+            GenerationEngine generationEngine = new GenerationEngine(parallelism);
+            generationEngine.setRenderEngine(engine);
+            generationEngine.setThreadingMode(threads);
+            generationEngine.setMetrics(metrics);
+            generationEngine.setAdaptiveConcurrency(adaptive);
+            if (renderCache) {
+                generationEngine.setRenderCache(new RenderCache());
+            }
+            if (detailSheet != null) {
+                // Records only fill repeating rows, and are matched to document rows by the key
+                Set<String> detailColumns = new HashSet<>();
+                for (CompiledTemplate.RepeatingRow row : compiled.getRepeatingRows()) {
+                    detailColumns.addAll(row.getPlaceholders());
+                }
+                detailColumns.add(detailKey);
+                columns.add(detailKey);
+                details = DetailRows.load(detailRowSource(detailColumns), detailKey);
+                System.out.println("Loaded " + details.size() + " detail records for "
+                        + details.groupCount() + " keys from " + detailSheet
+                        + (details.isSpilled() ? " - spilled to a temporary file" : ""));
+                generationEngine.setDetailSource(details);
+            }
+            GenerationEngine.GenerationListener listener = new GenerationEngine.GenerationListener() {
+                @Override
+                public void rowCompleted(int rowIndex, int completedRows, int totalRows, String outputPath) {
+                    completed.set(completedRows);
+                    total = totalRows;
+                    if (progress != null) {
+                        progress.rowCompleted(rowIndex, completedRows, totalRows, outputPath);
+                    }
+                }
+
+                @Override
+                public void rowFailed(int rowIndex, int completedRows, int totalRows, Exception rowError) {
+                    completed.set(completedRows);
+                    failed.incrementAndGet();
+                    total = totalRows;
+                    if (progress != null) {
+                        progress.rowFailed(rowIndex, completedRows, totalRows, rowError);
+                    }
+                }
+
+                @Override
+                public void rowSkipped(int rowIndex, int completedRows, int totalRows) {
+                    completed.set(completedRows);
+                    total = totalRows;
+                    if (progress != null) {
+                        progress.rowSkipped(rowIndex, completedRows, totalRows);
+                    }
+                }
+
+                @Override
+                public void log(String message) {
+                    if (progress != null) {
+                        progress.log(message);
+                    }
+                }
+            };
+
+            File outputDirectory = new File(output);
+            outputDirectory.mkdirs();
+            GenerationEngine.GenerationResult generated;
+            if (archive) {
+                try (DocumentArchive documents = new DocumentArchive(output + "/" + DocumentArchive.DEFAULT_FILE_NAME,
+                        storeOnly)) {
+                    generated = generationEngine.generateArchive(compiled, rowSource(columns), documents, null,
+                            listener);
+                }
+            } else {
+                OutputSink sink = asyncWrites ? new AsyncFileSink(outputDirectory.toPath(), true)
+                        : OutputSink.directory(outputDirectory.toPath());
+                GenerationManifest manifest = null;
+                try (sink) {
+                    if (incremental) {
+                        manifest = GenerationManifest.open(outputDirectory,
+                                GenerationManifest.fingerprint(compiled, engine, null));
+                        generationEngine.setManifest(manifest);
+                    }
+                    generated = generationEngine.generate(compiled, rowSource(columns), sink, null, listener);
+                } finally {
+                    if (manifest != null) {
+                        manifest.close();
+                    }
+                }
+            }
+            result = generated;
+            total = generated.getTotalRows();
+            metrics.writeReports(outputDirectory.toPath());
+            state = generated.hasFailures() ? State.FAILED : State.SUCCEEDED;
+            if (generated.hasFailures()) {
+                error = generated.getFailures().size() + " row(s) failed; first: " + generated.getFailures().get(0);
+            }
+        } catch (Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+            state = State.FAILED;
+        } finally {
+            closeQuietly(details);
+            finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    private static void closeQuietly(DetailRows details) {
+        if (details != null) {
+            try {
+                details.close();
+            } catch (Exception e) {
+                System.err.println("Could not delete detail records: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Mark a job that never started as failed
+     */
+    void abandon(String reason) {
+        error = reason;
+        state = State.FAILED;
+        finishedAt = System.currentTimeMillis();
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"id\": ").append(id)
+                .append(", \"state\": \"").append(state).append('"')
+                .append(", \"source\": ").append(jsonString(source))
+                .append(", \"template\": ").append(jsonString(template))
+                .append(", \"output\": ").append(jsonString(output))
+                .append(", \"total\": ").append(total)
+                .append(", \"completed\": ").append(completed.get())
+                .append(", \"generated\": ").append(metrics.getDocuments())
+                .append(", \"skipped\": ").append(result != null ? result.getSkipped() : 0)
+                .append(", \"failed\": ").append(failed.get())
+                .append(", \"documentsPerSecond\": ")
+                .append(String.format(Locale.ROOT, "%.1f", metrics.getDocumentsPerSecond()))
+                .append(", \"queuedAt\": ").append(queuedAt)
+                .append(", \"startedAt\": ").append(startedAt)
+                .append(", \"finishedAt\": ").append(finishedAt);
+        if (error != null) {
+            json.append(", \"error\": ").append(jsonString(error));
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * A JSON string literal, quoted and escaped
+     */
+    static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,259 @@
+package com.documentgenerator;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Non-interactive entry point for scripts and schedulers. It never touches
+ * JavaFX, and the Google client libraries are only loaded for a Sheets URL,
+ * so start-up is mostly POI.
+ * <pre>
+ *   java -cp "target/lib/*" com.documentgenerator.Cli --source people.xlsx --template letter.docx --output out
+ *   java -cp "target/lib/*" com.documentgenerator.Cli --job letters.properties [--output elsewhere]
+ * </pre>
+ * Options are the {@link BatchJob} keys ({@code --store-only} for storeOnly,
+ * {@code --detail-sheet} for detailSheet and so on);
+ * options given on the command line override the job file.
+ *
+ * {@code mvn -P cds package} also records the classes of a training run
+ * ({@code --train}) into target/lib/documerge-cli.jsa. Starting with
+ * {@code -XX:SharedArchiveFile=target/lib/documerge-cli.jsa} maps them in
+ * already parsed and verified instead of loading them from the jars.
+ *
+ * {@code --precompile} saves the analysis of every template under a
+ * directory as a {@link PrecompiledTemplate} artifact, next to each
+ * template or in the given artifact directory, so later runs skip parsing
+ * them.
+ *
+ * While a job runs, one progress line with the rate and estimated time
+ * left is printed per second (documerge.progress.intervalMillis); failed
+ * rows go to standard error.
+ *
+ * Exit status: 0 if every row was generated or skipped, 1 if the job
+ * failed, 2 for invalid arguments.
+ */
+public class Cli {
+
+    static final String USAGE =
+            "Usage: Cli --source <file.xlsx|sheets url> --template <file.docx> --output <dir> [options]\n" +
+            "       Cli --job <file.properties> [options]\n" +
+            "       Cli --precompile <dir|file.docx> [--artifact-dir <dir>]\n" +
+            "       Cli --train\n" +
+            "Options: --sheet <tab> --engine POI|ZIP_PATCH|SEGMENT --threads PLATFORM|VIRTUAL\n" +
+            "         --parallelism <n> --adaptive --archive --store-only --incremental --async-writes\n" +
+            "         --render-cache --detail-sheet <sheet> --detail-key <column> [--detail-source <file.xlsx|sheets url>]";
+
+    static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        Properties description;
+        try {
+            if (args.length == 1 && "--train".equals(args[0])) {
+                return train();
+            }
+            if (args.length > 0 && "--precompile".equals(args[0])) {
+                return precompile(args);
+            }
+            description = parseArguments(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        BatchJob job;
+        try {
+            job = new BatchJob(1, description);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        // One progress line per interval however fast rows complete
+        ProgressDispatcher progress = new ProgressDispatcher(Cli::printProgress, Runnable::run,
+                Long.getLong("documerge.progress.intervalMillis", PROGRESS_INTERVAL_MILLIS), null);
+        progress.start();
+        try {
+            job.run(progress);
+        } finally {
+            progress.finish(job.getResult() != null ? job.getResult().getTotalRows() : -1);
+        }
+        System.out.println(job.getMetrics().summaryLine());
+        if (job.getState() != BatchJob.State.SUCCEEDED) {
+            System.err.println("Job failed: " + job.getError());
+            return 1;
+        }
+        return 0;
+    }
+
+    static void printProgress(ProgressDispatcher.Progress progress) {
+        for (String message : progress.getMessages()) {
+            System.err.println(message);
+        }
+        if (progress.getPhase() != ProgressDispatcher.Phase.STARTED) {
+            System.out.println("Progress: " + progress.statusLine());
+        }
+    }
+
+    /**
+     * Job properties from --job and the other options, which take precedence
+     */
+    static Properties parseArguments(String[] args) throws IOException {
+        Properties description = new Properties();
+        Properties options = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String name = arg.substring(2);
+            String value = null;
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                value = name.substring(equals + 1);
+                name = name.substring(0, equals);
+            }
+            String key = propertyKey(name);
+            boolean flag = key.equals("archive") || key.equals("storeOnly") || key.equals("incremental")
+                    || key.equals("adaptive") || key.equals("asyncWrites")
+                    || key.equals("renderCache");
+            if (value == null) {
+                if (flag) {
+                    value = "true";
+                } else if (i + 1 < args.length) {
+                    value = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Missing value for --" + name);
+                }
+            }
+            if (key.equals("job")) {
+                try (Reader reader = new FileReader(value, StandardCharsets.UTF_8)) {
+                    description.load(reader);
+                }
+            } else {
+                options.setProperty(key, value);
+            }
+        }
+        description.putAll(options);
+        return description;
+    }
+
+    private static String propertyKey(String option) {
+        switch (option) {
+            case "source":
+            case "template":
+            case "output":
+            case "sheet":
+            case "engine":
+            case "threads":
+            case "parallelism":
+            case "archive":
+            case "incremental":
+            case "adaptive":
+            case "job":
+                return option;
+            case "store-only":
+                return "storeOnly";
+            case "async-writes":
+                return "asyncWrites";
+            case "render-cache":
+                return "renderCache";
+            case "detail-sheet":
+                return "detailSheet";
+            case "detail-key":
+                return "detailKey";
+            case "detail-source":
+                return "detailSource";
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + option);
+        }
+    }
+
+    /**
+     * Write precompiled artifacts for a template or a directory of them
+     */
+    static int precompile(String[] args) throws IOException {
+        Path artifactDirectory = null;
+        if (args.length == 4 && "--artifact-dir".equals(args[2])) {
+            artifactDirectory = Paths.get(args[3]);
+        } else if (args.length != 2) {
+            throw new IllegalArgumentException("--precompile takes a template or directory and an optional --artifact-dir");
+        }
+        Path templates = Paths.get(args[1]);
+        if (!Files.exists(templates)) {
+            throw new IllegalArgumentException("No such template or directory: " + templates);
+        }
+        long start = System.nanoTime();
+        List<Path> artifacts = PrecompiledTemplate.precompileAll(templates, artifactDirectory);
+        for (Path artifact : artifacts) {
+            System.out.println("Precompiled " + artifact);
+        }
+        System.out.printf("Precompiled %d template(s) in %d ms%n", artifacts.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        return 0;
+    }
+
+    /**
+     * Generate the bundled sample with every engine, to and from a
+     * temporary directory, so a class-list recording sees the classes a
+     * real run loads
+     */
+    static int train() throws IOException {
+        Path dir = Files.createTempDirectory("documerge-train");
+        try {
+            Path source = copyResource("/data/sample-data.xlsx", dir.resolve("sample-data.xlsx"));
+            Path template = copyResource("/templates/document-template.docx", dir.resolve("template.docx"));
+            int status = 0;
+            for (RenderEngine engine : RenderEngine.values()) {
+                Properties description = new Properties();
+                description.setProperty("source", source.toString());
+                description.setProperty("template", template.toString());
+                description.setProperty("output", dir.resolve(engine.name()).toString());
+                description.setProperty("engine", engine.name());
+                description.setProperty("archive", Boolean.toString(engine == RenderEngine.SEGMENT));
+                BatchJob job = new BatchJob(1, description);
+                job.run(null);
+                System.out.println("Training run " + engine + ": " + job.getState());
+                if (job.getState() != BatchJob.State.SUCCEEDED) {
+                    System.err.println(job.getError());
+                    status = 1;
+                }
+            }
+            return status;
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static Path copyResource(String resource, Path target) throws IOException {
+        try (InputStream in = Cli.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Missing resource " + resource);
+            }
+            Files.copy(in, target);
+        }
+        return target;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.documentgenerator;
+
+import org.apache.poi.xwpf.usermodel.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+
+/**
+ * A Word template analysed once per job: the raw package bytes, the detected
+ * placeholder set and the paragraph/run location of every placeholder.
+ *
+ * A body table row holding a section marker such as {@code <<#Items>>} is a
+ * repeating row: it is written once per detail record of that section, and
+ * the placeholders inside it take their values from the detail record.
+ * Those placeholders and the marker are not part of the document's own
+ * placeholder set or locations.
+ */
+public class CompiledTemplate {
+
+    // Templates kept compiled, overridable with -Ddocumerge.templateCache.size
+    static final int DEFAULT_CACHE_SIZE = 16;
+
+    private static final int CACHE_SIZE = Math.max(1, Integer.getInteger("documerge.templateCache.size",
+            DEFAULT_CACHE_SIZE));
+
+    // Least recently used out first, so a long-running server keeps only the templates in use.
+    // Guarded by the class lock.
+    private static final Map<String, CompiledTemplate> CACHE = new LinkedHashMap<String, CompiledTemplate>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledTemplate> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Where a paragraph lives in the document. Locations are recorded in the
+     * order body, tables, headers, footers
+     */
+    public enum PartType { BODY, TABLE, HEADER, FOOTER }
+
+    /**
+     * Location of a single placeholder occurrence
+     */
+    public static class PlaceholderLocation {
+        private final PartType partType;
+        private final int partIndex;
+        private final int rowIndex;
+        private final int cellIndex;
+        private final int paragraphIndex;
+        private final int firstRun;
+        private final int lastRun;
+        private final String placeholder;
+
+        PlaceholderLocation(PartType partType, int partIndex, int rowIndex, int cellIndex,
+                            int paragraphIndex, int firstRun, int lastRun, String placeholder) {
+            this.partType = partType;
+            this.partIndex = partIndex;
+            this.rowIndex = rowIndex;
+            this.cellIndex = cellIndex;
+            this.paragraphIndex = paragraphIndex;
+            this.firstRun = firstRun;
+            this.lastRun = lastRun;
+            this.placeholder = placeholder;
+        }
+
+        public PartType getPartType() { return partType; }
+        public int getPartIndex() { return partIndex; }
+        public int getRowIndex() { return rowIndex; }
+        public int getCellIndex() { return cellIndex; }
+        public int getParagraphIndex() { return paragraphIndex; }
+        /** Index of the run where the placeholder starts, or -1 if it is not inside a plain run */
+        public int getFirstRun() { return firstRun; }
+        /** Index of the run where the placeholder ends, or -1 if it is not inside a plain run */
+        public int getLastRun() { return lastRun; }
+        public String getPlaceholder() { return placeholder; }
+
+        boolean sameParagraph(PlaceholderLocation other) {
+            return partType == other.partType && partIndex == other.partIndex
+                    && rowIndex == other.rowIndex && cellIndex == other.cellIndex
+                    && paragraphIndex == other.paragraphIndex;
+        }
+
+        @Override
+        public String toString() {
+            return placeholder + "@" + partType + "[" + partIndex + "," + rowIndex + "," + cellIndex
+                    + "," + paragraphIndex + "] runs " + firstRun + ".." + lastRun;
+        }
+    }
+
+    // A placeholder named #Section marks the table row repeated for that section
+    static final String SECTION_PREFIX = "#";
+
+    /**
+     * A table row repeated once per detail record of a section
+     */
+    public static class RepeatingRow {
+        private final int tableIndex;
+        private final int rowIndex;
+        private final String section;
+        private final Set<String> placeholders;
+        // The marker as written, which replacement matches untrimmed
+        final String marker;
+
+        RepeatingRow(int tableIndex, int rowIndex, String section, Set<String> placeholders, String marker) {
+            this.tableIndex = tableIndex;
+            this.rowIndex = rowIndex;
+            this.section = section;
+            this.marker = marker;
+            this.placeholders = Collections.unmodifiableSet(placeholders);
+        }
+
+        public int getTableIndex() { return tableIndex; }
+        public int getRowIndex() { return rowIndex; }
+        /** Section name, without the leading # */
+        public String getSection() { return section; }
+        /** Placeholder names inside the row, filled from the detail record */
+        public Set<String> getPlaceholders() { return placeholders; }
+
+        boolean contains(PlaceholderLocation location) {
+            return location.partType == PartType.TABLE && location.partIndex == tableIndex
+                    && location.rowIndex == rowIndex;
+        }
+
+        @Override
+        public String toString() {
+            return SECTION_PREFIX + section + "@TABLE[" + tableIndex + "," + rowIndex + "] " + placeholders;
+        }
+    }
+
+    private final String templatePath;
+    private final byte[] templateBytes;
+    private final long lastModified;
+    private final long fileSize;
+    private final String hash;
+    private final TemplateArchive archive;
+    private final Set<String> placeholders;
+    private final List<PlaceholderLocation> locations;
+    private final List<PlaceholderLocation> paragraphs;
+    private final List<RepeatingRow> repeatingRows;
+    private final Map<Set<String>, SegmentedTemplate> segmentedTemplates = new ConcurrentHashMap<>();
+
+    private CompiledTemplate(String templatePath, byte[] templateBytes, long lastModified, long fileSize,
+                             String hash, TemplateArchive archive, Set<String> placeholders,
+                             List<PlaceholderLocation> locations, List<RepeatingRow> repeatingRows) {
+        this.templatePath = templatePath;
+        this.templateBytes = templateBytes;
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+        this.hash = hash;
+        this.archive = archive;
+        this.placeholders = Collections.unmodifiableSet(placeholders);
+        this.locations = Collections.unmodifiableList(locations);
+        this.repeatingRows = Collections.unmodifiableList(repeatingRows);
+
+        // One entry per distinct paragraph, in traversal order
+        List<PlaceholderLocation> distinct = new ArrayList<>();
+        for (PlaceholderLocation location : locations) {
+            if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).sameParagraph(location)) {
+                distinct.add(location);
+            }
+        }
+        this.paragraphs = Collections.unmodifiableList(distinct);
+    }
+
+    /**
+     * Get the compiled form of a template, reusing the cached one unless the
+     * file's modification time, size or content hash has changed. Otherwise
+     * the file is read once and hashed; a precompiled artifact for the same
+     * content (see {@link PrecompiledTemplate}) saves compiling it. The
+     * least recently used templates are dropped once more than 16 are cached.
+     */
+    public static synchronized CompiledTemplate forPath(String templatePath) throws IOException {
+        File file = new File(templatePath);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("Template not found: " + templatePath);
+        }
+        String key = file.getAbsolutePath();
+        CompiledTemplate cached = CACHE.get(key);
+        if (cached != null && cached.lastModified == file.lastModified() && cached.fileSize == file.length()) {
+            return cached;
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String hash = sha256(bytes);
+        CompiledTemplate compiled;
+        if (cached != null && cached.hash.equals(hash)) {
+            // Touched but not modified - keep the analysis, refresh the file stamp
+            compiled = new CompiledTemplate(key, cached.templateBytes, file.lastModified(), file.length(),
+                    hash, cached.archive, cached.placeholders, cached.locations, cached.repeatingRows);
+        } else {
+            compiled = PrecompiledTemplate.load(file, bytes, hash);
+            if (compiled == null) {
+                compiled = compile(key, bytes, file.lastModified(), hash);
+            }
+        }
+        CACHE.put(key, compiled);
+        return compiled;
+    }
+
+    /**
+     * Drop a template from the cache so the next lookup re-reads it from disk
+     */
+    public static synchronized void invalidate(String templatePath) {
+        CACHE.remove(new File(templatePath).getAbsolutePath());
+    }
+
+    /**
+     * Compile a template from disk, bypassing the cache and any precompiled artifact
+     */
+    static CompiledTemplate compileFile(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        return compile(file.getAbsolutePath(), bytes, file.lastModified(), sha256(bytes));
+    }
+
+    /**
+     * Rebuild a compiled template from analysis saved by {@link PrecompiledTemplate}
+     */
+    static CompiledTemplate restore(String templatePath, byte[] bytes, long lastModified, String hash,
+                                    Set<String> placeholders, List<PlaceholderLocation> locations,
+                                    List<RepeatingRow> repeatingRows) throws IOException {
+        return new CompiledTemplate(templatePath, bytes, lastModified, bytes.length, hash,
+                TemplateArchive.parse(bytes), placeholders, locations, repeatingRows);
+    }
+
+    private static CompiledTemplate compile(String templatePath, byte[] bytes, long lastModified,
+                                            String hash) throws IOException {
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(bytes))) {
+            Set<String> detected = WordGenerator.detectPlaceholders(document);
+            List<PlaceholderLocation> locations = locatePlaceholders(document);
+            List<RepeatingRow> repeatingRows = locateRepeatingRows(locations);
+            if (!repeatingRows.isEmpty()) {
+                // Markers and names used only inside repeating rows belong to the detail records
+                List<PlaceholderLocation> ownLocations = new ArrayList<>();
+                Set<String> ownNames = new HashSet<>();
+                for (PlaceholderLocation location : locations) {
+                    if (!inRepeatingRow(repeatingRows, location)) {
+                        ownLocations.add(location);
+                        ownNames.add(location.placeholder.trim());
+                    }
+                }
+                for (RepeatingRow row : repeatingRows) {
+                    for (String name : row.placeholders) {
+                        if (!ownNames.contains(name.trim())) {
+                            detected.remove(name.trim());
+                        }
+                    }
+                    detected.remove(SECTION_PREFIX + row.section);
+                }
+                locations = ownLocations;
+            }
+            return new CompiledTemplate(templatePath, bytes, lastModified, bytes.length, hash,
+                    TemplateArchive.parse(bytes), detected, locations, repeatingRows);
+        }
+    }
+
+    /**
+     * Record every placeholder occurrence, walking body paragraphs, table
+     * cells, headers and footers the same way detection does
+     */
+    private static List<PlaceholderLocation> locatePlaceholders(XWPFDocument document) {
+        List<PlaceholderLocation> locations = new ArrayList<>();
+
+        List<XWPFParagraph> bodyParagraphs = document.getParagraphs();
+        for (int p = 0; p < bodyParagraphs.size(); p++) {
+            locateInParagraph(bodyParagraphs.get(p), PartType.BODY, 0, -1, -1, p, locations);
+        }
+
+        List<XWPFTable> tables = document.getTables();
+        for (int t = 0; t < tables.size(); t++) {
+            List<XWPFTableRow> rows = tables.get(t).getRows();
+            for (int r = 0; r < rows.size(); r++) {
+                List<XWPFTableCell> cells = rows.get(r).getTableCells();
+                for (int c = 0; c < cells.size(); c++) {
+                    List<XWPFParagraph> cellParagraphs = cells.get(c).getParagraphs();
+                    for (int p = 0; p < cellParagraphs.size(); p++) {
+                        locateInParagraph(cellParagraphs.get(p), PartType.TABLE, t, r, c, p, locations);
+                    }
+                }
+            }
+        }
+
+        List<XWPFHeader> headers = document.getHeaderList();
+        for (int h = 0; h < headers.size(); h++) {
+            List<XWPFParagraph> headerParagraphs = headers.get(h).getParagraphs();
+            for (int p = 0; p < headerParagraphs.size(); p++) {
+                locateInParagraph(headerParagraphs.get(p), PartType.HEADER, h, -1, -1, p, locations);
+            }
+        }
+
+        List<XWPFFooter> footers = document.getFooterList();
+        for (int f = 0; f < footers.size(); f++) {
+            List<XWPFParagraph> footerParagraphs = footers.get(f).getParagraphs();
+            for (int p = 0; p < footerParagraphs.size(); p++) {
+                locateInParagraph(footerParagraphs.get(p), PartType.FOOTER, f, -1, -1, p, locations);
+            }
+        }
+
+        return locations;
+    }
+
+    /**
+     * Find the body table rows holding a section marker, in document order
+     */
+    private static List<RepeatingRow> locateRepeatingRows(List<PlaceholderLocation> locations) throws IOException {
+        List<RepeatingRow> rows = new ArrayList<>();
+        for (PlaceholderLocation location : locations) {
+            String name = location.placeholder.trim();
+            if (!name.startsWith(SECTION_PREFIX)) {
+                continue;
+            }
+            if (location.partType != PartType.TABLE) {
+                throw new IOException("Section marker <<" + name + ">> must be inside a table row");
+            }
+            for (RepeatingRow row : rows) {
+                if (row.contains(location)) {
+                    throw new IOException("Table row holds two section markers: <<" + SECTION_PREFIX
+                            + row.section + ">> and <<" + name + ">>");
+                }
+            }
+            Set<String> placeholders = new LinkedHashSet<>();
+            for (PlaceholderLocation other : locations) {
+                if (other.partType == PartType.TABLE && other.partIndex == location.partIndex
+                        && other.rowIndex == location.rowIndex && !other.placeholder.trim().startsWith(SECTION_PREFIX)) {
+                    placeholders.add(other.placeholder);
+                }
+            }
+            rows.add(new RepeatingRow(location.partIndex, location.rowIndex,
+                    name.substring(SECTION_PREFIX.length()), placeholders, location.placeholder));
+        }
+        return rows;
+    }
+
+    private static boolean inRepeatingRow(List<RepeatingRow> rows, PlaceholderLocation location) {
+        for (RepeatingRow row : rows) {
+            if (row.contains(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void locateInParagraph(XWPFParagraph paragraph, PartType partType, int partIndex,
+                                          int rowIndex, int cellIndex, int paragraphIndex,
+                                          List<PlaceholderLocation> locations) {
+        String text = paragraph.getText();
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        Matcher matcher = WordGenerator.PLACEHOLDER_PATTERN.matcher(text);
+        if (!matcher.find()) {
+            return;
+        }
+
+        // Character offsets of each run within the concatenated run text
+        List<XWPFRun> runs = paragraph.getRuns();
+        int[] runStarts = new int[runs.size() + 1];
+        StringBuilder runText = new StringBuilder(text.length());
+        for (int i = 0; i < runs.size(); i++) {
+            runStarts[i] = runText.length();
+            String value = runs.get(i).text();
+            if (value != null) {
+                runText.append(value);
+            }
+        }
+        runStarts[runs.size()] = runText.length();
+        boolean runsMatchText = runText.toString().equals(text);
+
+        do {
+            int firstRun = -1;
+            int lastRun = -1;
+            if (runsMatchText) {
+                firstRun = runIndexAt(runStarts, matcher.start());
+                lastRun = runIndexAt(runStarts, matcher.end() - 1);
+            }
+            // Replacement looks the raw name up, so keep it untrimmed here
+            locations.add(new PlaceholderLocation(partType, partIndex, rowIndex, cellIndex,
+                    paragraphIndex, firstRun, lastRun, matcher.group(1)));
+        } while (matcher.find());
+    }
+
+    private static int runIndexAt(int[] runStarts, int offset) {
+        for (int i = 0; i < runStarts.length - 1; i++) {
+            if (offset >= runStarts[i] && offset < runStarts[i + 1]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Open a fresh, independently modifiable copy of the template from memory
+     */
+    public XWPFDocument openDocument() throws IOException {
+        return new XWPFDocument(new ByteArrayInputStream(templateBytes));
+    }
+
+    /**
+     * Resolve the paragraphs that contain placeholders inside a document
+     * opened with {@link #openDocument()}
+     */
+    public List<XWPFParagraph> resolveParagraphs(XWPFDocument document) {
+        List<XWPFParagraph> resolved = new ArrayList<>(paragraphs.size());
+        for (PlaceholderLocation location : paragraphs) {
+            resolved.add(resolve(document, location));
+        }
+        return resolved;
+    }
+
+    private static XWPFParagraph resolve(XWPFDocument document, PlaceholderLocation location) {
+        switch (location.partType) {
+            case BODY:
+                return document.getParagraphs().get(location.paragraphIndex);
+            case TABLE:
+                return document.getTables().get(location.partIndex)
+                        .getRows().get(location.rowIndex)
+                        .getTableCells().get(location.cellIndex)
+                        .getParagraphs().get(location.paragraphIndex);
+            case HEADER:
+                return document.getHeaderList().get(location.partIndex)
+                        .getParagraphs().get(location.paragraphIndex);
+            case FOOTER:
+                return document.getFooterList().get(location.partIndex)
+                        .getParagraphs().get(location.paragraphIndex);
+            default:
+                throw new IllegalStateException("Unknown part type: " + location.partType);
+        }
+    }
+
+    /**
+     * The segment-split form of this template for a set of active placeholders,
+     * analysed on first use and then shared by all rows with the same set
+     */
+    public SegmentedTemplate segmented(Set<String> activePlaceholders) throws IOException {
+        SegmentedTemplate segmented = segmentedTemplates.get(activePlaceholders);
+        if (segmented == null) {
+            Set<String> key = Collections.unmodifiableSet(new HashSet<>(activePlaceholders));
+            segmented = SegmentedTemplate.analyse(this, key);
+            SegmentedTemplate existing = segmentedTemplates.putIfAbsent(key, segmented);
+            if (existing != null) {
+                segmented = existing;
+            }
+        }
+        return segmented;
+    }
+
+    /**
+     * Segmented forms analysed so far, keyed by active placeholder set
+     */
+    Map<Set<String>, SegmentedTemplate> getSegmentedTemplates() {
+        return Collections.unmodifiableMap(segmentedTemplates);
+    }
+
+    void addSegmented(Set<String> activePlaceholders, SegmentedTemplate segmented) {
+        segmentedTemplates.putIfAbsent(Collections.unmodifiableSet(new HashSet<>(activePlaceholders)), segmented);
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hashed = digest.digest(bytes);
+            StringBuilder hex = new StringBuilder(hashed.length * 2);
+            for (byte b : hashed) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public String getTemplatePath() { return templatePath; }
+    public String getHash() { return hash; }
+    public long getLastModified() { return lastModified; }
+    public long getFileSize() { return fileSize; }
+    public Set<String> getPlaceholders() { return placeholders; }
+    public List<PlaceholderLocation> getLocations() { return locations; }
+    public List<RepeatingRow> getRepeatingRows() { return repeatingRows; }
+    public boolean hasRepeatingRows() { return !repeatingRows.isEmpty(); }
+
+    byte[] getTemplateBytes() { return templateBytes; }
+    TemplateArchive getArchive() { return archive; }
+}
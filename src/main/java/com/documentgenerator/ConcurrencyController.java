@@ -0,0 +1,265 @@
+package com.documentgenerator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many workers render at once and moves that limit during a run.
+ * Once per interval it samples renders completed, the share of the
+ * interval spent in GC (GarbageCollectorMXBean) and old generation
+ * occupancy after the last collection (MemoryPoolMXBean):
+ * <ul>
+ *   <li>under heap pressure - old gen over 85% or GC over 25% of the time -
+ *       the limit is halved, and nothing else changes for two intervals;</li>
+ *   <li>with some pressure - old gen over 75% or GC over 10% - it is held;</li>
+ *   <li>otherwise a worker is added, and taken back if throughput did not
+ *       rise by at least 5%, after which it waits five intervals before
+ *       trying again.</li>
+ * </ul>
+ * It starts at the maximum, so CPU-bound templates keep every worker, and
+ * backs off when documents that are large in memory crowd the heap.
+ *
+ * The worker pool stays at its full size; workers above the limit wait in
+ * {@link #acquire()} until the limit rises again.
+ */
+public class ConcurrencyController implements AutoCloseable {
+
+    static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    static final double SHRINK_OCCUPANCY = 0.85;
+    static final double SHRINK_GC_FRACTION = 0.25;
+    static final double HOLD_OCCUPANCY = 0.75;
+    static final double HOLD_GC_FRACTION = 0.10;
+    static final double MIN_GAIN = 0.05;
+    static final int SHRINK_COOLDOWN = 2;
+    static final int PROBE_COOLDOWN = 5;
+
+    /**
+     * A semaphore whose permits can be taken away while they are in use
+     */
+    private static final class Limiter extends Semaphore {
+        Limiter(int permits) {
+            super(permits, true);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final long intervalMillis;
+    private final Limiter limiter;
+    private final AtomicLong renders = new AtomicLong();
+    private final MemoryPoolMXBean oldGeneration = findOldGeneration();
+
+    private volatile int limit;
+    private ScheduledExecutorService sampler;
+
+    // Sampler state, only touched by the sampling thread
+    private long lastSampleNanos;
+    private long lastRenders;
+    private long lastGcMillis;
+    private double previousThroughput;
+    private boolean probing;
+    private int cooldown;
+
+    public ConcurrencyController(int minWorkers, int maxWorkers) {
+        this(minWorkers, maxWorkers, Long.getLong("documerge.adaptive.intervalMillis", DEFAULT_INTERVAL_MILLIS));
+    }
+
+    public ConcurrencyController(int minWorkers, int maxWorkers, long intervalMillis) {
+        if (minWorkers < 1 || maxWorkers < minWorkers) {
+            throw new IllegalArgumentException("Invalid worker range: " + minWorkers + ".." + maxWorkers);
+        }
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.intervalMillis = intervalMillis;
+        this.limit = maxWorkers;
+        this.limiter = new Limiter(maxWorkers);
+    }
+
+    /**
+     * The heap pool long-lived objects end up in: the old or tenured
+     * generation, or the only heap pool of a single-generation collector
+     */
+    private static MemoryPoolMXBean findOldGeneration() {
+        MemoryPoolMXBean fallback = null;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            String name = pool.getName().toLowerCase(Locale.ROOT);
+            if (name.contains("old") || name.contains("tenured")) {
+                return pool;
+            }
+            if (!name.contains("eden") && !name.contains("survivor")) {
+                fallback = pool;
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Start sampling every interval
+     */
+    public synchronized void start() {
+        if (sampler != null) {
+            return;
+        }
+        lastSampleNanos = System.nanoTime();
+        lastRenders = renders.get();
+        lastGcMillis = gcMillis();
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "documerge-concurrency");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wait for a render slot
+     */
+    public void acquire() throws InterruptedException {
+        limiter.acquire();
+    }
+
+    /**
+     * Give back a render slot after a render, successful or not
+     */
+    public void release() {
+        renders.incrementAndGet();
+        limiter.release();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    private void sample() {
+        try {
+            long now = System.nanoTime();
+            long completed = renders.get();
+            long gc = gcMillis();
+            double seconds = (now - lastSampleNanos) / 1e9;
+            double throughput = (completed - lastRenders) / seconds;
+            double gcFraction = gc >= 0 && lastGcMillis >= 0 ? (gc - lastGcMillis) / (seconds * 1000) : 0;
+            lastSampleNanos = now;
+            lastRenders = completed;
+            lastGcMillis = gc;
+
+            double occupancy = oldGenerationOccupancy();
+            int previous = limit;
+            int next = decide(throughput, gcFraction, occupancy);
+            if (next != previous) {
+                System.out.println(String.format(Locale.ROOT,
+                        "Render workers %d -> %d (%.1f docs/s, GC %.0f%%, old gen %.0f%%)",
+                        previous, next, throughput, gcFraction * 100, occupancy * 100));
+            }
+        } catch (RuntimeException e) {
+            // Keep sampling; a failed sample leaves the limit where it was
+            System.err.println("Concurrency sample failed: " + e);
+        }
+    }
+
+    /**
+     * Move the limit for one interval's observations and return it
+     *
+     * @param throughput renders per second over the interval
+     * @param gcFraction share of the interval spent in GC
+     * @param occupancy used share of the old generation
+     */
+    int decide(double throughput, double gcFraction, double occupancy) {
+        int next = limit;
+        if (occupancy > SHRINK_OCCUPANCY || gcFraction > SHRINK_GC_FRACTION) {
+            next = Math.max(minWorkers, limit / 2);
+            probing = false;
+            cooldown = SHRINK_COOLDOWN;
+        } else if (cooldown > 0) {
+            cooldown--;
+        } else if (occupancy > HOLD_OCCUPANCY || gcFraction > HOLD_GC_FRACTION) {
+            probing = false;
+        } else if (probing && throughput < previousThroughput * (1 + MIN_GAIN)) {
+            // The last worker added did not pay for itself
+            next = Math.max(minWorkers, limit - 1);
+            probing = false;
+            cooldown = PROBE_COOLDOWN;
+        } else if (limit < maxWorkers && throughput > 0) {
+            next = limit + 1;
+            probing = true;
+        } else {
+            probing = false;
+        }
+        previousThroughput = throughput;
+        setLimit(next);
+        return next;
+    }
+
+    private synchronized void setLimit(int next) {
+        if (next > limit) {
+            limiter.release(next - limit);
+        } else if (next < limit) {
+            limiter.reduce(limit - next);
+        }
+        limit = next;
+    }
+
+    /**
+     * Total collection time of all collectors in milliseconds, or -1 if not reported
+     */
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long time = collector.getCollectionTime();
+            if (time < 0) {
+                return -1;
+            }
+            total += time;
+        }
+        return total;
+    }
+
+    /**
+     * Used share of the old generation as the last collection left it.
+     * Current usage includes garbage not collected yet, which with the
+     * Parallel and Serial collectors routinely fills the old generation
+     * between full collections.
+     */
+    private double oldGenerationOccupancy() {
+        if (oldGeneration == null) {
+            return 0;
+        }
+        MemoryUsage usage = oldGeneration.getCollectionUsage();
+        if (usage == null) {
+            usage = oldGeneration.getUsage();
+        }
+        long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        return max > 0 ? (double) usage.getUsed() / max : 0;
+    }
+
+    /**
+     * Stop sampling; slots already handed out stay valid
+     */
+    @Override
+    public synchronized void close() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.documentgenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Detail records read from a second sheet and grouped by a key column,
+ * e.g. invoice lines keyed by InvoiceNo. A document row gets the records
+ * whose key equals its own value in the same column. Records loaded from
+ * a source are kept in a {@link SpillingRowStore}, which holds them in a
+ * {@link RowTable} until they are too large for memory and then moves them
+ * to a temporary file; records given as maps go straight into a RowTable.
+ * Each group is only an array of row numbers, so thousands of lines per
+ * document cost little beyond the records themselves. Close the records
+ * to delete any spill files.
+ *
+ * Every section of the template is filled from this one sheet.
+ */
+public class DetailRows implements DetailSource, Closeable {
+
+    private static final int[] NO_ROWS = new int[0];
+
+    private final String keyColumn;
+    private final List<Map<String, String>> table;
+    private final Map<String, int[]> groups;
+
+    private DetailRows(String keyColumn, List<Map<String, String>> table, Map<String, int[]> groups) {
+        this.keyColumn = keyColumn;
+        this.table = table;
+        this.groups = groups;
+    }
+
+    /**
+     * Read every record of the source and group it by the key column
+     *
+     * @throws IOException if the source has records but no such column
+     */
+    public static DetailRows load(RowSource source, String keyColumn) throws Exception {
+        SpillingRowStore store = SpillingRowStore.load(source);
+        try {
+            return group(store, store.getHeaders(), keyColumn);
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Group records already in memory by the key column
+     *
+     * @throws IOException if there are records but no such column
+     */
+    public static DetailRows of(List<Map<String, String>> rows, String keyColumn) throws IOException {
+        RowTable table = RowTable.of(rows);
+        return group(table, table.getHeaders(), keyColumn);
+    }
+
+    private static DetailRows group(List<Map<String, String>> table, List<String> headers,
+                                    String keyColumn) throws IOException {
+        if (!table.isEmpty() && !headers.contains(keyColumn)) {
+            throw new IOException("Detail rows have no key column " + keyColumn + ": " + headers);
+        }
+
+        // Count first so every group is a single exact-size array
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < table.size(); i++) {
+            String key = table.get(i).get(keyColumn);
+            if (key != null) {
+                counts.merge(key, 1, Integer::sum);
+            }
+        }
+        Map<String, int[]> groups = new HashMap<>(counts.size() * 2);
+        Map<String, Integer> filled = new HashMap<>(counts.size() * 2);
+        for (int i = 0; i < table.size(); i++) {
+            String key = table.get(i).get(keyColumn);
+            if (key == null) {
+                continue;
+            }
+            int[] group = groups.computeIfAbsent(key, k -> new int[counts.get(k)]);
+            int next = filled.merge(key, 1, Integer::sum) - 1;
+            group[next] = i;
+        }
+        return new DetailRows(keyColumn, table, groups);
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Number of records across all groups
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * Whether the records were too large for memory and moved to a temporary file
+     */
+    public boolean isSpilled() {
+        return table instanceof SpillingRowStore && ((SpillingRowStore) table).isSpilled();
+    }
+
+    /**
+     * Number of distinct keys
+     */
+    public int groupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Records with the given key, in sheet order
+     */
+    public List<Map<String, String>> rowsFor(String key) {
+        int[] rows = key != null ? groups.getOrDefault(key, NO_ROWS) : NO_ROWS;
+        return new AbstractList<Map<String, String>>() {
+            @Override
+            public Map<String, String> get(int index) {
+                return table.get(rows[index]);
+            }
+
+            @Override
+            public int size() {
+                return rows.length;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Map<String, String>> rows(String section, Map<String, String> parentRow) {
+        return rowsFor(parentRow.get(keyColumn));
+    }
+
+    /**
+     * Delete the temporary files of records spilled to disk
+     */
+    @Override
+    public void close() throws IOException {
+        if (table instanceof SpillingRowStore) {
+            ((SpillingRowStore) table).close();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.documentgenerator;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Detail records for the repeating rows of a template (see
+ * {@link CompiledTemplate.RepeatingRow}). For every document the renderer
+ * asks for the records of each section and writes one table row per
+ * record, in the order they are returned.
+ */
+@FunctionalInterface
+public interface DetailSource {
+
+    /**
+     * Records of a section for one document row; empty if it has none
+     */
+    Iterable<Map<String, String>> rows(String section, Map<String, String> parentRow) throws IOException;
+}
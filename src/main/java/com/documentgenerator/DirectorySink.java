@@ -0,0 +1,66 @@
+package com.documentgenerator;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * One file per document in a directory, written by the calling thread.
+ * Duplicates are hard links to the first file with the same content.
+ */
+class DirectorySink implements OutputSink {
+
+    private final Path directory;
+
+    DirectorySink(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String write(int rowIndex, String name, byte[] content) throws IOException {
+        Path path = directory.resolve(name);
+        // Replace rather than overwrite: the old file may be linked to other documents
+        Files.deleteIfExists(path);
+        try (OutputStream out = new FileOutputStream(path.toFile())) {
+            out.write(content);
+        }
+        return path.toString();
+    }
+
+    @Override
+    public String writeDuplicate(int rowIndex, String name, String originalName, byte[] content)
+            throws IOException {
+        Path path = directory.resolve(name);
+        if (!link(path, directory.resolve(originalName))) {
+            return write(rowIndex, name, content);
+        }
+        return path.toString();
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public Path localPath(String name) {
+        return directory.resolve(name);
+    }
+
+    /**
+     * Make path a hard link to an existing file, replacing whatever is there
+     *
+     * @return false if the file system or the platform cannot, or the existing file is gone
+     */
+    static boolean link(Path path, Path existing) {
+        try {
+            Files.deleteIfExists(path);
+            Files.createLink(path, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.documentgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * One ZIP archive holding every document of a batch, so a job writes a
+ * single file instead of one file per row. Workers render a document into
+ * memory and hand the bytes over; each entry is streamed to disk as soon as
+ * it arrives, so only the documents in flight are held in memory.
+ *
+ * Closing the archive adds {@value #MANIFEST_NAME}, which maps each row
+ * number to its entry name. Entries appear in completion order.
+ */
+public class DocumentArchive implements Closeable {
+
+    public static final String MANIFEST_NAME = "manifest.csv";
+
+    /** Archive name used when a batch is written into an output directory */
+    public static final String DEFAULT_FILE_NAME = "documents.zip";
+
+    private final ZipOutputStream zip;
+    private final boolean storeOnly;
+    private final CRC32 crc = new CRC32();
+    private final Map<Integer, String> entryNames = new TreeMap<>();
+    private boolean closed;
+
+    public DocumentArchive(String archivePath, boolean storeOnly) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(archivePath), 64 * 1024), storeOnly);
+    }
+
+    /**
+     * @param storeOnly write entries uncompressed; a .docx is already
+     *                  deflated internally, so this mostly saves CPU time
+     */
+    public DocumentArchive(OutputStream out, boolean storeOnly) {
+        this.zip = new ZipOutputStream(out);
+        this.storeOnly = storeOnly;
+    }
+
+    public boolean isStoreOnly() {
+        return storeOnly;
+    }
+
+    /**
+     * Append a rendered document. Safe to call from several worker threads.
+     */
+    public synchronized void addDocument(int rowIndex, String entryName, byte[] content) throws IOException {
+        if (closed) {
+            throw new IOException("Archive is already closed");
+        }
+        ZipEntry entry = new ZipEntry(entryName);
+        if (storeOnly) {
+            // Stored entries need their size and CRC before the data is written
+            crc.reset();
+            crc.update(content, 0, content.length);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+        entryNames.put(rowIndex, entryName);
+    }
+
+    /**
+     * Write the manifest and the central directory, then close the stream
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            StringBuilder manifest = new StringBuilder("row,entry\n");
+            for (Map.Entry<Integer, String> entry : entryNames.entrySet()) {
+                manifest.append(entry.getKey() + 1).append(',')
+                        .append(csvField(entry.getValue())).append('\n');
+            }
+            zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+            zip.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
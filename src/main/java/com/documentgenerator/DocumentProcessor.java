@@ -1,15 +1,42 @@
 package com.documentgenerator;
 
 import java.io.File;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
 
 public class DocumentProcessor {
     
-    public static void processDocuments(String excelPath, String templatePath, 
+    public static GenerationEngine.GenerationResult processDocuments(String excelPath, String templatePath, 
                                       String outputDir) throws Exception{
-        // Read data from Excel
-        List<Map<String, String>> dataList = ExcelReader.readExcelData(excelPath);
+        return processDocuments(excelPath, templatePath, outputDir, GenerationEngine.defaultParallelism());
+    }
+    
+    /**
+     * Report every row to the listener as it completes, e.g. a {@link ProgressDispatcher}
+     */
+    public static GenerationEngine.GenerationResult processDocuments(String excelPath, String templatePath, 
+                                      String outputDir, GenerationEngine.GenerationListener listener) throws Exception{
+        return processDocuments(excelPath, templatePath, outputDir, GenerationEngine.defaultParallelism(), false,
+                listener);
+    }
+    
+    public static GenerationEngine.GenerationResult processDocuments(String excelPath, String templatePath, 
+                                      String outputDir, int parallelism) throws Exception{
+        return processDocuments(excelPath, templatePath, outputDir, parallelism, false);
+    }
+    
+    /**
+     * In incremental mode, rows whose data and template are unchanged since
+     * the last run into the same directory are skipped
+     */
+    public static GenerationEngine.GenerationResult processDocuments(String excelPath, String templatePath, 
+                                      String outputDir, int parallelism, boolean incremental) throws Exception{
+        return processDocuments(excelPath, templatePath, outputDir, parallelism, incremental, null);
+    }
+    
+    public static GenerationEngine.GenerationResult processDocuments(String excelPath, String templatePath, 
+                                      String outputDir, int parallelism, boolean incremental,
+                                      GenerationEngine.GenerationListener listener) throws Exception{
+        GenerationMetrics metrics = new GenerationMetrics();
         
         // Create output directory if it doesn't exist
         File outputDirectory = new File(outputDir);
@@ -17,15 +44,90 @@ public class DocumentProcessor {
             outputDirectory.mkdirs();
         }
         
+        // Parse and analyse the template once for the whole job
+        long start = metrics.startTimer();
+        CompiledTemplate template = CompiledTemplate.forPath(templatePath);
+        metrics.stopTimer(GenerationMetrics.Stage.LOAD_TEMPLATE, start);
+        
+        // Rows are read from Excel while earlier rows are being generated,
+        // only the columns the template uses
+        RowSource rows = RowSource.excel(excelPath, null, GenerationEngine.requiredColumns(template));
+        
         // Generate a document for each row of data
-        for (int i = 0; i < dataList.size(); i++) {
-            Map<String, String> rowData = dataList.get(i);
-            String outputFileName = outputDir + "/document_" + (i + 1) + "_" + 
-                                  rowData.get("Name").replaceAll("\\s+", "_") + ".docx";
-            
-            WordGenerator.generateDocument(templatePath, outputFileName, rowData);
+        GenerationEngine engine = new GenerationEngine(parallelism);
+        engine.setMetrics(metrics);
+        GenerationEngine.GenerationResult result;
+        if (incremental) {
+            String fingerprint = GenerationManifest.fingerprint(template, engine.getRenderEngine(), null);
+            try (GenerationManifest manifest = GenerationManifest.open(outputDirectory, fingerprint)) {
+                System.out.println("Incremental run: " + manifest.getReusableEntries() +
+                        " document(s) recorded by earlier runs");
+                engine.setManifest(manifest);
+                result = engine.generate(template, rows, outputDir, null, listener);
+            }
+        } else {
+            result = engine.generate(template, rows, outputDir, null, listener);
+        }
+        
+        printSummary(result);
+        writeMetrics(metrics, outputDirectory);
+        return result;
+    }
+    
+    public static GenerationEngine.GenerationResult processDocumentsToArchive(String excelPath, String templatePath, 
+                                      String archivePath, int parallelism, boolean storeOnly) throws Exception{
+        GenerationMetrics metrics = new GenerationMetrics();
+        
+        // Create the archive's directory if it doesn't exist
+        File parent = new File(archivePath).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
         }
         
-        System.out.println("Processing complete! Generated " + dataList.size() + " documents.");
+        // Parse and analyse the template once for the whole job
+        long start = metrics.startTimer();
+        CompiledTemplate template = CompiledTemplate.forPath(templatePath);
+        metrics.stopTimer(GenerationMetrics.Stage.LOAD_TEMPLATE, start);
+        
+        // Rows are read from Excel while earlier rows are being generated,
+        // only the columns the template uses
+        RowSource rows = RowSource.excel(excelPath, null, GenerationEngine.requiredColumns(template));
+        
+        // Stream every document into one archive; closing it writes the manifest
+        GenerationEngine engine = new GenerationEngine(parallelism);
+        engine.setMetrics(metrics);
+        GenerationEngine.GenerationResult result;
+        try (DocumentArchive archive = new DocumentArchive(archivePath, storeOnly)) {
+            result = engine.generateArchive(template, rows, archive, null, null);
+        }
+        
+        System.out.println("Archive written: " + archivePath);
+        printSummary(result);
+        writeMetrics(metrics, parent);
+        return result;
+    }
+    
+    private static void writeMetrics(GenerationMetrics metrics, File directory) {
+        System.out.println("Metrics: " + metrics.summaryLine());
+        try {
+            metrics.writeReports(directory.toPath());
+            System.out.println("Metrics written to " + new File(directory, GenerationMetrics.JSON_FILE_NAME)
+                    + " and " + GenerationMetrics.PROMETHEUS_FILE_NAME);
+        } catch (IOException e) {
+            System.err.println("Could not write metrics: " + e.getMessage());
+        }
+    }
+    
+    private static void printSummary(GenerationEngine.GenerationResult result) {
+        System.out.println("Processing complete! Generated " + result.getGenerated() + " documents.");
+        if (result.getSkipped() > 0) {
+            System.out.println("Skipped " + result.getSkipped() + " unchanged document(s).");
+        }
+        if (result.hasFailures()) {
+            System.err.println(result.getFailures().size() + " row(s) failed:");
+            for (GenerationEngine.RowFailure failure : result.getFailures()) {
+                System.err.println("  " + failure);
+            }
+        }
     }
 }
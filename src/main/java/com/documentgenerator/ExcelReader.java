@@ -1,68 +1,354 @@
 package com.documentgenerator;
 
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import java.io.FileInputStream;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 public class ExcelReader {
-    
-    public static List<Map<String, String>> readExcelData(String filePath) {
-        List<Map<String, String>> dataList = new ArrayList<>();
-        
-        try (FileInputStream fis = new FileInputStream(filePath);
-             Workbook workbook = new XSSFWorkbook(fis)) {
-            
-            Sheet sheet = workbook.getSheetAt(0);
-            Row headerRow = sheet.getRow(0);
-            
-            // Get column headers
-            List<String> headers = new ArrayList<>();
-            for (Cell cell : headerRow) {
-                headers.add(cell.getStringCellValue().trim());
-            }
-            
-            // Read data rows
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row != null) {
-                    Map<String, String> rowData = new HashMap<>();
-                    
-                    for (int j = 0; j < headers.size(); j++) {
-                        Cell cell = row.getCell(j);
-                        String value = "";
-                        
-                        if (cell != null) {
-                            switch (cell.getCellType()) {
-                                case STRING:
-                                    value = cell.getStringCellValue();
-                                    break;
-                                case NUMERIC:
-                                    if (DateUtil.isCellDateFormatted(cell)) {
-                                        value = cell.getDateCellValue().toString();
-                                    } else {
-                                        value = String.valueOf((long) cell.getNumericCellValue());
-                                    }
-                                    break;
-                                case BOOLEAN:
-                                    value = String.valueOf(cell.getBooleanCellValue());
-                                    break;
-                                default:
-                                    value = "";
-                            }
-                        }
-                        rowData.put(headers.get(j), value);
-                    }
-                    dataList.add(rowData);
-                }
-            }
-            
+
+    /**
+     * All rows of the first sheet, held column by column
+     */
+    public static RowTable readExcelData(String filePath) {
+        return readExcelData(filePath, null);
+    }
+
+    /**
+     * Rows of the first sheet with only the given columns
+     *
+     * @param columns headers of the columns to read, or null for all
+     */
+    public static RowTable readExcelData(String filePath, Set<String> columns) {
+        RowTable.Builder dataList = new RowTable.Builder();
+
+        try {
+            streamExcelData(filePath, null, columns, (rowIndex, rowData) -> dataList.addRow(rowData));
         } catch (IOException e) {
             System.err.println("Error reading Excel file: " + e.getMessage());
             e.printStackTrace();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Error reading Excel file: " + e.getMessage(), e);
+        }
+
+        return dataList.build();
+    }
+
+    /**
+     * Stream the rows of the first sheet to a handler without loading the
+     * workbook into memory. Only the shared strings table is kept in memory;
+     * each row is parsed, handed over and dropped.
+     */
+    public static void streamExcelData(String filePath, RowHandler handler) throws Exception {
+        streamExcelData(filePath, null, handler);
+    }
+
+    /**
+     * Stream the rows of the named sheet, or of the first sheet if the name is null
+     */
+    public static void streamExcelData(String filePath, String sheetName, RowHandler handler) throws Exception {
+        streamExcelData(filePath, sheetName, null, handler);
+    }
+
+    /**
+     * Stream the rows of a sheet with only the given columns. Cells of the
+     * other columns are skipped without being converted, and their shared
+     * strings are never looked up.
+     *
+     * @param columns headers of the columns to read, or null for all
+     */
+    public static void streamExcelData(String filePath, String sheetName, Set<String> columns,
+                                       RowHandler handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(filePath, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            SharedStrings sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+            StylesTable styles = reader.getStylesTable();
+            boolean date1904 = isDate1904(reader);
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IOException("Workbook contains no sheets: " + filePath);
+            }
+            InputStream selected = sheets.next();
+            while (sheetName != null && !sheetName.equals(sheets.getSheetName())) {
+                selected.close();
+                if (!sheets.hasNext()) {
+                    throw new IOException("Workbook has no sheet named " + sheetName + ": " + filePath);
+                }
+                selected = sheets.next();
+            }
+            try (InputStream sheet = selected) {
+                SheetHandler sheetHandler = new SheetHandler(sharedStrings, styles, date1904, columns, handler);
+                parse(sheet, sheetHandler);
+            }
+        } catch (OpenXML4JException e) {
+            throw new IOException("Invalid Excel file: " + e.getMessage(), e);
+        } catch (SAXException e) {
+            if (e.getException() != null) {
+                // Thrown by the row handler, not by the parser
+                throw e.getException();
+            }
+            throw new IOException("Malformed Excel sheet: " + e.getMessage(), e);
+        }
+    }
+
+    private static void parse(InputStream xml, DefaultHandler contentHandler) throws IOException, SAXException {
+        try {
+            XMLReader parser = XMLHelper.newXMLReader();
+            parser.setContentHandler(contentHandler);
+            parser.parse(new InputSource(xml));
+        } catch (ParserConfigurationException e) {
+            throw new IOException("SAX parser not available: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Workbooks saved with the 1904 date system store dates with a different epoch
+     */
+    private static boolean isDate1904(XSSFReader reader) throws IOException, OpenXML4JException, SAXException {
+        boolean[] date1904 = new boolean[1];
+        try (InputStream workbook = reader.getWorkbookData()) {
+            parse(workbook, new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if ("workbookPr".equals(localName)) {
+                        String value = attributes.getValue("date1904");
+                        date1904[0] = "1".equals(value) || "true".equals(value);
+                    }
+                }
+            });
+        }
+        return date1904[0];
+    }
+
+    /**
+     * Convert a cell reference such as "AB12" to a zero-based column index
+     */
+    static int columnIndex(String cellReference) {
+        int column = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char c = cellReference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    /**
+     * SAX handler for a worksheet part. Converts cells with the same rules
+     * as the XSSFWorkbook based reader: strings as-is, dates via
+     * Date.toString(), other numbers truncated to a long, booleans as
+     * "true"/"false", anything else (formulas, errors, blanks) as "".
+     */
+    private static class SheetHandler extends DefaultHandler {
+        private final SharedStrings sharedStrings;
+        private final StylesTable styles;
+        private final boolean date1904;
+        private final Set<String> columns;
+        private final RowHandler handler;
+        private final Map<Integer, Boolean> dateStyles = new HashMap<>();
+
+        private List<String> headers;
+        // Columns to read, by position; set with the headers
+        private boolean[] wanted;
+        private final TreeMap<Integer, String> headerCells = new TreeMap<>();
+        private String[] rowValues;
+        private int rowIndex = -1;
+        private int dataRowCount = 0;
+
+        private int columnIndex;
+        private String cellType;
+        private int styleIndex;
+        private boolean hasFormula;
+        private boolean hasValue;
+        private boolean inInlineString;
+        private boolean inPhonetic;
+        private boolean capturing;
+        private boolean skipping;
+        private final StringBuilder text = new StringBuilder();
+
+        SheetHandler(SharedStrings sharedStrings, StylesTable styles, boolean date1904, Set<String> columns,
+                     RowHandler handler) {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.date1904 = date1904;
+            this.columns = columns;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row": {
+                    String r = attributes.getValue("r");
+                    rowIndex = r != null ? Integer.parseInt(r) - 1 : rowIndex + 1;
+                    columnIndex = -1;
+                    if (headers != null) {
+                        rowValues = new String[headers.size()];
+                    }
+                    break;
+                }
+                case "c": {
+                    String r = attributes.getValue("r");
+                    columnIndex = r != null ? columnIndex(r) : columnIndex + 1;
+                    cellType = attributes.getValue("t");
+                    String s = attributes.getValue("s");
+                    styleIndex = s != null ? Integer.parseInt(s) : 0;
+                    skipping = wanted != null && (columnIndex >= wanted.length || !wanted[columnIndex]);
+                    hasFormula = false;
+                    hasValue = false;
+                    text.setLength(0);
+                    break;
+                }
+                case "f":
+                    hasFormula = true;
+                    break;
+                case "v":
+                    hasValue = true;
+                    capturing = !skipping;
+                    break;
+                case "is":
+                    inInlineString = true;
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                case "t":
+                    if (inInlineString && !inPhonetic) {
+                        hasValue = true;
+                        capturing = !skipping;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (capturing) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                case "t":
+                    capturing = false;
+                    break;
+                case "is":
+                    inInlineString = false;
+                    break;
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "c":
+                    endCell();
+                    break;
+                case "row":
+                    endRow();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void endCell() {
+            if (rowIndex == 0) {
+                headerCells.put(columnIndex, cellValue().trim());
+            } else if (!skipping && rowValues != null && columnIndex < rowValues.length) {
+                rowValues[columnIndex] = cellValue();
+            }
+        }
+
+        private void endRow() throws SAXException {
+            if (rowIndex == 0) {
+                headers = new ArrayList<>(headerCells.values());
+                wanted = new boolean[headers.size()];
+                for (int j = 0; j < wanted.length; j++) {
+                    wanted[j] = columns == null || columns.contains(headers.get(j));
+                }
+                return;
+            }
+            if (headers == null) {
+                throw new SAXException("Header row not found before data row " + (rowIndex + 1));
+            }
+
+            Map<String, String> rowData = new HashMap<>();
+            for (int j = 0; j < headers.size(); j++) {
+                if (!wanted[j]) {
+                    continue;
+                }
+                String value = rowValues[j];
+                rowData.put(headers.get(j), value != null ? value : "");
+            }
+            rowValues = null;
+
+            try {
+                handler.handleRow(dataRowCount++, rowData);
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private String cellValue() {
+            if (hasFormula) {
+                return "";
+            }
+            String raw = text.toString();
+            if (cellType == null || "n".equals(cellType)) {
+                if (!hasValue || raw.isEmpty()) {
+                    return "";
+                }
+                double value = Double.parseDouble(raw);
+                if (isDateFormatted(value)) {
+                    return DateUtil.getJavaDate(value, date1904).toString();
+                }
+                return String.valueOf((long) value);
+            }
+            switch (cellType) {
+                case "s":
+                    return sharedStrings.getItemAt(Integer.parseInt(raw.trim())).getString();
+                case "inlineStr":
+                case "str":
+                    return raw;
+                case "b":
+                    return String.valueOf("1".equals(raw));
+                default:
+                    return "";
+            }
+        }
+
+        private boolean isDateFormatted(double value) {
+            if (styles == null || styles.getNumCellStyles() == 0 || !DateUtil.isValidExcelDate(value)) {
+                return false;
+            }
+            return dateStyles.computeIfAbsent(styleIndex, index -> {
+                XSSFCellStyle style = styles.getStyleAt(index);
+                return style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+            });
         }
-        
-        return dataList;
     }
 }
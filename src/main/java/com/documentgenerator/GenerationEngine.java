@@ -0,0 +1,649 @@
+package com.documentgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Generates one document per data row on a bounded pool of worker threads.
+ * Output file names depend only on the row index, so results are the same
+ * whatever order the workers finish in.
+ *
+ * Rows stream through three stages - reading, rendering and writing - so
+ * reading the source, CPU-bound rendering and disk writes overlap.
+ */
+public class GenerationEngine {
+
+    /**
+     * Receives progress callbacks from worker threads
+     */
+    public interface GenerationListener {
+        /**
+         * @param total number of rows, or -1 while the source is still being read
+         */
+        void rowCompleted(int rowIndex, int completed, int total, String outputPath);
+
+        void rowFailed(int rowIndex, int completed, int total, Exception error);
+
+        /**
+         * A row whose document is already up to date in incremental mode
+         */
+        default void rowSkipped(int rowIndex, int completed, int total) {
+        }
+
+        /**
+         * A message about the whole batch, such as the placeholders in use,
+         * reported once per run rather than once per row
+         */
+        default void log(String message) {
+        }
+    }
+
+    /**
+     * A row that could not be generated
+     */
+    public static class RowFailure {
+        private final int rowIndex;
+        private final Exception error;
+
+        RowFailure(int rowIndex, Exception error) {
+            this.rowIndex = rowIndex;
+            this.error = error;
+        }
+
+        public int getRowIndex() { return rowIndex; }
+        public Exception getError() { return error; }
+
+        @Override
+        public String toString() {
+            return "Row " + (rowIndex + 1) + ": " + error.getMessage();
+        }
+    }
+
+    /**
+     * Outcome of a batch: how many documents were written or skipped as up
+     * to date, and which rows failed
+     */
+    public static class GenerationResult {
+        private final int totalRows;
+        private final int generated;
+        private final int skipped;
+        private final List<RowFailure> failures;
+
+        GenerationResult(int totalRows, int generated, int skipped, List<RowFailure> failures) {
+            this.totalRows = totalRows;
+            this.generated = generated;
+            this.skipped = skipped;
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        public int getTotalRows() { return totalRows; }
+        public int getGenerated() { return generated; }
+        public int getSkipped() { return skipped; }
+        public List<RowFailure> getFailures() { return failures; }
+        public boolean hasFailures() { return !failures.isEmpty(); }
+    }
+
+    // Queue entries per worker between the stages
+    private static final int QUEUE_SLOTS_PER_WORKER = 2;
+
+    // Documents written at once in VIRTUAL mode, overridable with -Ddocumerge.writeConcurrency
+    static final int DEFAULT_WRITE_CONCURRENCY = 32;
+
+    private final int parallelism;
+    private RenderEngine renderEngine = RenderEngine.defaultEngine();
+    private ThreadingMode threadingMode = ThreadingMode.defaultMode();
+    private int writeConcurrency = Math.max(1, Integer.getInteger("documerge.writeConcurrency",
+            DEFAULT_WRITE_CONCURRENCY));
+    private GenerationMetrics metrics = GenerationMetrics.disabled();
+    private GenerationManifest manifest;
+    private DetailSource detailSource;
+    private boolean adaptiveConcurrency = Boolean.getBoolean("documerge.adaptive");
+    private RenderCache renderCache;
+
+    public GenerationEngine() {
+        this(defaultParallelism());
+    }
+
+    public GenerationEngine(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Worker count from the documerge.parallelism system property, or one per core
+     */
+    public static int defaultParallelism() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger("documerge.parallelism", cores));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public RenderEngine getRenderEngine() {
+        return renderEngine;
+    }
+
+    public void setRenderEngine(RenderEngine renderEngine) {
+        this.renderEngine = renderEngine;
+    }
+
+    public ThreadingMode getThreadingMode() {
+        return threadingMode;
+    }
+
+    /**
+     * VIRTUAL suits slow output storage and remote sources: the reader and
+     * every document write get a virtual thread of their own, while
+     * rendering stays on the fixed worker pool. Falls back to PLATFORM on
+     * runtimes without virtual threads.
+     */
+    public void setThreadingMode(ThreadingMode threadingMode) {
+        this.threadingMode = threadingMode;
+    }
+
+    public int getWriteConcurrency() {
+        return writeConcurrency;
+    }
+
+    /**
+     * Most documents written at once in VIRTUAL mode; each one waiting to be
+     * written is held in memory
+     */
+    public void setWriteConcurrency(int writeConcurrency) {
+        if (writeConcurrency < 1) {
+            throw new IllegalArgumentException("Write concurrency must be at least 1: " + writeConcurrency);
+        }
+        this.writeConcurrency = writeConcurrency;
+    }
+
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Collect per-stage timings and throughput for the following runs
+     */
+    public void setMetrics(GenerationMetrics metrics) {
+        this.metrics = metrics != null ? metrics : GenerationMetrics.disabled();
+    }
+
+    public GenerationManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Skip rows the manifest shows as already generated from the same data,
+     * and record every newly generated row in it. Only applies to sinks that
+     * write local files; an archive is always written in full.
+     */
+    public void setManifest(GenerationManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    public DetailSource getDetailSource() {
+        return detailSource;
+    }
+
+    /**
+     * Detail records for templates with repeating rows; without them those
+     * rows are left out
+     */
+    public void setDetailSource(DetailSource detailSource) {
+        this.detailSource = detailSource;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * Let a {@link ConcurrencyController} vary how many of the workers render
+     * at once, between one and the parallelism, from throughput and heap
+     * pressure. Off by default; -Ddocumerge.adaptive=true turns it on.
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Reuse documents already rendered from the same template and values
+     * instead of rendering them again. Sinks that write local files link
+     * the copies to the first file where the file system allows. Hits and
+     * misses are counted in the metrics.
+     */
+    public void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+    }
+
+    /**
+     * Columns a batch reads from its source: the template's placeholders,
+     * those of its repeating rows, which fall back to the document row, and
+     * Name for the document names. Readers given this set leave the other
+     * columns out, which on wide sheets saves most of the parsing, memory
+     * and download.
+     */
+    public static Set<String> requiredColumns(CompiledTemplate template) {
+        Set<String> columns = new HashSet<>(template.getPlaceholders());
+        for (CompiledTemplate.RepeatingRow row : template.getRepeatingRows()) {
+            columns.addAll(row.getPlaceholders());
+        }
+        columns.add("Name");
+        return columns;
+    }
+
+    /**
+     * Deterministic document name for a row: document_N_Name.docx
+     */
+    public static String documentName(int rowIndex, Map<String, String> rowData) {
+        return "document_" + (rowIndex + 1) + "_" +
+                rowData.get("Name").replaceAll("\\s+", "_") + ".docx";
+    }
+
+    /**
+     * Deterministic output path for a row inside the output directory
+     */
+    public static String outputFileName(String outputDir, int rowIndex, Map<String, String> rowData) {
+        return outputDir + "/" + documentName(rowIndex, rowData);
+    }
+
+    /**
+     * Render stage: turns one row into document bytes, or returns null when
+     * the row is skipped as up to date
+     */
+    private interface RowRenderer {
+        RenderedDocument render(int rowIndex, Map<String, String> rowData) throws Exception;
+    }
+
+    /**
+     * Writer stage: puts a rendered document in place and returns where it went
+     */
+    private interface DocumentSink {
+        String write(RenderedDocument document) throws Exception;
+    }
+
+    private static final class SourceRow {
+        static final SourceRow END = new SourceRow(-1, null);
+
+        final int rowIndex;
+        final Map<String, String> rowData;
+
+        SourceRow(int rowIndex, Map<String, String> rowData) {
+            this.rowIndex = rowIndex;
+            this.rowData = rowData;
+        }
+    }
+
+    private static final class RenderedDocument {
+        static final RenderedDocument END = new RenderedDocument(-1, null, null, null);
+
+        final int rowIndex;
+        final String name;
+        final byte[] content;
+        final String rowHash;
+        long startNanos;
+        // Set for documents from the render cache: the name the content was first stored under
+        String duplicateOf;
+        // Set for documents to add to the render cache once stored
+        String cacheKey;
+
+        RenderedDocument(int rowIndex, String name, byte[] content, String rowHash) {
+            this.rowIndex = rowIndex;
+            this.name = name;
+            this.content = content;
+            this.rowHash = rowHash;
+        }
+    }
+
+    /**
+     * Generate a document for every row. Failed rows are collected in the
+     * result instead of stopping the batch.
+     */
+    public GenerationResult generate(CompiledTemplate template, List<Map<String, String>> dataList,
+                                     String outputDir, List<String> userSpecifiedPlaceholders,
+                                     GenerationListener listener) throws Exception {
+        return generate(template, RowSource.of(dataList), outputDir, userSpecifiedPlaceholders, listener);
+    }
+
+    /**
+     * Generate a document for every row of the source while it is still
+     * being read. If reading fails part-way, the rows read so far are still
+     * generated and the read error is thrown afterwards.
+     */
+    public GenerationResult generate(CompiledTemplate template, RowSource source,
+                                     String outputDir, List<String> userSpecifiedPlaceholders,
+                                     GenerationListener listener) throws Exception {
+        return generate(template, source, OutputSink.directory(Paths.get(outputDir)), userSpecifiedPlaceholders,
+                listener);
+    }
+
+    /**
+     * Generate every row as an entry of a single archive instead of a loose
+     * file. The listener receives entry names as output paths. The caller
+     * closes the archive, which writes its manifest.
+     */
+    public GenerationResult generateArchive(CompiledTemplate template, List<Map<String, String>> dataList,
+                                            DocumentArchive archive, List<String> userSpecifiedPlaceholders,
+                                            GenerationListener listener) throws Exception {
+        return generateArchive(template, RowSource.of(dataList), archive, userSpecifiedPlaceholders, listener);
+    }
+
+    public GenerationResult generateArchive(CompiledTemplate template, RowSource source,
+                                            DocumentArchive archive, List<String> userSpecifiedPlaceholders,
+                                            GenerationListener listener) throws Exception {
+        return generate(template, source, OutputSink.archive(archive), userSpecifiedPlaceholders, listener);
+    }
+
+    /**
+     * Generate a document for every row and hand it to the sink. The
+     * listener receives what the sink returns as output paths. The caller
+     * closes the sink.
+     */
+    public GenerationResult generate(CompiledTemplate template, RowSource source, OutputSink sink,
+                                     List<String> userSpecifiedPlaceholders,
+                                     GenerationListener listener) throws Exception {
+        GenerationManifest manifest = this.manifest;
+        DetailSource details = detailSource;
+        RenderCache cache = renderCache;
+        GenerationMetrics metrics = this.metrics;
+        Object run = new Object();
+        int initialSize = template.getTemplateBytes().length + 8192;
+        AtomicBoolean placeholdersReported = new AtomicBoolean();
+        return run(source, listener, (rowIndex, rowData) -> {
+            if (listener != null && placeholdersReported.compareAndSet(false, true)) {
+                // From the first row read; rows of one source share their columns
+                for (String line : WordGenerator.describePlaceholders(template, userSpecifiedPlaceholders, rowData)) {
+                    listener.log(line);
+                }
+            }
+            String fileName = documentName(rowIndex, rowData);
+            String rowHash = null;
+            Path localPath = manifest != null ? sink.localPath(fileName) : null;
+            if (localPath != null) {
+                rowHash = GenerationManifest.hashRow(rowData, template, details);
+                if (manifest.isUpToDate(fileName, rowHash, localPath.toFile())) {
+                    return null;
+                }
+            }
+            String cacheKey = null;
+            if (cache != null) {
+                cacheKey = RenderCache.key(template, rowData, details, userSpecifiedPlaceholders, renderEngine);
+                RenderCache.Entry cached = cache.get(cacheKey);
+                if (cached != null) {
+                    metrics.renderCacheHit();
+                    metrics.addBytesWritten(cached.content.length);
+                    RenderedDocument duplicate = new RenderedDocument(rowIndex, fileName, cached.content, rowHash);
+                    duplicate.duplicateOf = cached.run == run ? cached.name : null;
+                    return duplicate;
+                }
+                metrics.renderCacheMiss();
+            }
+            ByteArrayOutputStream document = new ByteArrayOutputStream(initialSize);
+            WordGenerator.renderDocument(template, document, rowData, details, userSpecifiedPlaceholders,
+                    renderEngine, metrics);
+            RenderedDocument rendered = new RenderedDocument(rowIndex, fileName, document.toByteArray(), rowHash);
+            rendered.cacheKey = cacheKey;
+            return rendered;
+        }, document -> {
+            // Recorded only once the file is in place, which background sinks finish after write returns
+            OutputSink.StoredCallback recorded = document.rowHash == null ? () -> { }
+                    : () -> manifest.record(document.rowIndex, document.name, document.rowHash);
+            String outputPath = document.duplicateOf != null
+                    ? sink.writeDuplicate(document.rowIndex, document.name, document.duplicateOf, document.content,
+                            recorded)
+                    : sink.write(document.rowIndex, document.name, document.content, recorded);
+            if (document.cacheKey != null) {
+                // Only once stored, so duplicates never link to a file that failed
+                cache.put(document.cacheKey, run, document.name, document.content);
+            }
+            return outputPath;
+        }, sink.isConcurrent());
+    }
+
+    /**
+     * Runs the three stages: a reader thread feeding rows from the source,
+     * the worker pool rendering them, and the calling thread writing the
+     * results. The stages are joined by queues holding two entries per
+     * worker, so a slow stage holds back the ones before it and at most a
+     * few rows and documents are in memory at once.
+     *
+     * With adaptive concurrency every render takes a slot from the
+     * controller, so fewer workers than the pool size may render at once.
+     *
+     * In VIRTUAL mode the reader is a virtual thread, and if the sink allows
+     * concurrent writes each document is written on a virtual thread of its
+     * own, up to the write concurrency.
+     */
+    private GenerationResult run(RowSource source, GenerationListener listener, RowRenderer renderer,
+                                 DocumentSink sink, boolean concurrentWrites) throws Exception {
+        // Known up front for in-memory rows, otherwise once the reader reaches the end
+        AtomicInteger total = new AtomicInteger(source.size());
+        AtomicInteger rowsRead = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger generated = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        List<RowFailure> failures = Collections.synchronizedList(new ArrayList<>());
+        GenerationMetrics metrics = this.metrics;
+        metrics.startRun();
+
+        int capacity = parallelism * QUEUE_SLOTS_PER_WORKER;
+        BlockingQueue<SourceRow> rows = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<RenderedDocument> rendered = new ArrayBlockingQueue<>(capacity);
+        AtomicReference<Exception> readError = new AtomicReference<>();
+        // An error that stopped a renderer, such as running out of memory
+        AtomicReference<Error> renderError = new AtomicReference<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicInteger activeRenderers = new AtomicInteger(parallelism);
+        ConcurrencyController controller = adaptiveConcurrency && parallelism > 1
+                ? new ConcurrencyController(1, parallelism) : null;
+
+        RowFailureRecorder recordFailure = (rowIndex, e) -> {
+            metrics.rowFailed();
+            failures.add(new RowFailure(rowIndex, e));
+            if (listener != null) {
+                listener.rowFailed(rowIndex, completed.incrementAndGet(), total.get(), e);
+            }
+        };
+
+        boolean virtual = threadingMode.effective() == ThreadingMode.VIRTUAL;
+        ThreadFactory readerThreads = virtual ? VirtualThreads.factory("documerge-reader-")
+                : runnable -> {
+                    Thread thread = new Thread(runnable, "documerge-reader");
+                    thread.setDaemon(true);
+                    return thread;
+                };
+        Thread reader = readerThreads.newThread(() -> {
+            long start = metrics.startTimer();
+            try {
+                source.read((ignored, rowData) -> rows.put(new SourceRow(rowsRead.getAndIncrement(), rowData)));
+                total.set(rowsRead.get());
+            } catch (Exception e) {
+                readError.set(e);
+            } finally {
+                metrics.stopTimer(GenerationMetrics.Stage.READ_DATA, start);
+            }
+            if (cancelled.get()) {
+                return;
+            }
+            try {
+                for (int i = 0; i < parallelism; i++) {
+                    rows.put(SourceRow.END);
+                }
+            } catch (InterruptedException e) {
+                // Cancelled; the workers are being shut down
+            }
+        });
+
+        Runnable renderLoop = () -> {
+            boolean interrupted = false;
+            boolean drained = false;
+            try {
+                SourceRow row;
+                while ((row = rows.take()) != SourceRow.END) {
+                    if (controller != null) {
+                        controller.acquire();
+                    }
+                    long start = metrics.startTimer();
+                    try {
+                        RenderedDocument document;
+                        try {
+                            document = renderer.render(row.rowIndex, row.rowData);
+                        } finally {
+                            if (controller != null) {
+                                controller.release();
+                            }
+                        }
+                        if (document == null) {
+                            skipped.incrementAndGet();
+                            if (listener != null) {
+                                listener.rowSkipped(row.rowIndex, completed.incrementAndGet(), total.get());
+                            }
+                            continue;
+                        }
+                        document.startNanos = start;
+                        rendered.put(document);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        recordFailure.rowFailed(row.rowIndex, e);
+                    }
+                }
+                drained = true;
+            } catch (InterruptedException e) {
+                // Cancelled
+                interrupted = true;
+            } catch (Error e) {
+                renderError.compareAndSet(null, e);
+                throw e;
+            } finally {
+                // The last renderer to stop tells the writer stage
+                if (!interrupted && activeRenderers.decrementAndGet() == 0) {
+                    if (!drained) {
+                        // Nobody is left to take rows, so the reader would block for good
+                        cancelled.set(true);
+                        reader.interrupt();
+                    }
+                    try {
+                        rendered.put(RenderedDocument.END);
+                    } catch (InterruptedException e) {
+                        // Cancelled
+                    }
+                }
+            }
+        };
+
+        DocumentSaver save = document -> {
+            long start = metrics.startTimer();
+            try {
+                String outputPath = sink.write(document);
+                metrics.stopTimer(GenerationMetrics.Stage.SAVE_DOCUMENT, start);
+                metrics.stopTimer(GenerationMetrics.Stage.ROW, document.startNanos);
+                metrics.documentCompleted();
+                generated.incrementAndGet();
+                if (listener != null) {
+                    listener.rowCompleted(document.rowIndex, completed.incrementAndGet(), total.get(), outputPath);
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                recordFailure.rowFailed(document.rowIndex, e);
+            }
+        };
+
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory());
+        ExecutorService writers = virtual && concurrentWrites
+                ? VirtualThreads.newThreadPerTaskExecutor("documerge-writer-") : null;
+        Semaphore writeSlots = new Semaphore(writeConcurrency);
+        boolean finished = false;
+        try {
+            if (controller != null) {
+                controller.start();
+            }
+            reader.start();
+            for (int i = 0; i < parallelism; i++) {
+                workers.execute(renderLoop);
+            }
+
+            RenderedDocument document;
+            while ((document = rendered.take()) != RenderedDocument.END) {
+                if (writers == null) {
+                    save.save(document);
+                    continue;
+                }
+                RenderedDocument pending = document;
+                writeSlots.acquire();
+                writers.execute(() -> {
+                    try {
+                        save.save(pending);
+                    } catch (InterruptedException e) {
+                        // Cancelled
+                    } finally {
+                        writeSlots.release();
+                    }
+                });
+            }
+            if (writers != null) {
+                // Every slot back means every write has finished
+                writeSlots.acquire(writeConcurrency);
+                writeSlots.release(writeConcurrency);
+            }
+            reader.join();
+            finished = true;
+        } finally {
+            if (!finished) {
+                cancelled.set(true);
+                reader.interrupt();
+            }
+            if (controller != null) {
+                controller.close();
+            }
+            workers.shutdownNow();
+            if (writers != null) {
+                writers.shutdownNow();
+            }
+            metrics.finishRun();
+        }
+
+        if (renderError.get() != null) {
+            throw renderError.get();
+        }
+        if (readError.get() != null) {
+            throw readError.get();
+        }
+        List<RowFailure> sorted = new ArrayList<>(failures);
+        sorted.sort(Comparator.comparingInt(RowFailure::getRowIndex));
+        return new GenerationResult(rowsRead.get(), generated.get(), skipped.get(), sorted);
+    }
+
+    private interface RowFailureRecorder {
+        void rowFailed(int rowIndex, Exception error);
+    }
+
+    private interface DocumentSaver {
+        void save(RenderedDocument document) throws InterruptedException;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "documerge-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.documentgenerator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of the documents already in an output directory, so a rerun only
+ * renders rows that are new or whose data changed. Each line holds the row
+ * number, a hash of the row's data and the output file name.
+ *
+ * Lines are appended and flushed as documents complete, so a run that dies
+ * part-way can be resumed. The header holds a fingerprint of the template
+ * and render settings; when it changes, every entry is discarded.
+ */
+public class GenerationManifest implements Closeable {
+
+    public static final String FILE_NAME = "generation-manifest.tsv";
+
+    private static final String FINGERPRINT_PREFIX = "#fingerprint\t";
+
+    private final Path path;
+    private final String fingerprint;
+    private final Map<String, String> rowHashes;
+    private final int reusableEntries;
+    private BufferedWriter writer;
+
+    private GenerationManifest(Path path, String fingerprint, Map<String, String> rowHashes,
+                               BufferedWriter writer) {
+        this.path = path;
+        this.fingerprint = fingerprint;
+        this.rowHashes = rowHashes;
+        this.reusableEntries = rowHashes.size();
+        this.writer = writer;
+    }
+
+    /**
+     * Load the manifest of an output directory and open it for appending.
+     * Entries written under a different fingerprint are dropped, and the
+     * file is compacted to one line per output file.
+     */
+    public static GenerationManifest open(File outputDirectory, String fingerprint) throws IOException {
+        Path path = outputDirectory.toPath().resolve(FILE_NAME);
+        Map<String, String> rowHashes = new ConcurrentHashMap<>();
+        Map<String, String> rowNumbers = new HashMap<>();
+        if (Files.isRegularFile(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String header = reader.readLine();
+                if (header != null && header.equals(FINGERPRINT_PREFIX + fingerprint)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] fields = line.split("\t", 3);
+                        if (fields.length == 3) {
+                            // Later lines win: a row regenerated after a data change
+                            rowNumbers.put(fields[2], fields[0]);
+                            rowHashes.put(fields[2], fields[1]);
+                        }
+                    }
+                } else if (header != null) {
+                    System.out.println("Template or settings changed - regenerating all documents");
+                }
+            }
+        }
+
+        // Rewrite compacted, then keep appending to it
+        Path compacted = path.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            out.write(FINGERPRINT_PREFIX + fingerprint);
+            out.newLine();
+            for (Map.Entry<String, String> entry : new TreeMap<>(rowHashes).entrySet()) {
+                writeLine(out, rowNumbers.get(entry.getKey()), entry.getValue(), entry.getKey());
+            }
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        return new GenerationManifest(path, fingerprint, rowHashes, writer);
+    }
+
+    /**
+     * Everything besides row data that changes the output: the template
+     * content, the render engine and the user's placeholder selection
+     */
+    public static String fingerprint(CompiledTemplate template, RenderEngine engine,
+                                     List<String> userSpecifiedPlaceholders) {
+        StringBuilder settings = new StringBuilder(template.getHash()).append('\n').append(engine);
+        if (userSpecifiedPlaceholders != null) {
+            for (String placeholder : userSpecifiedPlaceholders) {
+                settings.append('\n').append(placeholder);
+            }
+        }
+        return CompiledTemplate.sha256(settings.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hash of a row's columns and values, independent of map order
+     */
+    public static String hashRow(Map<String, String> rowData) {
+        MessageDigest digest = newDigest();
+        update(digest, rowData);
+        return hex(digest);
+    }
+
+    /**
+     * Hash of a row together with the detail records of every repeating row
+     * of the template, so a changed, added or removed record regenerates
+     * the document
+     */
+    public static String hashRow(Map<String, String> rowData, CompiledTemplate template,
+                                 DetailSource details) throws IOException {
+        if (details == null || !template.hasRepeatingRows()) {
+            return hashRow(rowData);
+        }
+        MessageDigest digest = newDigest();
+        update(digest, rowData);
+        for (CompiledTemplate.RepeatingRow row : template.getRepeatingRows()) {
+            digest.update((byte) 2);
+            for (Map<String, String> record : details.rows(row.getSection(), rowData)) {
+                update(digest, record);
+                digest.update((byte) 3);
+            }
+        }
+        return hex(digest);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static void update(MessageDigest digest, Map<String, String> rowData) {
+        for (Map.Entry<String, String> entry : new TreeMap<>(rowData).entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (entry.getValue() != null) {
+                digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 1);
+        }
+    }
+
+    static String hex(MessageDigest digest) {
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Whether the output file exists and was generated from the same row data
+     */
+    public boolean isUpToDate(String fileName, String rowHash, File outputFile) {
+        return rowHash.equals(rowHashes.get(fileName)) && outputFile.isFile();
+    }
+
+    /**
+     * Record a finished document; flushed straight away so a crash loses nothing
+     */
+    public synchronized void record(int rowIndex, String fileName, String rowHash) throws IOException {
+        if (writer == null) {
+            throw new IOException("Manifest is already closed");
+        }
+        rowHashes.put(fileName, rowHash);
+        writeLine(writer, String.valueOf(rowIndex + 1), rowHash, fileName);
+        writer.flush();
+    }
+
+    private static void writeLine(BufferedWriter out, String rowNumber, String rowHash, String fileName)
+            throws IOException {
+        out.write(rowNumber);
+        out.write('\t');
+        out.write(rowHash);
+        out.write('\t');
+        out.write(fileName);
+        out.newLine();
+    }
+
+    /**
+     * Entries carried over from earlier runs
+     */
+    public int getReusableEntries() {
+        return reusableEntries;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
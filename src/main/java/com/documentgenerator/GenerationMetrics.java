@@ -0,0 +1,369 @@
+package com.documentgenerator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the stages of a batch run. Safe to
+ * update from every worker thread; exported at the end of a run as JSON and
+ * Prometheus text format.
+ */
+public class GenerationMetrics {
+
+    public static final String JSON_FILE_NAME = "generation-metrics.json";
+    public static final String PROMETHEUS_FILE_NAME = "generation-metrics.prom";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * Timed stages of a batch. READ_DATA and LOAD_TEMPLATE run once per job,
+     * the rest once per row. WRITE_DOCUMENT serialises a document in memory;
+     * SAVE_DOCUMENT puts it on disk or into the archive.
+     */
+    public enum Stage {
+        READ_DATA("read_data"),
+        LOAD_TEMPLATE("load_template"),
+        SELECT_PLACEHOLDERS("select_placeholders"),
+        OPEN_DOCUMENT("open_document"),
+        REPLACE_TEXT("replace_text"),
+        WRITE_DOCUMENT("write_document"),
+        SAVE_DOCUMENT("save_document"),
+        ROW("row");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Log-scale histogram with four buckets per power of two, so any
+     * reported percentile is within 25% of the true value
+     */
+    public static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 4;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            long value = Math.max(1, nanos);
+            buckets.incrementAndGet(bucketFor(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        static int bucketFor(long nanos) {
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            if (exponent < 2) {
+                return (int) nanos;
+            }
+            int sub = (int) ((nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1));
+            return exponent * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Largest value that falls into the bucket
+         */
+        static long upperBound(int bucket) {
+            int exponent = bucket / SUB_BUCKETS;
+            if (exponent < 2) {
+                return bucket;
+            }
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSumNanos() {
+            return sum.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        public double getMeanNanos() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getSumNanos() / n;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given quantile, capped at the maximum
+         */
+        public long getPercentileNanos(double quantile) {
+            long total = getCount();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+    }
+
+    private static final GenerationMetrics DISABLED = new GenerationMetrics(false);
+
+    private final boolean enabled;
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder renderCacheHits = new LongAdder();
+    private final LongAdder renderCacheMisses = new LongAdder();
+    private volatile long runStart;
+    private volatile long runEnd;
+
+    public GenerationMetrics() {
+        this(true);
+    }
+
+    private GenerationMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Shared instance that records nothing, for callers that don't collect metrics
+     */
+    public static GenerationMetrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void stopTimer(Stage stage, long start) {
+        if (enabled) {
+            stages.get(stage).record(System.nanoTime() - start);
+        }
+    }
+
+    public void documentCompleted() {
+        if (enabled) {
+            documents.increment();
+        }
+    }
+
+    public void rowFailed() {
+        if (enabled) {
+            failures.increment();
+        }
+    }
+
+    public void addBytesWritten(long bytes) {
+        if (enabled) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    /**
+     * A row whose document came from the render cache instead of being rendered
+     */
+    public void renderCacheHit() {
+        if (enabled) {
+            renderCacheHits.increment();
+        }
+    }
+
+    public void renderCacheMiss() {
+        if (enabled) {
+            renderCacheMisses.increment();
+        }
+    }
+
+    /**
+     * Mark the start of generation; documents per second are measured from here
+     */
+    public void startRun() {
+        if (enabled) {
+            runStart = System.nanoTime();
+            runEnd = 0;
+        }
+    }
+
+    public void finishRun() {
+        if (enabled) {
+            runEnd = System.nanoTime();
+        }
+    }
+
+    public LatencyHistogram getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getRenderCacheHits() {
+        return renderCacheHits.sum();
+    }
+
+    public long getRenderCacheMisses() {
+        return renderCacheMisses.sum();
+    }
+
+    /**
+     * Share of cache lookups that found the document, 0 without lookups
+     */
+    public double getRenderCacheHitRate() {
+        long hits = getRenderCacheHits();
+        long lookups = hits + getRenderCacheMisses();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    /**
+     * Elapsed generation time, still running if the run isn't finished
+     */
+    public double getElapsedSeconds() {
+        if (runStart == 0) {
+            return 0;
+        }
+        long end = runEnd != 0 ? runEnd : System.nanoTime();
+        return (end - runStart) / 1e9;
+    }
+
+    public double getDocumentsPerSecond() {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0 ? getDocuments() / elapsed : 0;
+    }
+
+    /**
+     * One line for progress logs: throughput plus row latency percentiles,
+     * and the render cache hit rate when the cache was used
+     */
+    public String summaryLine() {
+        LatencyHistogram row = getStage(Stage.ROW);
+        String line = String.format(Locale.ROOT,
+                "%d documents, %d failed, %.1f docs/sec, %.1f MB written, row p50 %.1f ms, p99 %.1f ms",
+                getDocuments(), getFailures(), getDocumentsPerSecond(), getBytesWritten() / 1e6,
+                row.getPercentileNanos(0.5) / 1e6, row.getPercentileNanos(0.99) / 1e6);
+        long lookups = getRenderCacheHits() + getRenderCacheMisses();
+        if (lookups > 0) {
+            line += String.format(Locale.ROOT, ", render cache %d/%d hits (%.1f%%)",
+                    getRenderCacheHits(), lookups, getRenderCacheHitRate() * 100);
+        }
+        return line;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\n");
+        json.append("  \"documents\": ").append(getDocuments()).append(",\n");
+        json.append("  \"failures\": ").append(getFailures()).append(",\n");
+        json.append("  \"bytesWritten\": ").append(getBytesWritten()).append(",\n");
+        json.append("  \"elapsedSeconds\": ").append(format(getElapsedSeconds())).append(",\n");
+        json.append("  \"documentsPerSecond\": ").append(format(getDocumentsPerSecond())).append(",\n");
+        json.append("  \"renderCacheHits\": ").append(getRenderCacheHits()).append(",\n");
+        json.append("  \"renderCacheMisses\": ").append(getRenderCacheMisses()).append(",\n");
+        json.append("  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getStage(stage);
+            json.append(separator).append("    \"").append(stage.getLabel()).append("\": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"totalMs\": ").append(format(histogram.getSumNanos() / 1e6))
+                    .append(", \"meanMs\": ").append(format(histogram.getMeanNanos() / 1e6));
+            for (double quantile : QUANTILES) {
+                json.append(", \"p").append(Math.round(quantile * 100)).append("Ms\": ")
+                        .append(format(histogram.getPercentileNanos(quantile) / 1e6));
+            }
+            json.append(", \"maxMs\": ").append(format(histogram.getMaxNanos() / 1e6)).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder(4096);
+        text.append("# HELP documerge_documents_total Documents generated.\n")
+                .append("# TYPE documerge_documents_total counter\n")
+                .append("documerge_documents_total ").append(getDocuments()).append('\n');
+        text.append("# HELP documerge_failures_total Rows that failed to generate.\n")
+                .append("# TYPE documerge_failures_total counter\n")
+                .append("documerge_failures_total ").append(getFailures()).append('\n');
+        text.append("# HELP documerge_bytes_written_total Bytes of generated documents.\n")
+                .append("# TYPE documerge_bytes_written_total counter\n")
+                .append("documerge_bytes_written_total ").append(getBytesWritten()).append('\n');
+        text.append("# HELP documerge_documents_per_second Generation throughput of the run.\n")
+                .append("# TYPE documerge_documents_per_second gauge\n")
+                .append("documerge_documents_per_second ").append(format(getDocumentsPerSecond())).append('\n');
+        text.append("# HELP documerge_render_cache_hits_total Documents reused from the render cache.\n")
+                .append("# TYPE documerge_render_cache_hits_total counter\n")
+                .append("documerge_render_cache_hits_total ").append(getRenderCacheHits()).append('\n');
+        text.append("# HELP documerge_render_cache_misses_total Documents rendered after a render cache miss.\n")
+                .append("# TYPE documerge_render_cache_misses_total counter\n")
+                .append("documerge_render_cache_misses_total ").append(getRenderCacheMisses()).append('\n');
+        text.append("# HELP documerge_stage_seconds Time spent per stage.\n")
+                .append("# TYPE documerge_stage_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getStage(stage);
+            String labels = "stage=\"" + stage.getLabel() + "\"";
+            for (double quantile : QUANTILES) {
+                text.append("documerge_stage_seconds{").append(labels).append(",quantile=\"")
+                        .append(quantile).append("\"} ")
+                        .append(format(histogram.getPercentileNanos(quantile) / 1e9)).append('\n');
+            }
+            text.append("documerge_stage_seconds_sum{").append(labels).append("} ")
+                    .append(format(histogram.getSumNanos() / 1e9)).append('\n');
+            text.append("documerge_stage_seconds_count{").append(labels).append("} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write generation-metrics.json and generation-metrics.prom into the directory
+     */
+    public void writeReports(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Files.write(directory.resolve(JSON_FILE_NAME), toJson().getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve(PROMETHEUS_FILE_NAME), toPrometheus().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
@@ -1,11 +1,18 @@
 package com.documentgenerator;
 
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.SheetsScopes;
+import com.google.api.services.sheets.v4.model.BatchGetValuesResponse;
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
 import com.google.api.services.sheets.v4.model.ValueRange;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.http.HttpCredentialsAdapter;
@@ -14,14 +21,50 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GoogleSheetsReader {
     private static final String APPLICATION_NAME = "DocuMerge Pro";
     private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
     private static final List<String> SCOPES = Collections.singletonList(SheetsScopes.SPREADSHEETS_READONLY);
     private static final String SERVICE_ACCOUNT_KEY_PATH = "/service-account-key.json";
+    
+    // Rows per values().get request, overridable with -Ddocumerge.sheets.pageSize
+    static final int DEFAULT_PAGE_SIZE = 5000;
+
+    // Rows at each end of the sheet compared to decide whether a cached copy is current
+    static final int PROBE_ROWS = 20;
+    
+    // Built once: the transport's connection pool and the parsed credentials are reused by every read
+    private static Sheets sharedService;
+
+    /**
+     * The shared Sheets client, created on first use. A failed attempt is not
+     * cached, so a key added later is picked up on the next read.
+     */
+    static synchronized Sheets getSheetsService() throws IOException, GeneralSecurityException {
+        if (sharedService == null) {
+            sharedService = createSheetsService();
+        }
+        return sharedService;
+    }
+
+    /**
+     * A client for any transport and endpoint, e.g. a local stand-in server in tests
+     */
+    static Sheets createSheetsService(HttpTransport transport, HttpRequestInitializer initializer, String rootUrl) {
+        Sheets.Builder builder = new Sheets.Builder(transport, JSON_FACTORY, initializer)
+                .setApplicationName(APPLICATION_NAME);
+        if (rootUrl != null) {
+            builder.setRootUrl(rootUrl);
+        }
+        return builder.build();
+    }
 
-    private static Sheets getSheetsService() throws IOException, GeneralSecurityException {
+    private static Sheets createSheetsService() throws IOException, GeneralSecurityException {
         final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
         
         // Try to load service account credentials from multiple locations
@@ -86,10 +129,7 @@ public class GoogleSheetsReader {
             GoogleCredentials credentials = GoogleCredentials.fromStream(in)
                     .createScoped(SCOPES);
             
-            return new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, 
-                    new HttpCredentialsAdapter(credentials))
-                    .setApplicationName(APPLICATION_NAME)
-                    .build();
+            return createSheetsService(HTTP_TRANSPORT, new HttpCredentialsAdapter(credentials), null);
                     
         } catch (IOException e) {
             System.err.println("✗ Error loading Google Sheets credentials: " + e.getMessage());
@@ -114,49 +154,467 @@ public class GoogleSheetsReader {
         throw new IllegalArgumentException("Invalid Google Sheets URL format");
     }
 
-    public static List<Map<String, String>> readGoogleSheetsData(String spreadsheetUrl, String sheetName) throws Exception {
-        Sheets service = getSheetsService();
-        String spreadsheetId = extractSpreadsheetId(spreadsheetUrl);
-        String range = sheetName != null ? sheetName : "Sheet1";
+    /**
+     * All rows of the sheet, held column by column
+     */
+    public static RowTable readGoogleSheetsData(String spreadsheetUrl, String sheetName) throws Exception {
+        return readGoogleSheetsData(spreadsheetUrl, sheetName, null);
+    }
 
-        List<Map<String, String>> dataList = new ArrayList<>();
+    /**
+     * Rows of the sheet with only the given columns
+     *
+     * @param columns headers of the columns to read, or null for all
+     */
+    public static RowTable readGoogleSheetsData(String spreadsheetUrl, String sheetName,
+                                                Set<String> columns) throws Exception {
+        RowTable.Builder dataList = new RowTable.Builder();
+        streamGoogleSheetsData(spreadsheetUrl, sheetName, columns, (rowIndex, rowData) -> dataList.addRow(rowData));
+        return dataList.build();
+    }
 
+    /**
+     * Read the sheet in blocks of rows, handing each row to the handler in
+     * order while the next block is already being fetched. With the local
+     * cache enabled (see {@link SheetsCache#fromSystemProperties()}), a sheet
+     * whose first and last rows are unchanged is served from it.
+     */
+    public static void streamGoogleSheetsData(String spreadsheetUrl, String sheetName,
+                                              RowHandler handler) throws Exception {
+        streamGoogleSheetsData(spreadsheetUrl, sheetName, null, handler);
+    }
+
+    /**
+     * Read only the given columns of the sheet: each page is fetched as one
+     * batchGet of the column ranges holding them, so the other columns are
+     * never transferred. Rows at the end of the sheet that are blank in
+     * every one of these columns are left out, as trailing blank rows are.
+     *
+     * @param sheetName a tab title, or else an A1 or named range, which is read in one request
+     * @param columns   headers of the columns to read, or null for all
+     */
+    public static void streamGoogleSheetsData(String spreadsheetUrl, String sheetName, Set<String> columns,
+                                              RowHandler handler) throws Exception {
+        int pageSize = Math.max(1, Integer.getInteger("documerge.sheets.pageSize", DEFAULT_PAGE_SIZE));
         try {
-            ValueRange response = service.spreadsheets().values()
-                    .get(spreadsheetId, range)
-                    .execute();
-            List<List<Object>> values = response.getValues();
-
-            if (values == null || values.isEmpty()) {
-                System.out.println("No data found in the sheet.");
-                return dataList;
+            streamValues(getSheetsService(), extractSpreadsheetId(spreadsheetUrl),
+                    sheetName != null ? sheetName : "Sheet1", pageSize, SheetsCache.fromSystemProperties(), columns,
+                    handler);
+        } catch (Exception e) {
+            System.err.println("Error reading Google Sheets data: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    static void streamValues(Sheets service, String spreadsheetId, String sheetName, int pageSize,
+                             RowHandler handler) throws Exception {
+        streamValues(service, spreadsheetId, sheetName, pageSize, null, handler);
+    }
+
+    static void streamValues(Sheets service, String spreadsheetId, String sheetName, int pageSize,
+                             SheetsCache cache, RowHandler handler) throws Exception {
+        streamValues(service, spreadsheetId, sheetName, pageSize, cache, null, handler);
+    }
+
+    /**
+     * @param cache   checked before the download and filled during it; null to always download
+     * @param columns headers of the columns to read, or null for all
+     */
+    static void streamValues(Sheets service, String spreadsheetId, String sheetName, int pageSize,
+                             SheetsCache cache, Set<String> columns, RowHandler handler) throws Exception {
+        SheetProperties tab = findSheet(service, spreadsheetId, sheetName);
+        if (tab == null) {
+            // Not a tab title: an A1 range such as Sheet1!A1:F500 or a named range
+            streamRange(service, spreadsheetId, sheetName, columns, handler);
+            return;
+        }
+        GridProperties grid = tab.getGridProperties();
+        Integer rowCount = grid != null ? grid.getRowCount() : null;
+        if (cache == null) {
+            streamRows(service, spreadsheetId, sheetName, rowCount, pageSize, columns, handler);
+            return;
+        }
+
+        // Rows read with other columns are cached separately
+        String cachedRange = columns != null ? sheetName + "#" + String.join("\n", new TreeSet<>(columns))
+                : sheetName;
+        String version = probeVersion(service, spreadsheetId, sheetName, grid);
+        if (cache.replay(spreadsheetId, cachedRange, version, handler)) {
+            System.out.println("✓ Size, first and last rows unchanged since the last download - using the cached copy");
+            return;
+        }
+        try (SheetsCache.Writer writer = cache.openWriter(spreadsheetId, cachedRange, version)) {
+            streamRows(service, spreadsheetId, sheetName, rowCount, pageSize, columns, (rowIndex, rowData) -> {
+                writer.writeRow(rowData);
+                handler.handleRow(rowIndex, rowData);
+            });
+            writer.commit();
+        }
+    }
+
+    /**
+     * Stand-in for a revision number, which the Sheets API doesn't expose:
+     * a hash of the grid size and of the first and last {@value #PROBE_ROWS}
+     * rows, fetched in one request. Appending, removing or reordering rows
+     * changes it; an edit deep inside a large sheet does not, which is why
+     * the cache is opt-in and its entries also expire after a while.
+     */
+    static String probeVersion(Sheets service, String spreadsheetId, String sheetName,
+                               GridProperties grid) throws IOException {
+        Integer rowCount = grid != null ? grid.getRowCount() : null;
+        List<String> ranges = new ArrayList<>();
+        int headEnd = rowCount != null ? Math.min(rowCount, PROBE_ROWS + 1) : PROBE_ROWS + 1;
+        ranges.add(rowRange(sheetName, 1, headEnd));
+        if (rowCount != null && rowCount > headEnd) {
+            ranges.add(rowRange(sheetName, Math.max(headEnd + 1, rowCount - PROBE_ROWS + 1), rowCount));
+        }
+        BatchGetValuesResponse response = service.spreadsheets().values()
+                .batchGet(spreadsheetId)
+                .setRanges(ranges)
+                .execute();
+
+        StringBuilder probe = new StringBuilder()
+                .append(rowCount).append('x').append(grid != null ? grid.getColumnCount() : null);
+        if (response.getValueRanges() != null) {
+            for (ValueRange range : response.getValueRanges()) {
+                probe.append("\n#");
+                if (range.getValues() == null) {
+                    continue;
+                }
+                for (List<Object> row : range.getValues()) {
+                    probe.append('\n');
+                    if (row == null) {
+                        continue;
+                    }
+                    for (Object cell : row) {
+                        // Length-prefixed so cell boundaries can't be confused
+                        String value = cell != null ? cell.toString() : "";
+                        probe.append(value.length()).append(':').append(value);
+                    }
+                }
             }
+        }
+        return CompiledTemplate.sha256(probe.toString().getBytes(StandardCharsets.UTF_8));
+    }
 
-            List<Object> headerRow = values.get(0);
-            List<String> headers = new ArrayList<>();
-            for (Object header : headerRow) {
-                headers.add(header.toString().trim());
+    private static void streamRows(Sheets service, String spreadsheetId, String sheetName, Integer rowCount,
+                                   int pageSize, Set<String> columns, RowHandler handler) throws Exception {
+        List<List<Object>> headerValues = fetchRows(service, spreadsheetId, sheetName, 1, 1).rows;
+        if (headerValues.isEmpty() || headerValues.get(0).isEmpty()) {
+            System.out.println("No data found in the sheet.");
+            return;
+        }
+        List<String> headers = new ArrayList<>();
+        for (Object header : headerValues.get(0)) {
+            headers.add(header.toString().trim());
+        }
+        boolean[] wanted = new boolean[headers.size()];
+        for (int j = 0; j < wanted.length; j++) {
+            wanted[j] = columns == null || columns.contains(headers.get(j));
+        }
+        // Whole rows unless only some of the columns are needed
+        List<int[]> spans = columns != null ? columnSpans(wanted) : null;
+        if (spans != null && spans.isEmpty()) {
+            spans = null;
+            Arrays.fill(wanted, true);
+        }
+        if (spans != null) {
+            int needed = 0;
+            for (boolean column : wanted) {
+                needed += column ? 1 : 0;
             }
+            System.out.println("Reading " + needed + " of " + headers.size() + " columns in "
+                    + spans.size() + " range(s)");
+        }
+        List<int[]> ranges = spans;
 
-            for (int i = 1; i < values.size(); i++) {
-                List<Object> row = values.get(i);
-                Map<String, String> rowData = new HashMap<>();
+        // Readers on a virtual thread (ThreadingMode.VIRTUAL) fetch on virtual threads too
+        ExecutorService fetcher = VirtualThreads.isVirtual(Thread.currentThread())
+                ? VirtualThreads.newThreadPerTaskExecutor("documerge-sheets-fetch-")
+                : Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "documerge-sheets-fetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            int rowIndex = 0;
+            // Blank rows are only data if something follows them, as in a single values().get
+            int pendingBlankRows = 0;
+            int start = 2;
+            Future<Page> pending = rowCount == null || rowCount >= start
+                    ? fetchAsync(fetcher, service, spreadsheetId, sheetName, ranges, start,
+                            fetchEnd(start, pageSize, rowCount))
+                    : null;
+            while (pending != null) {
+                int end = pageEnd(start, pageSize, rowCount);
+                Page fetched = await(pending);
+                List<List<Object>> page = fetched.rows;
+                if (page.size() > end - start + 1) {
+                    // The row looked ahead at belongs to the next page
+                    page = page.subList(0, end - start + 1);
+                }
 
-                for (int j = 0; j < headers.size(); j++) {
-                    String value = "";
-                    if (j < row.size() && row.get(j) != null) {
-                        value = row.get(j).toString();
+                // Start the next block before handing this one over
+                int nextStart = end + 1;
+                boolean more;
+                if (rowCount != null) {
+                    more = nextStart <= rowCount;
+                } else {
+                    // Blank pages don't end an unsized sheet; the grid does
+                    more = fetched.lastRow >= 0 ? fetched.lastRow >= nextStart : !page.isEmpty();
+                }
+                pending = more ? fetchAsync(fetcher, service, spreadsheetId, sheetName, ranges,
+                        nextStart, fetchEnd(nextStart, pageSize, rowCount)) : null;
+
+                for (List<Object> row : page) {
+                    if (row == null || row.isEmpty()) {
+                        pendingBlankRows++;
+                        continue;
+                    }
+                    for (; pendingBlankRows > 0; pendingBlankRows--) {
+                        handler.handleRow(rowIndex++, toRowData(headers, wanted, Collections.emptyList()));
                     }
-                    rowData.put(headers.get(j), value);
+                    handler.handleRow(rowIndex++, toRowData(headers, wanted, row));
                 }
-                dataList.add(rowData);
+                // The API leaves out trailing blank rows of each range
+                pendingBlankRows += (end - start + 1) - page.size();
+                start = nextStart;
             }
+        } finally {
+            fetcher.shutdownNow();
+        }
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error reading Google Sheets data: " + e.getMessage());
+    /**
+     * The tab with this title, or null if there is none
+     */
+    private static SheetProperties findSheet(Sheets service, String spreadsheetId,
+                                             String sheetName) throws IOException {
+        Spreadsheet spreadsheet = service.spreadsheets().get(spreadsheetId)
+                .setFields("sheets.properties(title,gridProperties(rowCount,columnCount))")
+                .execute();
+        if (spreadsheet.getSheets() != null) {
+            for (Sheet sheet : spreadsheet.getSheets()) {
+                if (sheet.getProperties() != null && sheetName.equals(sheet.getProperties().getTitle())) {
+                    return sheet.getProperties();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read a range in one values().get, the header in its first row. Ranges
+     * are neither paged nor cached.
+     */
+    private static void streamRange(Sheets service, String spreadsheetId, String range, Set<String> columns,
+                                    RowHandler handler) throws Exception {
+        ValueRange response = service.spreadsheets().values()
+                .get(spreadsheetId, range)
+                .execute();
+        List<List<Object>> values = response.getValues();
+        if (values == null || values.isEmpty() || values.get(0).isEmpty()) {
+            System.out.println("No data found in the sheet.");
+            return;
+        }
+        List<String> headers = new ArrayList<>();
+        for (Object header : values.get(0)) {
+            headers.add(header.toString().trim());
+        }
+        boolean[] wanted = new boolean[headers.size()];
+        boolean any = false;
+        for (int j = 0; j < wanted.length; j++) {
+            wanted[j] = columns == null || columns.contains(headers.get(j));
+            any |= wanted[j];
+        }
+        if (!any) {
+            Arrays.fill(wanted, true);
+        }
+        for (int i = 1; i < values.size(); i++) {
+            List<Object> row = values.get(i);
+            handler.handleRow(i - 1, toRowData(headers, wanted, row != null ? row : Collections.emptyList()));
+        }
+    }
+
+    private static int pageEnd(int start, int pageSize, Integer rowCount) {
+        int end = start + pageSize - 1;
+        return rowCount != null ? Math.min(end, rowCount) : end;
+    }
+
+    /**
+     * Last row to request for a page. Without a row count one more row is
+     * requested: the range the API returns is cut off at the end of the
+     * grid, so it shows whether a next page exists without asking for rows
+     * past the grid, which the API rejects.
+     */
+    private static int fetchEnd(int start, int pageSize, Integer rowCount) {
+        int end = pageEnd(start, pageSize, rowCount);
+        return rowCount != null ? end : end + 1;
+    }
+
+    /**
+     * Rows of one request, and the last row of the range the API answered
+     * for, or -1 if it didn't say
+     */
+    static final class Page {
+        final List<List<Object>> rows;
+        final int lastRow;
+
+        Page(List<List<Object>> rows, int lastRow) {
+            this.rows = rows;
+            this.lastRow = lastRow;
+        }
+    }
+
+    private static Future<Page> fetchAsync(ExecutorService fetcher, Sheets service, String spreadsheetId,
+                                           String sheetName, List<int[]> spans, int firstRow, int lastRow) {
+        return fetcher.submit(() -> spans != null
+                ? fetchColumns(service, spreadsheetId, sheetName, spans, firstRow, lastRow)
+                : fetchRows(service, spreadsheetId, sheetName, firstRow, lastRow));
+    }
+
+    private static Page fetchRows(Sheets service, String spreadsheetId, String sheetName,
+                                  int firstRow, int lastRow) throws IOException {
+        ValueRange response = service.spreadsheets().values()
+                .get(spreadsheetId, rowRange(sheetName, firstRow, lastRow))
+                .execute();
+        List<List<Object>> values = response.getValues();
+        return new Page(values != null ? values : Collections.emptyList(), lastRow(response.getRange()));
+    }
+
+    /**
+     * Rows firstRow..lastRow of the given column spans in one batchGet,
+     * each row put back together with its cells at their column positions.
+     * A row blank in every span comes back empty.
+     */
+    private static Page fetchColumns(Sheets service, String spreadsheetId, String sheetName,
+                                     List<int[]> spans, int firstRow, int lastRow) throws IOException {
+        List<String> ranges = new ArrayList<>(spans.size());
+        for (int[] span : spans) {
+            ranges.add(columnRange(sheetName, span[0], span[1], firstRow, lastRow));
+        }
+        BatchGetValuesResponse response = service.spreadsheets().values()
+                .batchGet(spreadsheetId)
+                .setRanges(ranges)
+                .execute();
+        List<ValueRange> valueRanges = response.getValueRanges() != null ? response.getValueRanges()
+                : Collections.emptyList();
+
+        // Each range leaves out its own trailing blank rows
+        int rowCount = 0;
+        int answeredTo = -1;
+        for (ValueRange range : valueRanges) {
+            if (range.getValues() != null) {
+                rowCount = Math.max(rowCount, range.getValues().size());
+            }
+            answeredTo = Math.max(answeredTo, lastRow(range.getRange()));
+        }
+        List<List<Object>> rows = new ArrayList<>(rowCount);
+        for (int r = 0; r < rowCount; r++) {
+            List<Object> row = new ArrayList<>();
+            for (int k = 0; k < spans.size() && k < valueRanges.size(); k++) {
+                List<List<Object>> values = valueRanges.get(k).getValues();
+                List<Object> cells = values != null && r < values.size() ? values.get(r) : null;
+                if (cells == null || cells.isEmpty()) {
+                    continue;
+                }
+                while (row.size() < spans.get(k)[0]) {
+                    row.add(null);
+                }
+                row.addAll(cells);
+            }
+            rows.add(row);
+        }
+        return new Page(rows, answeredTo);
+    }
+
+    /**
+     * Runs of adjacent wanted columns as {first, last} indexes
+     */
+    static List<int[]> columnSpans(boolean[] wanted) {
+        List<int[]> spans = new ArrayList<>();
+        for (int j = 0; j < wanted.length; j++) {
+            if (!wanted[j]) {
+                continue;
+            }
+            int first = j;
+            while (j + 1 < wanted.length && wanted[j + 1]) {
+                j++;
+            }
+            spans.add(new int[] {first, j});
+        }
+        return spans;
+    }
+
+    /**
+     * A1 range of some columns of some rows, e.g. 'Sheet1'!C2:E5001
+     */
+    static String columnRange(String sheetName, int firstColumn, int lastColumn, int firstRow, int lastRow) {
+        return "'" + sheetName.replace("'", "''") + "'!" + columnName(firstColumn) + firstRow
+                + ":" + columnName(lastColumn) + lastRow;
+    }
+
+    /**
+     * Letters of a zero-based column index: 0 is A, 26 is AA
+     */
+    static String columnName(int index) {
+        StringBuilder name = new StringBuilder(3);
+        for (int n = index + 1; n > 0; n = (n - 1) / 26) {
+            name.insert(0, (char) ('A' + (n - 1) % 26));
+        }
+        return name.toString();
+    }
+
+    /**
+     * A1 range of whole rows, e.g. 'Sheet1'!2:5001, so no column limit is needed
+     */
+    static String rowRange(String sheetName, int firstRow, int lastRow) {
+        return "'" + sheetName.replace("'", "''") + "'!" + firstRow + ":" + lastRow;
+    }
+
+    /**
+     * Row number the range ends at, e.g. 1000 for Sheet1!A2:Z1000, or -1
+     */
+    static int lastRow(String range) {
+        if (range == null) {
+            return -1;
+        }
+        int end = range.length();
+        int digits = end;
+        while (digits > 0 && Character.isDigit(range.charAt(digits - 1))) {
+            digits--;
+        }
+        if (digits == end || digits <= range.lastIndexOf('!') + 1 || end - digits > 9) {
+            return -1;
+        }
+        char before = range.charAt(digits - 1);
+        return before == ':' || Character.isLetter(before) ? Integer.parseInt(range.substring(digits)) : -1;
+    }
+
+    private static Page await(Future<Page> page) throws Exception {
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
             throw e;
         }
+    }
 
-        return dataList;
+    private static Map<String, String> toRowData(List<String> headers, boolean[] wanted, List<Object> row) {
+        Map<String, String> rowData = new HashMap<>();
+        for (int j = 0; j < headers.size(); j++) {
+            if (!wanted[j]) {
+                continue;
+            }
+            String value = "";
+            if (j < row.size() && row.get(j) != null) {
+                value = row.get(j).toString();
+            }
+            rowData.put(headers.get(j), value);
+        }
+        return rowData;
     }
 }
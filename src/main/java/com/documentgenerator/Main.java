@@ -1,9 +1,21 @@
 package com.documentgenerator;
 
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // "serve [port]" keeps a warm merge server running for scheduled jobs
+        if (args.length > 0 && "serve".equals(args[0])) {
+            MergeServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Any other arguments describe a job to run without prompting
+        if (args.length > 0) {
+            Cli.main(args);
+            return;
+        }
+        
         Scanner scanner = new Scanner(System.in);
         
         System.out.println("=== DocuMerge Pro ===");
@@ -18,12 +30,18 @@ public class Main {
         System.out.print("Enter output directory: ");
         String outputDir = scanner.nextLine();
         
-        // Process documents
+        // Process documents, with one progress line per interval as in the CLI
+        ProgressDispatcher progress = new ProgressDispatcher(Cli::printProgress, Runnable::run,
+                Long.getLong("documerge.progress.intervalMillis", Cli.PROGRESS_INTERVAL_MILLIS), null);
+        progress.start();
+        GenerationEngine.GenerationResult result = null;
         try {
-            DocumentProcessor.processDocuments(excelPath, templatePath, outputDir);
+            result = DocumentProcessor.processDocuments(excelPath, templatePath, outputDir, progress);
         } catch (Exception e) {
             System.err.println("Error processing documents: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            progress.finish(result != null ? result.getTotalRows() : -1);
         }
         
         scanner.close();
@@ -1,6 +1,7 @@
 package com.documentgenerator;
 
 import javafx.application.Application;
+import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -19,21 +20,35 @@ import com.documentgenerator.GoogleSheetsReader;
 import javafx.application.Platform;
 
 import java.io.File;
-import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 public class MainApp extends Application {
 
+    private static final String ARCHIVE_NAME = DocumentArchive.DEFAULT_FILE_NAME;
+
+    // Oldest log lines are dropped past this; the list only renders visible rows
+    private static final int MAX_LOG_LINES = 5000;
+    // Progress reaches the FX thread at most this often
+    private static final long PROGRESS_FRAME_MILLIS = 100;
+
     private TextField excelFileField;
     private TextField googleSheetsUrlField;
     private TextField templateFileField;
     private TextField outputDirField;
     private Button processButton;
-    private TextArea logArea;
+    private ListView<String> logView;
     private ProgressBar progressBar;
+    private Label statusLabel;
+    private Label metricsLabel;
     private RadioButton localFileRadio;
     private RadioButton googleSheetsRadio;
     private ToggleGroup dataSourceGroup;
+    private Spinner<Integer> parallelismSpinner;
+    private ComboBox<RenderEngine> renderEngineBox;
+    private CheckBox archiveCheckBox;
+    private CheckBox storeOnlyCheckBox;
+    private CheckBox incrementalCheckBox;
+    private CheckBox virtualThreadsCheckBox;
 
     @Override
 public void start(Stage primaryStage) {
@@ -150,11 +165,14 @@ try {
         progressBar.setPrefWidth(Double.MAX_VALUE);
         progressBar.setVisible(false);
 
-        // Log area
-        logArea = new TextArea();
-        logArea.setEditable(false);
-        logArea.setPrefRowCount(10);
-        logArea.setWrapText(true);
+        // Progress and throughput of the running batch
+        statusLabel = new Label();
+        metricsLabel = new Label();
+        metricsLabel.setStyle("-fx-font-size: 11px; -fx-text-fill: #555555;");
+
+        // Log
+        logView = new ListView<>();
+        logView.setPrefHeight(220);
 
         root.getChildren().addAll(
                 titleLabel,
@@ -162,8 +180,10 @@ try {
                 fileSection,
                 processButton,
                 progressBar,
+                statusLabel,
+                metricsLabel,
                 new Label("Processing Log:"),
-                logArea);
+                logView);
 
         return root;
     }
@@ -223,7 +243,39 @@ try {
                 "Select Directory",
                 this::selectOutputDirectory);
 
-        section.getChildren().addAll(excelBox, googleSheetsBox, templateBox, outputBox);
+        // Worker count and output engine for generation
+        HBox parallelismBox = new HBox(10);
+        parallelismBox.setAlignment(Pos.CENTER_LEFT);
+        Label parallelismLabel = new Label("Parallel Workers:");
+        parallelismLabel.setPrefWidth(150);
+        int cores = Runtime.getRuntime().availableProcessors();
+        parallelismSpinner = new Spinner<>(1, cores * 2,
+                Math.min(GenerationEngine.defaultParallelism(), cores * 2));
+        parallelismSpinner.setEditable(true);
+        renderEngineBox = new ComboBox<>();
+        renderEngineBox.getItems().addAll(RenderEngine.values());
+        renderEngineBox.setValue(RenderEngine.defaultEngine());
+        // For network output folders and Google Sheets: blocking I/O on virtual threads (Java 21+)
+        virtualThreadsCheckBox = new CheckBox("Virtual threads for I/O");
+        virtualThreadsCheckBox.setSelected(ThreadingMode.defaultMode().effective() == ThreadingMode.VIRTUAL);
+        virtualThreadsCheckBox.setDisable(!ThreadingMode.virtualThreadsAvailable());
+        parallelismBox.getChildren().addAll(parallelismLabel, parallelismSpinner,
+                new Label("Output Engine:"), renderEngineBox, virtualThreadsCheckBox);
+
+        // Optionally collect every document into one archive in the output directory
+        HBox archiveBox = new HBox(10);
+        archiveBox.setAlignment(Pos.CENTER_LEFT);
+        Label archiveLabel = new Label("Output Format:");
+        archiveLabel.setPrefWidth(150);
+        archiveCheckBox = new CheckBox("Single ZIP archive (" + ARCHIVE_NAME + ")");
+        storeOnlyCheckBox = new CheckBox("Store only (no compression)");
+        storeOnlyCheckBox.disableProperty().bind(archiveCheckBox.selectedProperty().not());
+        // Loose files only: an archive is always rewritten in full
+        incrementalCheckBox = new CheckBox("Skip unchanged rows");
+        incrementalCheckBox.disableProperty().bind(archiveCheckBox.selectedProperty());
+        archiveBox.getChildren().addAll(archiveLabel, archiveCheckBox, storeOnlyCheckBox, incrementalCheckBox);
+
+        section.getChildren().addAll(excelBox, googleSheetsBox, templateBox, outputBox, parallelismBox, archiveBox);
         return section;
     }
 
@@ -340,6 +392,12 @@ try {
     
     String templatePath = (String) templateFileField.getUserData();
     String outputDir = (String) outputDirField.getUserData();
+    int parallelism = parallelismSpinner.getValue();
+    RenderEngine renderEngine = renderEngineBox.getValue();
+    boolean writeArchive = archiveCheckBox.isSelected();
+    boolean storeOnly = storeOnlyCheckBox.isSelected();
+    boolean incremental = incrementalCheckBox.isSelected() && !writeArchive;
+    ThreadingMode threadingMode = virtualThreadsCheckBox.isSelected() ? ThreadingMode.VIRTUAL : ThreadingMode.PLATFORM;
 
     // Validate common inputs
     if (templateFileField.getText().isEmpty() || outputDirField.getText().isEmpty() ||
@@ -351,62 +409,103 @@ try {
     processButton.setDisable(true);
     progressBar.setVisible(true);
     progressBar.setProgress(-1);
-    logArea.clear();
-    logArea.appendText("Starting document generation...\n");
+    logView.getItems().clear();
+    statusLabel.setText("");
+    metricsLabel.setText("");
+    log("Starting document generation...");
 
-    Task<Void> task = new Task<Void>() {
+    // Per-stage timings and progress, delivered to the FX thread a frame at a time
+    GenerationMetrics metrics = new GenerationMetrics();
+    ProgressDispatcher progress = new ProgressDispatcher(this::showProgress, Platform::runLater,
+            PROGRESS_FRAME_MILLIS, metrics);
+
+    Task<GenerationEngine.GenerationResult> task = new Task<GenerationEngine.GenerationResult>() {
         @Override
-        protected Void call() throws Exception {
+        protected GenerationEngine.GenerationResult call() throws Exception {
             // Additional trial check during processing
             if (!TrialManager.isTrialValid()) {
                 throw new Exception("System processing error occurred");
             }
             
+            GenerationEngine.GenerationResult result = null;
             try {
-                List<Map<String, String>> data;
+                // Parse and analyse the template once for the whole job
+                long start = metrics.startTimer();
+                CompiledTemplate template = CompiledTemplate.forPath(templatePath);
+                metrics.stopTimer(GenerationMetrics.Stage.LOAD_TEMPLATE, start);
+                // Only the columns the template uses are read
+                Set<String> columns = GenerationEngine.requiredColumns(template);
+
+                // Rows are read while earlier rows are already being generated
+                RowSource data;
 
                 if (localFileRadio.isSelected()) {
                     String excelPath = (String) excelFileField.getUserData();
                     if (excelPath == null || excelFileField.getText().isEmpty()) {
                         throw new Exception("Please select an Excel file.");
                     }
-                    data = ExcelReader.readExcelData(excelPath);
-                    javafx.application.Platform.runLater(() -> 
-                        logArea.appendText("Reading data from local Excel file...\n"));
+                    data = RowSource.excel(excelPath, null, columns);
+                    progress.log("Reading data from local Excel file...");
                 } else {
                     String googleSheetsUrl = googleSheetsUrlField.getText().trim();
                     if (googleSheetsUrl.isEmpty()) {
                         throw new Exception("Please enter a Google Sheets URL.");
                     }
-                    data = GoogleSheetsReader.readGoogleSheetsData(googleSheetsUrl, "Sheet1");
-                    javafx.application.Platform.runLater(() -> 
-                        logArea.appendText("Reading data from Google Sheets...\n"));
+                    data = RowSource.googleSheets(googleSheetsUrl, "Sheet1", columns);
+                    progress.log("Reading data from Google Sheets...");
                 }
 
-                // Generate documents for each row
-                for (int i = 0; i < data.size(); i++) {
-                    Map<String, String> rowData = data.get(i);
-                    String outputFileName = outputDir + "/document_" + (i + 1) + "_" +
-                            rowData.get("Name").replaceAll("\\s+", "_") + ".docx";
-
-                    WordGenerator.generateDocument(templatePath, outputFileName, rowData);
-
-                    final int currentDoc = i + 1;
-                    final int totalDocs = data.size();
-                    javafx.application.Platform.runLater(() ->
-                            logArea.appendText("Generated document " + currentDoc + "/" + totalDocs + "\n"));
+                // Generate documents for each row on the worker pool
+                GenerationEngine engine = new GenerationEngine(parallelism);
+                engine.setRenderEngine(renderEngine);
+                engine.setThreadingMode(threadingMode);
+                engine.setMetrics(metrics);
+                // Counts rows and queues failures; the UI sees them once per frame
+                GenerationEngine.GenerationListener listener = progress;
+                if (incremental) {
+                    // Rows unchanged since the last run into this directory are skipped
+                    String fingerprint = GenerationManifest.fingerprint(template, renderEngine, null);
+                    try (GenerationManifest manifest = GenerationManifest.open(new File(outputDir), fingerprint)) {
+                        engine.setManifest(manifest);
+                        result = engine.generate(template, data, outputDir, null, listener);
+                    }
+                } else if (!writeArchive) {
+                    result = engine.generate(template, data, outputDir, null, listener);
+                } else {
+                    // One archive for the whole batch; closing it writes the manifest
+                    String archivePath = outputDir + "/" + ARCHIVE_NAME;
+                    try (DocumentArchive archive = new DocumentArchive(archivePath, storeOnly)) {
+                        result = engine.generateArchive(template, data, archive, null, listener);
+                    }
+                    progress.log("Archive written: " + archivePath);
                 }
 
-                return null;
-            } catch (Exception e) {
-                throw e;
+                metrics.writeReports(new File(outputDir).toPath());
+                progress.log("Metrics written to " + GenerationMetrics.JSON_FILE_NAME +
+                        " and " + GenerationMetrics.PROMETHEUS_FILE_NAME);
+                return result;
+            } finally {
+                // Queued ahead of succeeded() or failed(), so the log is complete by then
+                progress.finish(result != null ? result.getTotalRows() : -1);
             }
         }
 
         @Override
         protected void succeeded() {
-            logArea.appendText("Document generation completed successfully!\n");
-            showAlert("Success", "All documents have been generated successfully!");
+            log("Metrics: " + metrics.summaryLine());
+            GenerationEngine.GenerationResult result = getValue();
+            if (result.getSkipped() > 0) {
+                log("Skipped " + result.getSkipped() + " unchanged document(s).");
+            }
+            if (result.hasFailures()) {
+                log("Document generation finished with " + result.getFailures().size() + " failed row(s).");
+                showAlert("Completed with errors", "Generated " + result.getGenerated() + " of " +
+                        result.getTotalRows() + " documents.\n" + result.getFailures().size() +
+                        " row(s) failed - see the processing log for details.");
+            } else {
+                log("Document generation completed successfully!");
+                showAlert("Success", "All documents have been generated successfully!");
+            }
             resetUI();
         }
 
@@ -416,23 +515,56 @@ try {
             if (errorMsg.contains("System processing error")) {
                 // Show technical error instead of trial expiry
                 javafx.application.Platform.runLater(() -> {
-                    logArea.appendText("Critical system error occurred during processing.\n");
+                    log("Critical system error occurred during processing.");
                     showTechnicalProcessingError();
                 });
             } else {
-                logArea.appendText("Error: " + errorMsg + "\n");
+                log("Error: " + errorMsg);
                 showAlert("Error", "Document generation failed: " + errorMsg);
             }
             resetUI();
         }
     };
 
-    Thread thread = new Thread(task);
-    thread.setDaemon(true);
+    progress.start();
+    Thread thread;
+    if (threadingMode.effective() == ThreadingMode.VIRTUAL) {
+        thread = VirtualThreads.factory("documerge-task-").newThread(task);
+    } else {
+        thread = new Thread(task);
+        thread.setDaemon(true);
+    }
     thread.start();
 }
 
 
+    /**
+     * Show one progress frame: the bar, the status lines and any new log messages
+     */
+    private void showProgress(ProgressDispatcher.Progress progress) {
+        for (String message : progress.getMessages()) {
+            log(message);
+        }
+        // -1 while the total is unknown, which the bar shows as indeterminate
+        progressBar.setProgress(progress.getFraction());
+        statusLabel.setText(progress.statusLine());
+        if (progress.getMetricsSummary() != null) {
+            metricsLabel.setText(progress.getMetricsSummary());
+        }
+    }
+
+    /**
+     * Append a line to the log, dropping the oldest past MAX_LOG_LINES
+     */
+    private void log(String line) {
+        ObservableList<String> items = logView.getItems();
+        items.add(line);
+        if (items.size() > MAX_LOG_LINES) {
+            items.remove(0, items.size() - MAX_LOG_LINES);
+        }
+        logView.scrollTo(items.size() - 1);
+    }
+
     private void resetUI() {
         processButton.setDisable(false);
         progressBar.setVisible(false);
@@ -0,0 +1,65 @@
+package com.documentgenerator;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps generated documents in memory by name, for tests and for
+ * benchmarks that should measure rendering without disk writes. Without
+ * retention only the documents and bytes are counted.
+ */
+public class MemorySink implements OutputSink {
+
+    private final boolean retain;
+    private final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public MemorySink() {
+        this(true);
+    }
+
+    /**
+     * @param retain false to count documents without keeping them
+     */
+    public MemorySink(boolean retain) {
+        this.retain = retain;
+    }
+
+    @Override
+    public String write(int rowIndex, String name, byte[] content) {
+        if (retain) {
+            documents.put(name, content);
+        }
+        count.incrementAndGet();
+        bytes.addAndGet(content.length);
+        return name;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    /**
+     * Documents by name; empty without retention
+     */
+    public Map<String, byte[]> getDocuments() {
+        return Collections.unmodifiableMap(documents);
+    }
+
+    public byte[] getDocument(String name) {
+        return documents.get(name);
+    }
+
+    public int getCount() {
+        return count.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
@@ -0,0 +1,341 @@
+package com.documentgenerator;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running merge service on a loopback HTTP port, so a scheduler can
+ * hand over many small jobs without paying JVM startup, POI class loading
+ * and a cold JIT for each one. Compiled templates stay cached between jobs
+ * (see {@link CompiledTemplate#forPath(String)}).
+ *
+ * Jobs are posted as properties text and run one after another:
+ * <pre>
+ *   POST /jobs       source=..., template=..., output=... ; returns the job id
+ *   GET  /jobs       status of recent jobs
+ *   GET  /jobs/{id}  status and throughput of one job
+ *   GET  /status     queue length and throughput since the server started
+ *   POST /shutdown   finish the running job and stop
+ * </pre>
+ * The job keys are described in {@link BatchJob}.
+ *
+ * A job reads and writes whatever paths it names, so listening on loopback
+ * is not enough: any local process, or a web page in the user's browser,
+ * could reach the port. Every request must carry the token written at
+ * startup to ~/.documerge/server.token (documerge.server.tokenFile,
+ * readable by its owner only) in an {@value #TOKEN_HEADER} header.
+ * Requests with an Origin header, or a Host other than localhost or the
+ * loopback address, are refused, which keeps out cross-site requests and
+ * DNS rebinding.
+ */
+public class MergeServer {
+
+    public static final int DEFAULT_PORT = 8765;
+    public static final String TOKEN_HEADER = "X-DocuMerge-Token";
+
+    // Finished jobs kept for status queries
+    private static final int RETAINED_JOBS = 1000;
+
+    private final HttpServer server;
+    private final ExecutorService runner;
+    private final Map<Integer, BatchJob> jobs = new LinkedHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong busyMillis = new AtomicLong();
+    private final long startedAt = System.currentTimeMillis();
+    private final String token = newToken();
+    private final Path tokenFile;
+    private volatile boolean stopping;
+
+    /**
+     * @param port loopback port, 0 for any free one
+     */
+    public MergeServer(int port) throws IOException {
+        this(port, defaultTokenFile());
+    }
+
+    /**
+     * @param tokenFile where {@link #start()} writes the access token
+     */
+    public MergeServer(int port, Path tokenFile) throws IOException {
+        this.tokenFile = tokenFile;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jobs", guarded(this::handleJobs));
+        server.createContext("/status", guarded(this::handleStatus));
+        server.createContext("/shutdown", guarded(this::handleShutdown));
+        runner = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "documerge-job-runner"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0])
+                : Integer.getInteger("documerge.server.port", DEFAULT_PORT);
+        MergeServer mergeServer = new MergeServer(port);
+        mergeServer.start();
+        System.out.println("DocuMerge server listening on http://127.0.0.1:" + mergeServer.getPort() + "/");
+        System.out.println("Send the token in " + mergeServer.tokenFile + " as the " + TOKEN_HEADER + " header");
+    }
+
+    /**
+     * The token file from documerge.server.tokenFile, ~/.documerge/server.token by default
+     */
+    public static Path defaultTokenFile() {
+        String defaultFile = System.getProperty("user.home") + "/.documerge/server.token";
+        return Paths.get(System.getProperty("documerge.server.tokenFile", defaultFile));
+    }
+
+    /**
+     * Write the token file and start accepting requests
+     */
+    public void start() throws IOException {
+        writeTokenFile();
+        warmUp();
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * The value clients send in the {@value #TOKEN_HEADER} header
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Stop accepting jobs, let the running one finish and drop the rest of the queue
+     */
+    public void stop() {
+        stopping = true;
+        server.stop(0);
+        runner.shutdown();
+        try {
+            runner.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException e) {
+            // Useless once the server is gone; the next start replaces it
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Write the token to a new file only its owner can read. A file left by
+     * an earlier server is replaced rather than reused, so its permissions
+     * don't carry over.
+     */
+    private void writeTokenFile() throws IOException {
+        Path parent = tokenFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.deleteIfExists(tokenFile);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        } else {
+            // Windows: the user profile is private to its owner already
+            Files.createFile(tokenFile);
+        }
+        Files.write(tokenFile, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Let a request through only from a local client that has the token
+     */
+    private HttpHandler guarded(HttpHandler handler) {
+        return exchange -> {
+            Headers headers = exchange.getRequestHeaders();
+            if (headers.containsKey("Origin") || !isLocalHost(headers.getFirst("Host"))) {
+                // Browsers send Origin on cross-site posts; a rebound DNS name shows in Host
+                respond(exchange, 403, "{\"error\": \"Only local clients may use this server\"}");
+                return;
+            }
+            String presented = headers.getFirst(TOKEN_HEADER);
+            if (presented == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    presented.trim().getBytes(StandardCharsets.UTF_8))) {
+                respond(exchange, 401, "{\"error\": \"Missing or wrong " + TOKEN_HEADER + " header\"}");
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    /**
+     * localhost or a loopback address, with or without a port
+     */
+    static boolean isLocalHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        if (name.startsWith("[")) {
+            int end = name.indexOf(']');
+            name = end > 0 ? name.substring(1, end) : name;
+        } else if (name.indexOf(':') >= 0) {
+            name = name.substring(0, name.indexOf(':'));
+        }
+        return name.equals("localhost") || name.equals("127.0.0.1") || name.equals("::1");
+    }
+
+    /**
+     * Load POI and initialise the XmlBeans schema types before the first job
+     */
+    static void warmUp() {
+        try (XWPFDocument document = new XWPFDocument()) {
+            document.createParagraph().createRun().setText("warm-up");
+            document.write(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            System.err.println("Warm-up failed: " + e.getMessage());
+        }
+    }
+
+    BatchJob submit(Properties description) {
+        BatchJob job = new BatchJob(nextId.getAndIncrement(), description);
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            Iterator<BatchJob> oldest = jobs.values().iterator();
+            while (jobs.size() > RETAINED_JOBS && oldest.hasNext()) {
+                if (oldest.next().finishedAt != 0) {
+                    oldest.remove();
+                }
+            }
+        }
+        queued.incrementAndGet();
+        runner.execute(() -> run(job));
+        return job;
+    }
+
+    BatchJob getJob(int id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    private void run(BatchJob job) {
+        queued.decrementAndGet();
+        if (stopping) {
+            job.abandon("Server stopped before the job started");
+            return;
+        }
+        job.run(null);
+        documents.addAndGet(job.metrics.getDocuments());
+        busyMillis.addAndGet(job.finishedAt - job.startedAt);
+        System.out.println("Job " + job.id + " " + job.state + ": " + job.metrics.summaryLine());
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/jobs") || path.equals("/jobs/")) {
+            if ("POST".equals(method)) {
+                Properties description = new Properties();
+                description.load(new StringReader(new String(exchange.getRequestBody().readAllBytes(),
+                        StandardCharsets.UTF_8)));
+                try {
+                    BatchJob job = submit(description);
+                    respond(exchange, 202, "{\"id\": " + job.id + ", \"state\": \"" + job.state +
+                            "\", \"status\": \"/jobs/" + job.id + "\"}");
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, "{\"error\": " + BatchJob.jsonString(e.getMessage()) + "}");
+                }
+            } else if ("GET".equals(method)) {
+                StringBuilder json = new StringBuilder("[");
+                synchronized (jobs) {
+                    for (BatchJob job : jobs.values()) {
+                        json.append(json.length() > 1 ? ",\n " : "").append(job.toJson());
+                    }
+                }
+                respond(exchange, 200, json.append(']').toString());
+            } else {
+                respond(exchange, 405, "{\"error\": \"Use GET or POST\"}");
+            }
+            return;
+        }
+
+        BatchJob job = null;
+        try {
+            job = getJob(Integer.parseInt(path.substring("/jobs/".length())));
+        } catch (NumberFormatException e) {
+            // Not a job id
+        }
+        if (job == null) {
+            respond(exchange, 404, "{\"error\": \"No such job\"}");
+        } else {
+            respond(exchange, 200, job.toJson());
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        int running = 0;
+        int finished = 0;
+        synchronized (jobs) {
+            for (BatchJob job : jobs.values()) {
+                if (job.state == BatchJob.State.RUNNING) {
+                    running++;
+                } else if (job.state != BatchJob.State.QUEUED) {
+                    finished++;
+                }
+            }
+        }
+        long busy = busyMillis.get();
+        String json = "{\"uptimeSeconds\": " + (System.currentTimeMillis() - startedAt) / 1000 +
+                ", \"queued\": " + queued.get() +
+                ", \"running\": " + running +
+                ", \"finished\": " + finished +
+                ", \"documents\": " + documents.get() +
+                ", \"documentsPerBusySecond\": " +
+                String.format(Locale.ROOT, "%.1f", busy > 0 ? documents.get() * 1000.0 / busy : 0.0) + "}";
+        respond(exchange, 200, json);
+    }
+
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "{\"error\": \"Use POST\"}");
+            return;
+        }
+        respond(exchange, 202, "{\"state\": \"STOPPING\"}");
+        Thread stopper = new Thread(this::stop, "documerge-server-stop");
+        stopper.start();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
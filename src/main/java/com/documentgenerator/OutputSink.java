@@ -0,0 +1,109 @@
+package com.documentgenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where generated documents go. The engine renders each row to bytes and
+ * hands them to the sink, so rendering and storage can be swapped, tuned
+ * and timed separately - a plain directory, a directory written in the
+ * background ({@link AsyncFileSink}), a single archive, memory
+ * ({@link MemorySink}), or anything else that can take a named byte array,
+ * such as an upload to remote storage.
+ *
+ * The caller closes the sink once the batch is done; closing may finish
+ * writes still in progress and fails if any of them did.
+ */
+public interface OutputSink extends Closeable {
+
+    /**
+     * Called once a document is in place
+     */
+    @FunctionalInterface
+    interface StoredCallback {
+        void stored() throws IOException;
+    }
+
+    /**
+     * Store one document
+     *
+     * @return where it went, reported to the listener as the output path
+     */
+    String write(int rowIndex, String name, byte[] content) throws IOException;
+
+    /**
+     * Whether write may be called by several threads at once. Concurrent
+     * sinks get a writer thread per document in VIRTUAL mode.
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * The file a document of this name ends up as, for sinks that write
+     * local files, otherwise null. Incremental runs need it to tell whether
+     * a document is still there.
+     */
+    default Path localPath(String name) {
+        return null;
+    }
+
+    /**
+     * Store a document with the same content as one already stored under
+     * another name. Sinks that write local files link the new name to the
+     * existing file where the file system allows; the others store the
+     * bytes again.
+     *
+     * @param originalName name the same content was written under before
+     */
+    default String writeDuplicate(int rowIndex, String name, String originalName, byte[] content)
+            throws IOException {
+        return write(rowIndex, name, content);
+    }
+
+    /**
+     * Store one document and call back once it is in place. Sinks that
+     * finish writing in the background call back later, from their writer
+     * thread or from close(), and never for a document that could not be
+     * written; the others call back before returning.
+     */
+    default String write(int rowIndex, String name, byte[] content, StoredCallback stored) throws IOException {
+        String path = write(rowIndex, name, content);
+        stored.stored();
+        return path;
+    }
+
+    /**
+     * Store a duplicate as {@link #writeDuplicate(int, String, String, byte[])}
+     * does and call back once it is in place
+     */
+    default String writeDuplicate(int rowIndex, String name, String originalName, byte[] content,
+                                  StoredCallback stored) throws IOException {
+        String path = writeDuplicate(rowIndex, name, originalName, content);
+        stored.stored();
+        return path;
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * One file per document in a directory, written by the calling thread
+     */
+    static OutputSink directory(Path directory) {
+        return new DirectorySink(directory);
+    }
+
+    /**
+     * Entries of a single archive; closing the sink leaves the archive open
+     * for the caller, who closes it to write its manifest
+     */
+    static OutputSink archive(DocumentArchive archive) {
+        return (rowIndex, name, content) -> {
+            archive.addDocument(rowIndex, name, content);
+            return name;
+        };
+    }
+}
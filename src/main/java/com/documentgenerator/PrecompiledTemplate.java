@@ -0,0 +1,270 @@
+package com.documentgenerator;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A compiled template saved to disk, so a new process can skip parsing and
+ * analysing the .docx. The artifact holds the template package as it was
+ * compiled, its placeholder set and locations, its repeating rows and the
+ * segment split of every analysed placeholder set, the full set included.
+ *
+ * Artifacts live next to the template as {@code letter.docx.dmt}, or in
+ * ~/.documerge/templates (documerge.templates.artifactDir) under a name
+ * derived from the template's absolute path. {@link CompiledTemplate#forPath}
+ * uses one when the SHA-256 hash of the template it has just read matches
+ * the one recorded, whatever the file's modification time and size, and
+ * keeps the bytes it read instead of a copy from the artifact. Anything
+ * else - a changed template, another format version, a damaged file - is
+ * ignored and the template compiled as usual. Set
+ * documerge.templates.precompiled to false to never load artifacts.
+ *
+ * The file is a small header followed by varint-prefixed fields.
+ */
+public class PrecompiledTemplate {
+
+    private static final int MAGIC = 0x444d5450; // "DMTP"
+    private static final int FORMAT_VERSION = 2;
+    static final String SUFFIX = ".dmt";
+
+    private PrecompiledTemplate() {
+    }
+
+    /**
+     * The artifact directory from documerge.templates.artifactDir, ~/.documerge/templates by default
+     */
+    public static Path defaultArtifactDirectory() {
+        String defaultDirectory = System.getProperty("user.home") + "/.documerge/templates";
+        return Paths.get(System.getProperty("documerge.templates.artifactDir", defaultDirectory));
+    }
+
+    /**
+     * Where the artifact for a template goes: next to it when directory is null
+     */
+    static Path artifactPath(File template, Path directory) {
+        if (directory == null) {
+            return Paths.get(template.getPath() + SUFFIX);
+        }
+        String pathHash = CompiledTemplate.sha256(
+                template.getAbsolutePath().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+        return directory.resolve(pathHash + "-" + template.getName() + SUFFIX);
+    }
+
+    /**
+     * Compile a template and save the artifact for it
+     *
+     * @param directory where to write the artifact, or null for next to the template
+     * @return the artifact written
+     */
+    public static Path precompile(File template, Path directory) throws IOException {
+        CompiledTemplate compiled = CompiledTemplate.compileFile(template);
+        try {
+            // The set used whenever every placeholder has data
+            compiled.segmented(compiled.getPlaceholders());
+        } catch (IOException e) {
+            System.err.println("Warning: " + template + " cannot be segmented, saving its analysis only: "
+                    + e.getMessage());
+        }
+        Path artifact = artifactPath(template, directory);
+        save(compiled, artifact);
+        return artifact;
+    }
+
+    /**
+     * Precompile every .docx under a directory, or a single template
+     *
+     * @return the artifacts written
+     */
+    public static List<Path> precompileAll(Path templates, Path directory) throws IOException {
+        if (!Files.isDirectory(templates)) {
+            return Collections.singletonList(precompile(templates.toFile(), directory));
+        }
+        List<Path> found;
+        try (Stream<Path> paths = Files.walk(templates)) {
+            found = paths.filter(path -> {
+                String name = path.getFileName().toString();
+                // ~$ files are Word's lock files for open documents
+                return Files.isRegularFile(path) && name.toLowerCase().endsWith(".docx") && !name.startsWith("~$");
+            }).sorted().collect(Collectors.toList());
+        }
+        List<Path> written = new ArrayList<>(found.size());
+        for (Path template : found) {
+            written.add(precompile(template.toFile(), directory));
+        }
+        return written;
+    }
+
+    /**
+     * Write the artifact to a temporary file and move it into place
+     */
+    static void save(CompiledTemplate template, Path artifact) throws IOException {
+        Path parent = artifact.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, artifact.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary), 64 * 1024))) {
+                write(template, out);
+            }
+            Files.move(temporary, artifact, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void write(CompiledTemplate template, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        BinaryCodec.writeString(out, template.getHash());
+
+        BinaryCodec.writeVarInt(out, template.getPlaceholders().size());
+        for (String placeholder : template.getPlaceholders()) {
+            BinaryCodec.writeString(out, placeholder);
+        }
+        BinaryCodec.writeVarInt(out, template.getLocations().size());
+        for (CompiledTemplate.PlaceholderLocation location : template.getLocations()) {
+            // Row, cell and run indexes may be -1
+            BinaryCodec.writeVarInt(out, location.getPartType().ordinal());
+            BinaryCodec.writeVarInt(out, location.getPartIndex());
+            BinaryCodec.writeVarInt(out, location.getRowIndex() + 1);
+            BinaryCodec.writeVarInt(out, location.getCellIndex() + 1);
+            BinaryCodec.writeVarInt(out, location.getParagraphIndex());
+            BinaryCodec.writeVarInt(out, location.getFirstRun() + 1);
+            BinaryCodec.writeVarInt(out, location.getLastRun() + 1);
+            BinaryCodec.writeString(out, location.getPlaceholder());
+        }
+        BinaryCodec.writeVarInt(out, template.getRepeatingRows().size());
+        for (CompiledTemplate.RepeatingRow row : template.getRepeatingRows()) {
+            BinaryCodec.writeVarInt(out, row.getTableIndex());
+            BinaryCodec.writeVarInt(out, row.getRowIndex());
+            BinaryCodec.writeString(out, row.getSection());
+            BinaryCodec.writeString(out, row.marker);
+            BinaryCodec.writeVarInt(out, row.getPlaceholders().size());
+            for (String placeholder : row.getPlaceholders()) {
+                BinaryCodec.writeString(out, placeholder);
+            }
+        }
+
+        Map<Set<String>, SegmentedTemplate> segmented = template.getSegmentedTemplates();
+        BinaryCodec.writeVarInt(out, segmented.size());
+        for (Map.Entry<Set<String>, SegmentedTemplate> entry : segmented.entrySet()) {
+            BinaryCodec.writeVarInt(out, entry.getKey().size());
+            for (String placeholder : entry.getKey()) {
+                BinaryCodec.writeString(out, placeholder);
+            }
+            entry.getValue().save(out);
+        }
+    }
+
+    /**
+     * Load the artifact for a template if there is one for its current content
+     *
+     * @param bytes the template as just read from disk
+     * @param hash  their SHA-256 hash
+     * @return the compiled template, or null if there is no usable artifact
+     */
+    static CompiledTemplate load(File template, byte[] bytes, String hash) {
+        if (!Boolean.parseBoolean(System.getProperty("documerge.templates.precompiled", "true"))) {
+            return null;
+        }
+        for (Path artifact : Arrays.asList(artifactPath(template, null),
+                artifactPath(template, defaultArtifactDirectory()))) {
+            if (!Files.isRegularFile(artifact)) {
+                continue;
+            }
+            try {
+                CompiledTemplate loaded = load(template, artifact, bytes, hash);
+                if (loaded != null) {
+                    System.out.println("Loaded precompiled template " + template + " from " + artifact);
+                    return loaded;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Warning: ignoring precompiled template " + artifact + ": " + e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load an artifact against the template's current content on disk
+     *
+     * @return the compiled template, or null if the artifact is for other content
+     */
+    static CompiledTemplate load(File template, Path artifact) throws IOException {
+        byte[] bytes = Files.readAllBytes(template.toPath());
+        return load(template, artifact, bytes, CompiledTemplate.sha256(bytes));
+    }
+
+    /**
+     * @return the compiled template, or null if the artifact is for other content
+     */
+    static CompiledTemplate load(File template, Path artifact, byte[] bytes, String hash) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(artifact));
+        if (in.remaining() < 8 || in.getInt() != MAGIC) {
+            throw new IOException("Not a precompiled template");
+        }
+        if (in.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+
+        try {
+            if (!BinaryCodec.readString(in).equals(hash)) {
+                return null;
+            }
+            int placeholderCount = BinaryCodec.readVarInt(in);
+            Set<String> placeholders = new HashSet<>(placeholderCount * 2);
+            for (int i = 0; i < placeholderCount; i++) {
+                placeholders.add(BinaryCodec.readString(in));
+            }
+            CompiledTemplate.PartType[] partTypes = CompiledTemplate.PartType.values();
+            int locationCount = BinaryCodec.readVarInt(in);
+            List<CompiledTemplate.PlaceholderLocation> locations = new ArrayList<>(locationCount);
+            for (int i = 0; i < locationCount; i++) {
+                locations.add(new CompiledTemplate.PlaceholderLocation(partTypes[BinaryCodec.readVarInt(in)],
+                        BinaryCodec.readVarInt(in), BinaryCodec.readVarInt(in) - 1,
+                        BinaryCodec.readVarInt(in) - 1, BinaryCodec.readVarInt(in),
+                        BinaryCodec.readVarInt(in) - 1, BinaryCodec.readVarInt(in) - 1,
+                        BinaryCodec.readString(in)));
+            }
+            int rowCount = BinaryCodec.readVarInt(in);
+            List<CompiledTemplate.RepeatingRow> repeatingRows = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                int tableIndex = BinaryCodec.readVarInt(in);
+                int rowIndex = BinaryCodec.readVarInt(in);
+                String section = BinaryCodec.readString(in);
+                String marker = BinaryCodec.readString(in);
+                int count = BinaryCodec.readVarInt(in);
+                Set<String> rowPlaceholders = new LinkedHashSet<>();
+                for (int j = 0; j < count; j++) {
+                    rowPlaceholders.add(BinaryCodec.readString(in));
+                }
+                repeatingRows.add(new CompiledTemplate.RepeatingRow(tableIndex, rowIndex, section,
+                        rowPlaceholders, marker));
+            }
+
+            CompiledTemplate compiled = CompiledTemplate.restore(template.getAbsolutePath(), bytes,
+                    template.lastModified(), hash, placeholders, locations, repeatingRows);
+            int segmentedCount = BinaryCodec.readVarInt(in);
+            for (int i = 0; i < segmentedCount; i++) {
+                int count = BinaryCodec.readVarInt(in);
+                Set<String> active = new HashSet<>(count * 2);
+                for (int j = 0; j < count; j++) {
+                    active.add(BinaryCodec.readString(in));
+                }
+                compiled.addSegmented(active, SegmentedTemplate.load(compiled, in));
+            }
+            return compiled;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated precompiled template", e);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.documentgenerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Turns per-row callbacks from the workers into at most one progress
+ * update per frame. Workers only bump counters and queue messages; a timer
+ * builds a {@link Progress} snapshot every frame and hands it to the
+ * consumer on the given executor - {@code Platform::runLater} for a UI,
+ * {@code Runnable::run} for a console. A frame is skipped while the
+ * previous update is still waiting to be delivered, so a busy consumer
+ * never builds up a backlog.
+ *
+ * Usage: {@link #start()}, pass the dispatcher to the engine as its
+ * listener, then {@link #finish()}, which delivers the final update.
+ */
+public class ProgressDispatcher implements GenerationEngine.GenerationListener {
+
+    // Messages waiting for the next frame; more are counted but dropped
+    static final int MAX_PENDING_MESSAGES = 1000;
+
+    // Weight of the latest frame in the smoothed rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    public enum Phase { STARTED, RUNNING, FINISHED }
+
+    /**
+     * State of a run at one frame, plus the messages logged since the previous one
+     */
+    public static class Progress {
+        private final Phase phase;
+        private final int completed;
+        private final int failed;
+        private final int skipped;
+        private final int total;
+        private final double documentsPerSecond;
+        private final long etaMillis;
+        private final long elapsedMillis;
+        private final String metricsSummary;
+        private final List<String> messages;
+
+        Progress(Phase phase, int completed, int failed, int skipped, int total, double documentsPerSecond,
+                 long etaMillis, long elapsedMillis, String metricsSummary, List<String> messages) {
+            this.phase = phase;
+            this.completed = completed;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.total = total;
+            this.documentsPerSecond = documentsPerSecond;
+            this.etaMillis = etaMillis;
+            this.elapsedMillis = elapsedMillis;
+            this.metricsSummary = metricsSummary;
+            this.messages = Collections.unmodifiableList(messages);
+        }
+
+        public Phase getPhase() { return phase; }
+        /** Rows done in any way: generated, failed or skipped */
+        public int getCompleted() { return completed; }
+        public int getFailed() { return failed; }
+        public int getSkipped() { return skipped; }
+        /** Number of rows, or -1 while the source is still being read */
+        public int getTotal() { return total; }
+        /** Recent rate, smoothed over the last few frames */
+        public double getDocumentsPerSecond() { return documentsPerSecond; }
+        /** Estimated time left, or -1 while the total or the rate is unknown */
+        public long getEtaMillis() { return etaMillis; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        /** Stage timings, or null without metrics */
+        public String getMetricsSummary() { return metricsSummary; }
+        /** Failures and other messages since the previous update */
+        public List<String> getMessages() { return messages; }
+
+        /**
+         * Done fraction for a progress bar, or -1 while the total is unknown
+         */
+        public double getFraction() {
+            return total > 0 ? Math.min(1.0, (double) completed / total) : total == 0 ? 1.0 : -1;
+        }
+
+        /**
+         * e.g. "1200/50000 rows (2.4%), 3 failed, 412.5 docs/s, ETA 1:58"
+         */
+        public String statusLine() {
+            StringBuilder line = new StringBuilder(96);
+            line.append(completed);
+            if (total >= 0) {
+                line.append('/').append(total).append(" rows")
+                        .append(String.format(Locale.ROOT, " (%.1f%%)", getFraction() * 100));
+            } else {
+                line.append(" rows");
+            }
+            if (failed > 0) {
+                line.append(", ").append(failed).append(" failed");
+            }
+            if (skipped > 0) {
+                line.append(", ").append(skipped).append(" unchanged");
+            }
+            line.append(String.format(Locale.ROOT, ", %.1f docs/s", documentsPerSecond));
+            if (phase == Phase.FINISHED) {
+                line.append(", took ").append(formatDuration(elapsedMillis));
+            } else if (etaMillis >= 0) {
+                line.append(", ETA ").append(formatDuration(etaMillis));
+            }
+            return line.toString();
+        }
+    }
+
+    private final Consumer<Progress> consumer;
+    private final Executor deliverOn;
+    private final long frameMillis;
+    private final GenerationMetrics metrics;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger(-1);
+    private final AtomicInteger droppedMessages = new AtomicInteger();
+    private final BlockingQueue<String> messages = new ArrayBlockingQueue<>(MAX_PENDING_MESSAGES);
+    private final AtomicBoolean delivering = new AtomicBoolean();
+
+    private ScheduledExecutorService timer;
+    private long startNanos;
+
+    // Frame state, only touched by the timer and then by finish()
+    private long lastFrameNanos;
+    private int lastCompleted;
+    private double rate;
+
+    /**
+     * @param deliverOn where the consumer runs, e.g. Platform::runLater
+     * @param metrics   stage timings to include, may be null
+     */
+    public ProgressDispatcher(Consumer<Progress> consumer, Executor deliverOn, long frameMillis,
+                              GenerationMetrics metrics) {
+        if (frameMillis < 1) {
+            throw new IllegalArgumentException("Frame interval must be at least 1 ms: " + frameMillis);
+        }
+        this.consumer = consumer;
+        this.deliverOn = deliverOn;
+        this.frameMillis = frameMillis;
+        this.metrics = metrics != null && metrics.isEnabled() ? metrics : null;
+    }
+
+    /**
+     * Deliver the STARTED update and begin sending one update per frame
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        lastFrameNanos = startNanos;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "documerge-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        deliver(snapshot(Phase.STARTED, startNanos));
+        timer.scheduleAtFixedRate(this::frame, frameMillis, frameMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add a line to the next update's messages
+     */
+    @Override
+    public void log(String message) {
+        if (!messages.offer(message)) {
+            droppedMessages.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void rowCompleted(int rowIndex, int completedRows, int totalRows, String outputPath) {
+        completed.incrementAndGet();
+        total.set(totalRows);
+    }
+
+    @Override
+    public void rowFailed(int rowIndex, int completedRows, int totalRows, Exception error) {
+        completed.incrementAndGet();
+        failed.incrementAndGet();
+        total.set(totalRows);
+        log("Failed row " + (rowIndex + 1) + ": " + error.getMessage());
+    }
+
+    @Override
+    public void rowSkipped(int rowIndex, int completedRows, int totalRows) {
+        completed.incrementAndGet();
+        skipped.incrementAndGet();
+        total.set(totalRows);
+    }
+
+    /**
+     * Stop the frames and deliver the FINISHED update with every remaining message
+     *
+     * @param totalRows rows in the run if now known, otherwise -1
+     */
+    public void finish(int totalRows) {
+        synchronized (this) {
+            if (timer == null) {
+                return;
+            }
+            timer.shutdownNow();
+            try {
+                timer.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            timer = null;
+        }
+        if (totalRows >= 0) {
+            total.set(totalRows);
+        }
+        // Delivered even if a frame is still queued; executors run them in order
+        Progress last = snapshot(Phase.FINISHED, System.nanoTime());
+        deliverOn.execute(() -> consumer.accept(last));
+    }
+
+    private void frame() {
+        try {
+            // Skip the frame while the consumer is behind; counters and messages carry over
+            if (delivering.get()) {
+                return;
+            }
+            deliver(snapshot(Phase.RUNNING, System.nanoTime()));
+        } catch (RuntimeException e) {
+            System.err.println("Progress update failed: " + e);
+        }
+    }
+
+    private void deliver(Progress progress) {
+        delivering.set(true);
+        deliverOn.execute(() -> {
+            try {
+                consumer.accept(progress);
+            } finally {
+                delivering.set(false);
+            }
+        });
+    }
+
+    private Progress snapshot(Phase phase, long now) {
+        int done = completed.get();
+        int rows = total.get();
+        double seconds = (now - lastFrameNanos) / 1e9;
+        if (seconds > 0 && phase == Phase.RUNNING) {
+            double frameRate = (done - lastCompleted) / seconds;
+            rate = lastCompleted == 0 && rate == 0 ? frameRate
+                    : RATE_SMOOTHING * frameRate + (1 - RATE_SMOOTHING) * rate;
+        }
+        lastFrameNanos = now;
+        lastCompleted = done;
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(now - startNanos);
+        double shownRate = phase == Phase.FINISHED ? (elapsed > 0 ? done * 1000.0 / elapsed : 0) : rate;
+        long eta = rows >= 0 && rate > 0 ? (long) ((rows - done) / rate * 1000) : -1;
+
+        List<String> lines = new ArrayList<>(Math.min(messages.size() + 1, MAX_PENDING_MESSAGES + 1));
+        messages.drainTo(lines);
+        int dropped = droppedMessages.getAndSet(0);
+        if (dropped > 0) {
+            lines.add("... " + dropped + " more message(s) not shown");
+        }
+        return new Progress(phase, done, failed.get(), skipped.get(), rows, shownRate, Math.max(-1, eta),
+                elapsed, metrics != null ? metrics.summaryLine() : null, lines);
+    }
+
+    /**
+     * h:mm:ss, or m:ss under an hour
+     */
+    static String formatDuration(long millis) {
+        long seconds = Math.max(0, millis) / 1000;
+        long hours = seconds / 3600;
+        if (hours > 0) {
+            return String.format(Locale.ROOT, "%d:%02d:%02d", hours, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format(Locale.ROOT, "%d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,275 @@
+package com.documentgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal ZIP writer that can copy already-compressed entries from a
+ * {@link TemplateArchive} byte-for-byte and deflate only replaced entries.
+ * Sizes and CRCs are always known up front, so no data descriptors are written.
+ */
+public class RawZipWriter implements Closeable {
+
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int VERSION_DEFLATE = 20;
+
+    private static class CentralRecord {
+        final byte[] nameBytes;
+        final int versionMadeBy;
+        final int versionNeeded;
+        final int flags;
+        final int method;
+        final int time;
+        final int date;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long externalAttributes;
+        final long localHeaderOffset;
+
+        CentralRecord(byte[] nameBytes, int versionMadeBy, int versionNeeded, int flags, int method,
+                      int time, int date, long crc, long compressedSize, long size,
+                      long externalAttributes, long localHeaderOffset) {
+            this.nameBytes = nameBytes;
+            this.versionMadeBy = versionMadeBy;
+            this.versionNeeded = versionNeeded;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.externalAttributes = externalAttributes;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private final OutputStream out;
+    private final Deflater deflater;
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(64 * 1024);
+    private final byte[] buffer = new byte[8192];
+    private final byte[] header = new byte[46];
+    private final List<CentralRecord> records = new ArrayList<>();
+    private long offset;
+    private boolean finished;
+    private boolean deflaterEnded;
+
+    public RawZipWriter(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public RawZipWriter(OutputStream out, int compressionLevel) {
+        this.out = out;
+        this.deflater = new Deflater(compressionLevel, true);
+    }
+
+    /**
+     * Copy an entry's compressed bytes from the template unchanged
+     */
+    public void copyEntry(TemplateArchive archive, TemplateArchive.Entry entry) throws IOException {
+        CentralRecord record = new CentralRecord(entry.getNameBytes(), entry.getVersionMadeBy(),
+                entry.getVersionNeeded(), entry.getFlags() & ~FLAG_DATA_DESCRIPTOR, entry.getMethod(),
+                entry.getTime(), entry.getDate(), entry.getCrc(), entry.getCompressedSize(),
+                entry.getSize(), entry.getExternalAttributes(), offset);
+        writeLocalHeader(record);
+        write(archive.getBytes(), entry.getDataOffset(), (int) entry.getCompressedSize());
+        records.add(record);
+    }
+
+    /**
+     * Deflate new content in place of a template entry, keeping its name and timestamp
+     */
+    public void replaceEntry(TemplateArchive.Entry entry, byte[] content) throws IOException {
+        replaceEntry(entry, content, content.length);
+    }
+
+    /**
+     * Deflate the first length bytes of content in place of a template entry
+     */
+    public void replaceEntry(TemplateArchive.Entry entry, byte[] content, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, length);
+
+        compressed.reset();
+        deflater.reset();
+        deflater.setInput(content, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            compressed.write(buffer, 0, count);
+        }
+
+        CentralRecord record = new CentralRecord(entry.getNameBytes(), entry.getVersionMadeBy(),
+                Math.max(entry.getVersionNeeded(), VERSION_DEFLATE), entry.getFlags() & ~FLAG_DATA_DESCRIPTOR,
+                METHOD_DEFLATED, entry.getTime(), entry.getDate(), crc.getValue(), compressed.size(),
+                length, entry.getExternalAttributes(), offset);
+        writeLocalHeader(record);
+        compressed.writeTo(out);
+        offset += compressed.size();
+        records.add(record);
+    }
+
+    /**
+     * Deflate content in place of a template entry as it is written, for
+     * parts too large to build in memory first. Only the compressed bytes
+     * are held until the stream is closed, because the local header needs
+     * the CRC and sizes; closing the stream writes the entry.
+     */
+    public OutputStream openEntry(TemplateArchive.Entry entry) {
+        compressed.reset();
+        deflater.reset();
+        CRC32 crc = new CRC32();
+        return new OutputStream() {
+            private long length;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] content, int start, int count) throws IOException {
+                if (closed) {
+                    throw new IOException("Entry already written");
+                }
+                crc.update(content, start, count);
+                length += count;
+                deflater.setInput(content, start, count);
+                while (!deflater.needsInput()) {
+                    int deflated = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, deflated);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int deflated = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, deflated);
+                }
+                CentralRecord record = new CentralRecord(entry.getNameBytes(), entry.getVersionMadeBy(),
+                        Math.max(entry.getVersionNeeded(), VERSION_DEFLATE), entry.getFlags() & ~FLAG_DATA_DESCRIPTOR,
+                        METHOD_DEFLATED, entry.getTime(), entry.getDate(), crc.getValue(), compressed.size(),
+                        length, entry.getExternalAttributes(), offset);
+                writeLocalHeader(record);
+                compressed.writeTo(out);
+                offset += compressed.size();
+                records.add(record);
+            }
+        };
+    }
+
+    private void writeLocalHeader(CentralRecord record) throws IOException {
+        putInt(header, 0, 0x04034b50);
+        putShort(header, 4, record.versionNeeded);
+        putShort(header, 6, record.flags);
+        putShort(header, 8, record.method);
+        putShort(header, 10, record.time);
+        putShort(header, 12, record.date);
+        putInt(header, 14, record.crc);
+        putInt(header, 18, record.compressedSize);
+        putInt(header, 22, record.size);
+        putShort(header, 26, record.nameBytes.length);
+        putShort(header, 28, 0);
+        write(header, 0, 30);
+        write(record.nameBytes, 0, record.nameBytes.length);
+    }
+
+    /**
+     * Write the central directory and release the compressor. The underlying
+     * stream stays open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        long directoryOffset = offset;
+        for (CentralRecord record : records) {
+            putInt(header, 0, 0x02014b50);
+            putShort(header, 4, record.versionMadeBy);
+            putShort(header, 6, record.versionNeeded);
+            putShort(header, 8, record.flags);
+            putShort(header, 10, record.method);
+            putShort(header, 12, record.time);
+            putShort(header, 14, record.date);
+            putInt(header, 16, record.crc);
+            putInt(header, 20, record.compressedSize);
+            putInt(header, 24, record.size);
+            putShort(header, 28, record.nameBytes.length);
+            putShort(header, 30, 0);
+            putShort(header, 32, 0);
+            putShort(header, 34, 0);
+            putShort(header, 36, 0);
+            putInt(header, 38, record.externalAttributes);
+            putInt(header, 42, record.localHeaderOffset);
+            write(header, 0, 46);
+            write(record.nameBytes, 0, record.nameBytes.length);
+        }
+        long directorySize = offset - directoryOffset;
+
+        putInt(header, 0, 0x06054b50);
+        putShort(header, 4, 0);
+        putShort(header, 6, 0);
+        putShort(header, 8, records.size());
+        putShort(header, 10, records.size());
+        putInt(header, 12, directorySize);
+        putInt(header, 16, directoryOffset);
+        putShort(header, 20, 0);
+        write(header, 0, 22);
+        out.flush();
+        endDeflater();
+        finished = true;
+    }
+
+    /**
+     * Finish the archive and close the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            endDeflater();
+            out.close();
+        }
+    }
+
+    /**
+     * Release the deflater's native memory; finish and close may both get here
+     */
+    private void endDeflater() {
+        if (!deflaterEnded) {
+            deflaterEnded = true;
+            deflater.end();
+        }
+    }
+
+    private void write(byte[] bytes, int start, int length) throws IOException {
+        out.write(bytes, start, length);
+        offset += length;
+    }
+
+    private static void putShort(byte[] b, int position, int value) {
+        b[position] = (byte) value;
+        b[position + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] b, int position, long value) {
+        putShort(b, position, (int) (value & 0xFFFF));
+        putShort(b, position + 2, (int) ((value >>> 16) & 0xFFFF));
+    }
+}
@@ -0,0 +1,158 @@
+package com.documentgenerator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Documents already rendered, keyed by everything that goes into them: the
+ * template content, the render engine, the value of every placeholder that
+ * is filled in and the detail records of the repeating rows. Columns the
+ * template never uses are not part of the key, so rows that differ only
+ * there - or notices with the same text for everyone - are rendered once
+ * and the bytes reused for the others.
+ *
+ * Entries are dropped least recently used first once their bytes exceed
+ * the limit, 256 MB by default (documerge.renderCache.maxMB). Safe to use
+ * from every worker; two workers rendering the same content at the same
+ * time both render it.
+ */
+public class RenderCache {
+
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * A rendered document and the name it was first stored under
+     */
+    public static final class Entry {
+        final Object run;
+        final String name;
+        final byte[] content;
+
+        Entry(Object run, String name, byte[] content) {
+            this.run = run;
+            this.name = name;
+            this.content = content;
+        }
+
+        public String getName() { return name; }
+        public byte[] getContent() { return content; }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    public RenderCache() {
+        this(defaultMaxBytes());
+    }
+
+    /**
+     * @param maxBytes most document bytes kept
+     */
+    public RenderCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    static long defaultMaxBytes() {
+        Long megabytes = Long.getLong("documerge.renderCache.maxMB");
+        return megabytes != null ? megabytes * 1024 * 1024 : DEFAULT_MAX_BYTES;
+    }
+
+    /**
+     * Key of the document a row renders to. A placeholder is filled in when
+     * the row has a column for it or the user selected it, the same rule
+     * {@link WordGenerator} applies; the others are left in the output as
+     * they are, whatever the row holds. Repeating rows add their records
+     * and the document row's values for the columns they use.
+     */
+    public static String key(CompiledTemplate template, Map<String, String> rowData, DetailSource details,
+                             List<String> userSpecifiedPlaceholders, RenderEngine engine) throws IOException {
+        MessageDigest digest = GenerationManifest.newDigest();
+        digest.update(template.getHash().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(engine.name().getBytes(StandardCharsets.UTF_8));
+        for (String placeholder : new TreeSet<>(template.getPlaceholders())) {
+            digest.update((byte) 0);
+            digest.update(placeholder.getBytes(StandardCharsets.UTF_8));
+            if (rowData.containsKey(placeholder)) {
+                String value = rowData.get(placeholder);
+                // A null value is written out as "null"
+                digest.update((byte) 1);
+                digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            } else if (userSpecifiedPlaceholders != null && userSpecifiedPlaceholders.contains(placeholder)) {
+                // Selected but without data: replaced by nothing
+                digest.update((byte) 2);
+            } else {
+                digest.update((byte) 3);
+            }
+        }
+        if (details != null && template.hasRepeatingRows()) {
+            for (CompiledTemplate.RepeatingRow row : template.getRepeatingRows()) {
+                digest.update((byte) 4);
+                // Values a record lacks are taken from the document row
+                for (String placeholder : row.getPlaceholders()) {
+                    digest.update((byte) 0);
+                    digest.update(placeholder.getBytes(StandardCharsets.UTF_8));
+                    String value = String.valueOf(rowData.getOrDefault(placeholder, ""));
+                    digest.update((byte) 1);
+                    digest.update(value.getBytes(StandardCharsets.UTF_8));
+                }
+                for (Map<String, String> record : details.rows(row.getSection(), rowData)) {
+                    GenerationManifest.update(digest, record);
+                    digest.update((byte) 5);
+                }
+            }
+        }
+        return GenerationManifest.hex(digest);
+    }
+
+    /**
+     * @return the document rendered for this key, or null
+     */
+    public synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Keep a rendered document, unless it is larger than the whole cache
+     *
+     * @param run  the run that stored it; a later run may have replaced the
+     *             file, so only the same run links copies to it
+     * @param name what the document was stored as, for linking copies to it
+     */
+    public synchronized void put(String key, Object run, String name, byte[] content) {
+        if (content.length > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(run, name, content));
+        if (previous != null) {
+            bytes -= previous.content.length;
+        }
+        bytes += content.length;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().content.length;
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Bytes of the documents held
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,33 @@
+package com.documentgenerator;
+
+/**
+ * How WordGenerator turns a filled-in template into a .docx
+ */
+public enum RenderEngine {
+
+    /** Full POI document.write: every part is re-serialized and re-compressed */
+    POI,
+
+    /** Only parts containing placeholders are re-serialized; all other ZIP entries are copied raw */
+    ZIP_PATCH,
+
+    /** Template pre-split into XML byte segments; rows are written without building XWPF objects */
+    SEGMENT;
+
+    /**
+     * Engine from the documerge.engine system property, POI if unset or not
+     * an engine name
+     */
+    public static RenderEngine defaultEngine() {
+        String configured = System.getProperty("documerge.engine");
+        if (configured == null || configured.trim().isEmpty()) {
+            return POI;
+        }
+        try {
+            return valueOf(configured.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: ignoring unknown documerge.engine " + configured + ", using " + POI);
+            return POI;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.documentgenerator;
+
+import java.util.Map;
+
+/**
+ * Callback that receives data rows one at a time from a streaming reader
+ */
+@FunctionalInterface
+public interface RowHandler {
+
+    /**
+     * @param rowIndex zero-based index of the data row (the header row is not counted)
+     * @param rowData  column header to cell value
+     */
+    void handleRow(int rowIndex, Map<String, String> rowData) throws Exception;
+}
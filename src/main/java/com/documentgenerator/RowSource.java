@@ -0,0 +1,88 @@
+package com.documentgenerator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where the rows of a batch come from. Rows are handed over one at a time
+ * as they are read, so generation can start before the whole source has
+ * been read.
+ */
+@FunctionalInterface
+public interface RowSource {
+
+    /**
+     * Hand every row to the handler in order. The handler may block while
+     * the rest of the pipeline catches up.
+     */
+    void read(RowHandler handler) throws Exception;
+
+    /**
+     * Number of rows if known before reading, otherwise -1
+     */
+    default int size() {
+        return -1;
+    }
+
+    /**
+     * Rows already in memory
+     */
+    static RowSource of(List<Map<String, String>> rows) {
+        return new RowSource() {
+            @Override
+            public void read(RowHandler handler) throws Exception {
+                for (int i = 0; i < rows.size(); i++) {
+                    handler.handleRow(i, rows.get(i));
+                }
+            }
+
+            @Override
+            public int size() {
+                return rows.size();
+            }
+        };
+    }
+
+    /**
+     * The first sheet of an .xlsx workbook, parsed as it streams in
+     */
+    static RowSource excel(String filePath) {
+        return handler -> ExcelReader.streamExcelData(filePath, handler);
+    }
+
+    /**
+     * A named sheet of an .xlsx workbook
+     */
+    static RowSource excel(String filePath, String sheetName) {
+        return handler -> ExcelReader.streamExcelData(filePath, sheetName, handler);
+    }
+
+    /**
+     * Only the given columns of a sheet of an .xlsx workbook, see
+     * {@link GenerationEngine#requiredColumns}
+     *
+     * @param sheetName null for the first sheet
+     * @param columns   null for all columns
+     */
+    static RowSource excel(String filePath, String sheetName, Set<String> columns) {
+        return handler -> ExcelReader.streamExcelData(filePath, sheetName, columns, handler);
+    }
+
+    /**
+     * A Google Sheets tab, fetched in pages
+     */
+    static RowSource googleSheets(String spreadsheetUrl, String sheetName) {
+        return handler -> GoogleSheetsReader.streamGoogleSheetsData(spreadsheetUrl, sheetName, handler);
+    }
+
+    /**
+     * Only the given columns of a Google Sheets tab, each page fetched as
+     * one request for the column ranges holding them
+     *
+     * @param columns null for all columns
+     */
+    static RowSource googleSheets(String spreadsheetUrl, String sheetName, Set<String> columns) {
+        return handler -> GoogleSheetsReader.streamGoogleSheetsData(spreadsheetUrl, sheetName, columns, handler);
+    }
+}
@@ -0,0 +1,302 @@
+package com.documentgenerator;
+
+import java.util.*;
+
+/**
+ * Column-oriented store for the rows of a sheet. Header names are held once
+ * and every column keeps its values in an array of its own; columns with few
+ * distinct values (department, city, ...) are dictionary encoded, so a row
+ * costs one or two bytes per such cell instead of a map entry.
+ *
+ * As a {@code List<Map<String, String>>} it stands in wherever rows were
+ * collected into maps. {@link #get(int)} returns a read-only view of the
+ * row; lookups go through the shared header index, and no map is built.
+ */
+public class RowTable extends AbstractList<Map<String, String>> implements RandomAccess {
+
+    // A column stops dictionary encoding once it has this many distinct values (codes are chars)
+    static final int MAX_DICTIONARY_SIZE = 65536;
+
+    private final List<String> headers;
+    private final Map<String, Integer> columnIndex;
+    private final Column[] columns;
+    private final int rowCount;
+
+    private RowTable(List<String> headers, Map<String, Integer> columnIndex, Column[] columns, int rowCount) {
+        this.headers = headers;
+        this.columnIndex = columnIndex;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Collect rows already held as maps
+     */
+    public static RowTable of(List<Map<String, String>> rows) {
+        if (rows instanceof RowTable) {
+            return (RowTable) rows;
+        }
+        Builder builder = new Builder();
+        for (Map<String, String> row : rows) {
+            builder.addRow(row);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Map<String, String> get(int index) {
+        Objects.checkIndex(index, rowCount);
+        return new RowView(index);
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Cell value, or null if the row has no value for the column
+     */
+    public String getValue(int row, String header) {
+        Integer column = columnIndex.get(header);
+        return column != null ? columns[column].get(row) : null;
+    }
+
+    boolean isDictionaryEncoded(String header) {
+        return !(columns[columnIndex.get(header)] instanceof PlainColumn);
+    }
+
+    /**
+     * A row of the table seen as a read-only map
+     */
+    private final class RowView extends AbstractMap<String, String> {
+        private final int row;
+
+        RowView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public String get(Object key) {
+            Integer column = columnIndex.get(key);
+            return column != null ? columns[column].get(row) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < columns.length && columns[from].get(row) == null) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < columns.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(headers.get(next),
+                                    columns[next].get(row));
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Column column : columns) {
+                        if (column.get(row) != null) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * Adds rows one at a time, e.g. from a streaming reader. Columns are
+     * created as new header names appear; rows added earlier have no value
+     * for them.
+     */
+    public static class Builder {
+        private final List<String> headers = new ArrayList<>();
+        private final Map<String, Integer> columnIndex = new HashMap<>();
+        private final List<ColumnBuilder> columns = new ArrayList<>();
+        private int rowCount;
+
+        public Builder addRow(Map<String, String> row) {
+            for (Map.Entry<String, String> cell : row.entrySet()) {
+                Integer column = columnIndex.get(cell.getKey());
+                if (column == null) {
+                    column = headers.size();
+                    headers.add(cell.getKey());
+                    columnIndex.put(cell.getKey(), column);
+                    columns.add(new ColumnBuilder(rowCount));
+                }
+                columns.get(column).set(rowCount, cell.getValue());
+            }
+            rowCount++;
+            return this;
+        }
+
+        public RowTable build() {
+            Column[] built = new Column[columns.size()];
+            for (int i = 0; i < built.length; i++) {
+                built[i] = columns.get(i).build(rowCount);
+            }
+            return new RowTable(Collections.unmodifiableList(new ArrayList<>(headers)),
+                    new HashMap<>(columnIndex), built, rowCount);
+        }
+    }
+
+    /**
+     * One column while rows are being added: dictionary codes until the
+     * column has too many distinct values for a char code, then plain strings
+     */
+    private static final class ColumnBuilder {
+        // Code 0 is "no value", so a column added late needs no back-filling
+        private Map<String, Integer> codesByValue = new HashMap<>();
+        private List<String> dictionary = new ArrayList<>(Collections.singletonList(null));
+        private char[] codes;
+        private String[] values;
+
+        ColumnBuilder(int firstRow) {
+            codes = new char[Math.max(16, firstRow + 1)];
+        }
+
+        void set(int row, String value) {
+            if (values == null) {
+                codes = ensureCapacity(codes, row);
+                if (value == null) {
+                    codes[row] = 0;
+                    return;
+                }
+                Integer code = codesByValue.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    if (code < MAX_DICTIONARY_SIZE) {
+                        dictionary.add(value);
+                        codesByValue.put(value, code);
+                    } else {
+                        switchToPlain();
+                    }
+                }
+                if (codes != null) {
+                    codes[row] = (char) code.intValue();
+                    return;
+                }
+            }
+            values = ensureCapacity(values, row);
+            values[row] = value;
+        }
+
+        private void switchToPlain() {
+            values = new String[codes.length];
+            for (int i = 0; i < codes.length; i++) {
+                values[i] = dictionary.get(codes[i]);
+            }
+            codes = null;
+            codesByValue = null;
+            dictionary = null;
+        }
+
+        Column build(int rowCount) {
+            // Mostly distinct values: the dictionary would only add the codes
+            if (values == null && dictionary.size() > 256 && dictionary.size() > rowCount / 2) {
+                switchToPlain();
+            }
+            if (values != null) {
+                return new PlainColumn(Arrays.copyOf(values, rowCount));
+            }
+            String[] entries = dictionary.toArray(new String[0]);
+            if (entries.length <= 256) {
+                byte[] packed = new byte[rowCount];
+                for (int i = 0; i < rowCount && i < codes.length; i++) {
+                    packed[i] = (byte) codes[i];
+                }
+                return new ByteDictionaryColumn(entries, packed);
+            }
+            return new CharDictionaryColumn(entries, Arrays.copyOf(codes, rowCount));
+        }
+
+        private static char[] ensureCapacity(char[] array, int index) {
+            return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+        }
+
+        private static String[] ensureCapacity(String[] array, int index) {
+            return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+        }
+    }
+
+    private interface Column {
+        String get(int row);
+    }
+
+    private static final class PlainColumn implements Column {
+        private final String[] values;
+
+        PlainColumn(String[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public String get(int row) {
+            return values[row];
+        }
+    }
+
+    private static final class ByteDictionaryColumn implements Column {
+        private final String[] dictionary;
+        private final byte[] codes;
+
+        ByteDictionaryColumn(String[] dictionary, byte[] codes) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        @Override
+        public String get(int row) {
+            return dictionary[codes[row] & 0xff];
+        }
+    }
+
+    private static final class CharDictionaryColumn implements Column {
+        private final String[] dictionary;
+        private final char[] codes;
+
+        CharDictionaryColumn(String[] dictionary, char[] codes) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        @Override
+        public String get(int row) {
+            return dictionary[codes[row]];
+        }
+    }
+}
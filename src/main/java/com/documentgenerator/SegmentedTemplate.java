@@ -0,0 +1,552 @@
+package com.documentgenerator;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.impl.xb.xmlschema.SpaceAttribute;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTText;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+ * A template pre-split into immutable XML byte segments and placeholder
+ * slots. Rendering a row writes the segments and the XML-escaped values
+ * straight into the output package; no XWPF objects are built per row.
+ *
+ * The split is made once per active placeholder set by running the normal
+ * POI replacement with marker tokens as values, so paragraphs are rewritten
+ * exactly as the POI engine would rewrite them.
+ *
+ * Repeating rows (see {@link CompiledTemplate.RepeatingRow}) are cut out of
+ * the document part as segments of their own and written once per detail
+ * record. A part with repeating rows is deflated into the output as it is
+ * written, so a table of thousands of rows never exists as XML in memory.
+ */
+public class SegmentedTemplate {
+
+    // Private-use code points mark slot boundaries in the serialized XML
+    private static final char SLOT_START = '\uE000';
+    private static final char SLOT_END = '\uE001';
+    private static final byte[] SLOT_START_BYTES = String.valueOf(SLOT_START).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SLOT_END_BYTES = String.valueOf(SLOT_END).getBytes(StandardCharsets.UTF_8);
+    // Replace the section marker of a repeating row
+    private static final char ROW_START = '\uE002';
+    private static final char ROW_END = '\uE003';
+    private static final byte[] ROW_START_BYTES = String.valueOf(ROW_START).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ROW_END_BYTES = String.valueOf(ROW_END).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TABLE_ROW_OPEN = "<w:tr".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TABLE_ROW_CLOSE = "</w:tr>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Literal segments of one ZIP entry, interleaved with slot indexes:
+     * literal[0] slot[0] literal[1] ... slot[n-1] literal[n]
+     */
+    private static class PartSegments {
+        final byte[][] literals;
+        final int[] slots;
+        final int literalLength;
+
+        PartSegments(List<byte[]> literals, List<Integer> slots) {
+            this(literals.toArray(new byte[0][]), slots.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        PartSegments(byte[][] literals, int[] slots) {
+            this.literals = literals;
+            this.slots = slots;
+            int length = 0;
+            for (byte[] literal : this.literals) {
+                length += literal.length;
+            }
+            this.literalLength = length;
+        }
+
+        void writeTo(OutputStream out, byte[][] values) throws IOException {
+            for (int i = 0; i < slots.length; i++) {
+                out.write(literals[i]);
+                out.write(values[slots[i]]);
+            }
+            out.write(literals[slots.length]);
+        }
+
+        void save(DataOutputStream out) throws IOException {
+            BinaryCodec.writeVarInt(out, slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                BinaryCodec.writeBytes(out, literals[i]);
+                BinaryCodec.writeVarInt(out, slots[i]);
+            }
+            BinaryCodec.writeBytes(out, literals[slots.length]);
+        }
+
+        static PartSegments load(ByteBuffer in) {
+            int count = BinaryCodec.readVarInt(in);
+            byte[][] literals = new byte[count + 1][];
+            int[] slots = new int[count];
+            for (int i = 0; i < count; i++) {
+                literals[i] = BinaryCodec.readBytes(in);
+                slots[i] = BinaryCodec.readVarInt(in);
+            }
+            literals[count] = BinaryCodec.readBytes(in);
+            return new PartSegments(literals, slots);
+        }
+    }
+
+    /**
+     * A repeating row: its segments and the slots it fills from each record
+     */
+    private static class RepeatedRow {
+        final String section;
+        final int firstSlot;
+        final int slotCount;
+        PartSegments segments;
+
+        RepeatedRow(String section, int firstSlot, int slotCount) {
+            this.section = section;
+            this.firstSlot = firstSlot;
+            this.slotCount = slotCount;
+        }
+    }
+
+    /**
+     * One ZIP entry: fixed[0] rows[0] fixed[1] ... rows[n-1] fixed[n], where
+     * each repeated row is written once per detail record
+     */
+    private static class PartLayout {
+        final PartSegments[] fixed;
+        final RepeatedRow[] rows;
+
+        PartLayout(List<PartSegments> fixed, List<RepeatedRow> rows) {
+            this.fixed = fixed.toArray(new PartSegments[0]);
+            this.rows = rows.toArray(new RepeatedRow[0]);
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream that exposes its buffer to avoid a copy per part
+     */
+    private static class PartBuffer extends ByteArrayOutputStream {
+        PartBuffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private final CompiledTemplate template;
+    private final List<String> slotNames;
+    private final int documentSlots;
+    private final Map<String, PartLayout> parts;
+
+    private SegmentedTemplate(CompiledTemplate template, List<String> slotNames, int documentSlots,
+                              Map<String, PartLayout> parts) {
+        this.template = template;
+        this.slotNames = slotNames;
+        this.documentSlots = documentSlots;
+        this.parts = parts;
+    }
+
+    /**
+     * Split the template's placeholder parts for the given active placeholders
+     */
+    static SegmentedTemplate analyse(CompiledTemplate template, Set<String> activePlaceholders) throws IOException {
+        // Each active placeholder gets a marker value: U+E000, its slot number, U+E001
+        List<String> slotNames = new ArrayList<>(activePlaceholders);
+        Collections.sort(slotNames);
+        int documentSlots = slotNames.size();
+        Map<String, String> markers = new HashMap<>();
+        for (int i = 0; i < slotNames.size(); i++) {
+            markers.put(slotNames.get(i), SLOT_START + Integer.toString(i) + SLOT_END);
+        }
+
+        Map<String, byte[]> serialized;
+        List<RepeatedRow> repeatedRows = new ArrayList<>();
+        try (XWPFDocument document = template.openDocument()) {
+            Matcher matcher = WordGenerator.PLACEHOLDER_PATTERN.matcher("");
+            StringBuilder buffer = new StringBuilder(256);
+            for (XWPFParagraph paragraph : template.resolveParagraphs(document)) {
+                if (WordGenerator.replacePlaceholdersInParagraph(paragraph, markers, activePlaceholders,
+                        matcher, buffer)) {
+                    preserveSpaces(paragraph);
+                }
+            }
+
+            // A repeating row's placeholders get slots after the document's own; its
+            // section marker becomes U+E002, the row number, U+E003
+            List<CompiledTemplate.RepeatingRow> repeating = template.getRepeatingRows();
+            for (int r = 0; r < repeating.size(); r++) {
+                CompiledTemplate.RepeatingRow row = repeating.get(r);
+                Map<String, String> rowMarkers = new HashMap<>();
+                rowMarkers.put(row.marker, ROW_START + Integer.toString(r) + ROW_END);
+                repeatedRows.add(new RepeatedRow(row.getSection(), slotNames.size(), row.getPlaceholders().size()));
+                for (String name : row.getPlaceholders()) {
+                    rowMarkers.put(name, SLOT_START + Integer.toString(slotNames.size()) + SLOT_END);
+                    slotNames.add(name);
+                }
+                XWPFTableRow tableRow = document.getTables().get(row.getTableIndex()).getRows().get(row.getRowIndex());
+                for (XWPFTableCell cell : tableRow.getTableCells()) {
+                    for (XWPFParagraph paragraph : cell.getParagraphs()) {
+                        if (WordGenerator.replacePlaceholdersInParagraph(paragraph, rowMarkers, rowMarkers.keySet(),
+                                matcher, buffer)) {
+                            preserveSpaces(paragraph);
+                        }
+                    }
+                }
+            }
+            serialized = ZipPatchRenderer.serializePlaceholderParts(template, document);
+        }
+
+        Map<String, PartLayout> parts = new HashMap<>();
+        for (Map.Entry<String, byte[]> part : serialized.entrySet()) {
+            parts.put(part.getKey(), layout(part.getValue(), slotNames.size(), repeatedRows, part.getKey()));
+        }
+        for (RepeatedRow row : repeatedRows) {
+            if (row.segments == null) {
+                throw new IOException("Repeating row for section " + row.section + " not found in the document");
+            }
+        }
+        return new SegmentedTemplate(template, Collections.unmodifiableList(slotNames), documentSlots, parts);
+    }
+
+    /**
+     * Values may start or end with spaces, so the rewritten run must keep them
+     */
+    private static void preserveSpaces(XWPFParagraph paragraph) {
+        List<XWPFRun> runs = paragraph.getRuns();
+        XWPFRun run = runs.get(runs.size() - 1);
+        if (run.getCTR().sizeOfTArray() > 0) {
+            CTText text = run.getCTR().getTArray(0);
+            if (!text.isSetSpace()) {
+                text.setSpace(SpaceAttribute.Space.PRESERVE);
+            }
+        }
+    }
+
+    /**
+     * Cut the repeating rows out of a part and split every piece into segments
+     */
+    private static PartLayout layout(byte[] xml, int slotCount, List<RepeatedRow> repeatedRows,
+                                     String partName) throws IOException {
+        List<PartSegments> fixed = new ArrayList<>();
+        List<RepeatedRow> rows = new ArrayList<>();
+        int fixedStart = 0;
+        int position = indexOf(xml, ROW_START_BYTES, 0);
+        while (position >= 0) {
+            int digitsStart = position + ROW_START_BYTES.length;
+            int end = indexOf(xml, ROW_END_BYTES, digitsStart);
+            int index = end > digitsStart ? parseSlot(xml, digitsStart, end) : -1;
+            if (index < 0 || index >= repeatedRows.size()) {
+                throw new IOException("Template part " + partName
+                        + " contains reserved private-use characters and cannot be segmented");
+            }
+            int markerEnd = end + ROW_END_BYTES.length;
+            int[] bounds = tableRowBounds(xml, position, partName);
+
+            // The row without its section marker
+            byte[] row = new byte[bounds[1] - bounds[0] - (markerEnd - position)];
+            System.arraycopy(xml, bounds[0], row, 0, position - bounds[0]);
+            System.arraycopy(xml, markerEnd, row, position - bounds[0], bounds[1] - markerEnd);
+
+            RepeatedRow repeated = repeatedRows.get(index);
+            repeated.segments = split(row, slotCount, partName);
+            fixed.add(split(Arrays.copyOfRange(xml, fixedStart, bounds[0]), slotCount, partName));
+            rows.add(repeated);
+            fixedStart = bounds[1];
+            position = indexOf(xml, ROW_START_BYTES, fixedStart);
+        }
+        fixed.add(split(fixedStart == 0 ? xml : Arrays.copyOfRange(xml, fixedStart, xml.length),
+                slotCount, partName));
+        return new PartLayout(fixed, rows);
+    }
+
+    /**
+     * Start and end offsets of the innermost w:tr element around a position
+     */
+    private static int[] tableRowBounds(byte[] xml, int position, String partName) throws IOException {
+        Deque<Integer> open = new ArrayDeque<>();
+        int start = -1;
+        for (int i = 0; i < xml.length; i++) {
+            if (start < 0 && i >= position) {
+                if (open.isEmpty()) {
+                    break;
+                }
+                start = open.peek();
+            }
+            if (xml[i] != '<') {
+                continue;
+            }
+            if (startsWith(xml, i, TABLE_ROW_OPEN) && i + TABLE_ROW_OPEN.length < xml.length
+                    && (xml[i + TABLE_ROW_OPEN.length] == '>' || xml[i + TABLE_ROW_OPEN.length] == ' ')) {
+                open.push(i);
+            } else if (startsWith(xml, i, TABLE_ROW_CLOSE) && !open.isEmpty()) {
+                int rowStart = open.pop();
+                if (rowStart == start) {
+                    return new int[] {start, i + TABLE_ROW_CLOSE.length};
+                }
+            }
+        }
+        throw new IOException("Section marker in template part " + partName + " is not inside a table row");
+    }
+
+    private static boolean startsWith(byte[] xml, int offset, byte[] prefix) {
+        if (offset + prefix.length > xml.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (xml[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static PartSegments split(byte[] xml, int slotCount, String partName) throws IOException {
+        List<byte[]> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int literalStart = 0;
+        int position = indexOf(xml, SLOT_START_BYTES, 0);
+        while (position >= 0) {
+            int digitsStart = position + SLOT_START_BYTES.length;
+            int end = indexOf(xml, SLOT_END_BYTES, digitsStart);
+            int slot = end > digitsStart ? parseSlot(xml, digitsStart, end) : -1;
+            if (slot < 0 || slot >= slotCount) {
+                throw new IOException("Template part " + partName
+                        + " contains reserved private-use characters and cannot be segmented");
+            }
+            literals.add(Arrays.copyOfRange(xml, literalStart, position));
+            slots.add(slot);
+            literalStart = end + SLOT_END_BYTES.length;
+            position = indexOf(xml, SLOT_START_BYTES, literalStart);
+        }
+        literals.add(Arrays.copyOfRange(xml, literalStart, xml.length));
+        return new PartSegments(literals, slots);
+    }
+
+    private static int parseSlot(byte[] xml, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = xml[i] - '0';
+            if (digit < 0 || digit > 9 || value > 100_000_000) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Write the .docx for one row to the stream; the stream is left open
+     */
+    public void render(Map<String, String> data, OutputStream out) throws IOException {
+        render(data, null, out);
+    }
+
+    /**
+     * Write the .docx for one row, with one copy of each repeating row per
+     * detail record; the stream is left open. Without details the repeating
+     * rows are left out.
+     */
+    public void render(Map<String, String> data, DetailSource details, OutputStream out) throws IOException {
+        byte[][] values = new byte[slotNames.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i < documentSlots ? escapeXml(data.getOrDefault(slotNames.get(i), "")) : EMPTY;
+        }
+
+        TemplateArchive archive = template.getArchive();
+        RawZipWriter zip = new RawZipWriter(out);
+        PartBuffer buffer = null;
+        for (TemplateArchive.Entry entry : archive.getEntries()) {
+            PartLayout layout = parts.get(entry.getName());
+            if (layout == null) {
+                zip.copyEntry(archive, entry);
+                continue;
+            }
+            if (layout.rows.length > 0) {
+                try (OutputStream part = new BufferedOutputStream(zip.openEntry(entry), 64 * 1024)) {
+                    writeRepeating(layout, data, details, values, part);
+                }
+                continue;
+            }
+            PartSegments segments = layout.fixed[0];
+            if (buffer == null) {
+                buffer = new PartBuffer(segments.literalLength + 1024);
+            }
+            buffer.reset();
+            segments.writeTo(buffer, values);
+            zip.replaceEntry(entry, buffer.array(), buffer.size());
+        }
+        zip.finish();
+    }
+
+    private void writeRepeating(PartLayout layout, Map<String, String> data, DetailSource details,
+                                byte[][] values, OutputStream out) throws IOException {
+        for (int r = 0; r < layout.rows.length; r++) {
+            layout.fixed[r].writeTo(out, values);
+            RepeatedRow row = layout.rows[r];
+            if (details == null) {
+                continue;
+            }
+            for (Map<String, String> record : details.rows(row.section, data)) {
+                for (int slot = row.firstSlot; slot < row.firstSlot + row.slotCount; slot++) {
+                    // Names the record lacks fall back to the document row
+                    String name = slotNames.get(slot);
+                    String value = record.get(name);
+                    if (value == null) {
+                        value = data.getOrDefault(name, "");
+                    }
+                    values[slot] = escapeXml(value);
+                }
+                row.segments.writeTo(out, values);
+            }
+        }
+        layout.fixed[layout.rows.length].writeTo(out, values);
+    }
+
+    /**
+     * Escape text content the way the XML serializer would, replacing
+     * characters XML 1.0 cannot represent with '?'
+     */
+    static byte[] escapeXml(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = null;
+            if (c == '&') {
+                replacement = "&amp;";
+            } else if (c == '<') {
+                replacement = "&lt;";
+            } else if (c == '>') {
+                replacement = "&gt;";
+            } else if (c == '\r') {
+                replacement = "&#13;";
+            } else if ((c < 0x20 && c != '\t' && c != '\n') || c == 0xFFFE || c == 0xFFFF) {
+                replacement = "?";
+            } else if (Character.isSurrogate(c)) {
+                boolean paired = Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1));
+                if (paired) {
+                    if (escaped != null) {
+                        escaped.append(c).append(value.charAt(i + 1));
+                    }
+                    i++;
+                    continue;
+                }
+                replacement = "?";
+            }
+
+            if (replacement != null) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 16);
+                    escaped.append(value, 0, i);
+                }
+                escaped.append(replacement);
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return (escaped != null ? escaped.toString() : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the split for a precompiled artifact. Slots and segments are
+     * stored as analysed, so loading needs neither POI nor the markers.
+     */
+    void save(DataOutputStream out) throws IOException {
+        BinaryCodec.writeVarInt(out, slotNames.size());
+        for (String name : slotNames) {
+            BinaryCodec.writeString(out, name);
+        }
+        BinaryCodec.writeVarInt(out, documentSlots);
+
+        // Repeated rows are shared with the part that holds them, so parts refer to them by number
+        List<RepeatedRow> rows = new ArrayList<>();
+        for (PartLayout layout : parts.values()) {
+            rows.addAll(Arrays.asList(layout.rows));
+        }
+        BinaryCodec.writeVarInt(out, rows.size());
+        for (RepeatedRow row : rows) {
+            BinaryCodec.writeString(out, row.section);
+            BinaryCodec.writeVarInt(out, row.firstSlot);
+            BinaryCodec.writeVarInt(out, row.slotCount);
+            row.segments.save(out);
+        }
+        BinaryCodec.writeVarInt(out, parts.size());
+        for (Map.Entry<String, PartLayout> part : parts.entrySet()) {
+            BinaryCodec.writeString(out, part.getKey());
+            PartLayout layout = part.getValue();
+            BinaryCodec.writeVarInt(out, layout.rows.length);
+            for (int r = 0; r < layout.rows.length; r++) {
+                layout.fixed[r].save(out);
+                BinaryCodec.writeVarInt(out, rows.indexOf(layout.rows[r]));
+            }
+            layout.fixed[layout.rows.length].save(out);
+        }
+    }
+
+    /**
+     * Read a split written by {@link #save(DataOutputStream)}
+     */
+    static SegmentedTemplate load(CompiledTemplate template, ByteBuffer in) {
+        int slotCount = BinaryCodec.readVarInt(in);
+        List<String> slotNames = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slotNames.add(BinaryCodec.readString(in));
+        }
+        int documentSlots = BinaryCodec.readVarInt(in);
+
+        int rowCount = BinaryCodec.readVarInt(in);
+        List<RepeatedRow> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            RepeatedRow row = new RepeatedRow(BinaryCodec.readString(in),
+                    BinaryCodec.readVarInt(in), BinaryCodec.readVarInt(in));
+            row.segments = PartSegments.load(in);
+            rows.add(row);
+        }
+        int partCount = BinaryCodec.readVarInt(in);
+        Map<String, PartLayout> parts = new HashMap<>();
+        for (int i = 0; i < partCount; i++) {
+            String name = BinaryCodec.readString(in);
+            int partRows = BinaryCodec.readVarInt(in);
+            List<PartSegments> fixed = new ArrayList<>(partRows + 1);
+            List<RepeatedRow> layoutRows = new ArrayList<>(partRows);
+            for (int r = 0; r < partRows; r++) {
+                fixed.add(PartSegments.load(in));
+                layoutRows.add(rows.get(BinaryCodec.readVarInt(in)));
+            }
+            fixed.add(PartSegments.load(in));
+            parts.put(name, new PartLayout(fixed, layoutRows));
+        }
+        return new SegmentedTemplate(template, Collections.unmodifiableList(slotNames), documentSlots, parts);
+    }
+
+    /**
+     * Names of the slots: the document's own placeholders, then those of each repeating row
+     */
+    public List<String> getSlotNames() {
+        return slotNames;
+    }
+}
@@ -0,0 +1,343 @@
+package com.documentgenerator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Disk cache of sheet data read from Google Sheets, one file per spreadsheet
+ * ID and range. Each entry carries the version string it was fetched under;
+ * a read whose version matches is served from disk instead of downloading
+ * the sheet again.
+ *
+ * Entries are a small uncompressed header followed by the column names and
+ * rows as length-prefixed UTF-8, deflated. They are written to a temporary
+ * file while the sheet streams in and moved into place once complete. When
+ * the cache grows past its size limit the least recently used entries are
+ * removed; a hit counts as a use.
+ *
+ * The cache is best-effort: failing to write an entry is reported and the
+ * read carries on without it.
+ *
+ * The version the Sheets reader checks is only a sample of the sheet (see
+ * {@link GoogleSheetsReader#probeVersion}), so an edit in the middle of a
+ * sheet can go unnoticed until the entry expires. The cache is therefore off
+ * unless documerge.sheets.cache is true, for sheets that are edited rarely
+ * or only appended to.
+ */
+public class SheetsCache {
+
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    static final long DEFAULT_MAX_AGE_MINUTES = 12 * 60;
+
+    private static final int MAGIC = 0x444d5343; // "DMSC"
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENTRY_SUFFIX = ".sheet";
+
+    private static final int END_OF_ROWS = 0;
+    private static final int ROW = 1;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    /**
+     * @param maxAgeMillis entries older than this are fetched again even if
+     *                     their version still matches; 0 or less for no limit
+     */
+    public SheetsCache(Path directory, long maxBytes, long maxAgeMillis) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * The cache under ~/.documerge/sheets-cache, configured by system properties:
+     * documerge.sheets.cache (true to enable), documerge.sheets.cacheDir,
+     * documerge.sheets.cacheMaxBytes and documerge.sheets.cacheMaxAgeMinutes.
+     *
+     * @return the cache, or null when it is not enabled
+     */
+    public static SheetsCache fromSystemProperties() {
+        if (!Boolean.getBoolean("documerge.sheets.cache")) {
+            return null;
+        }
+        String defaultDirectory = System.getProperty("user.home") + "/.documerge/sheets-cache";
+        Path directory = Paths.get(System.getProperty("documerge.sheets.cacheDir", defaultDirectory));
+        long maxBytes = Long.getLong("documerge.sheets.cacheMaxBytes", DEFAULT_MAX_BYTES);
+        long maxAgeMinutes = Long.getLong("documerge.sheets.cacheMaxAgeMinutes", DEFAULT_MAX_AGE_MINUTES);
+        return new SheetsCache(directory, maxBytes, TimeUnit.MINUTES.toMillis(maxAgeMinutes));
+    }
+
+    /**
+     * Hand the cached rows to the handler if an entry with this version exists
+     * and hasn't expired.
+     *
+     * @return false if nothing was handed over and the sheet must be fetched
+     * @throws IOException if the entry turns out to be damaged after rows were
+     *                     already handed over; the entry is removed first
+     */
+    public boolean replay(String spreadsheetId, String range, String version, RowHandler handler) throws Exception {
+        Path path = entryPath(spreadsheetId, range);
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 65536))) {
+            try {
+                if (in.readInt() != MAGIC || in.readUnsignedByte() != FORMAT_VERSION) {
+                    Files.deleteIfExists(path);
+                    return false;
+                }
+                String storedVersion = BinaryCodec.readString(in);
+                long fetchedAt = in.readLong();
+                if (!storedVersion.equals(version)
+                        || (maxAgeMillis > 0 && System.currentTimeMillis() - fetchedAt > maxAgeMillis)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(path);
+                return false;
+            }
+
+            DataInputStream body = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), 65536));
+            List<String> columns = null;
+            int rowIndex = 0;
+            while (true) {
+                // Only decoding errors mean a damaged entry; the handler's own errors pass through
+                Map<String, String> rowData;
+                try {
+                    if (columns == null) {
+                        columns = readColumns(body);
+                    }
+                    rowData = readRow(body, columns);
+                } catch (IOException e) {
+                    Files.deleteIfExists(path);
+                    if (rowIndex == 0) {
+                        return false;
+                    }
+                    throw new IOException("Cached copy of the sheet is damaged and was removed - please read it again",
+                            e);
+                }
+                if (rowData == null) {
+                    break;
+                }
+                handler.handleRow(rowIndex++, rowData);
+            }
+        }
+        touch(path);
+        return true;
+    }
+
+    private static List<String> readColumns(DataInputStream body) throws IOException {
+        int columnCount = BinaryCodec.readVarInt(body);
+        List<String> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            columns.add(BinaryCodec.readString(body));
+        }
+        return columns;
+    }
+
+    /**
+     * @return the next row, or null at the end of the rows
+     */
+    private static Map<String, String> readRow(DataInputStream body, List<String> columns) throws IOException {
+        if (body.readUnsignedByte() != ROW) {
+            return null;
+        }
+        Map<String, String> rowData = new HashMap<>();
+        for (String column : columns) {
+            rowData.put(column, BinaryCodec.readString(body));
+        }
+        return rowData;
+    }
+
+    /**
+     * Start a new entry; rows written to it replace the current entry on commit
+     */
+    public Writer openWriter(String spreadsheetId, String range, String version) {
+        return new Writer(entryPath(spreadsheetId, range), version);
+    }
+
+    /**
+     * Entry file for a spreadsheet and range
+     */
+    Path entryPath(String spreadsheetId, String range) {
+        String key = spreadsheetId + "\n" + range;
+        return directory.resolve(CompiledTemplate.sha256(key.getBytes(StandardCharsets.UTF_8)) + ENTRY_SUFFIX);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Remove least recently used entries until the cache fits its size limit
+     */
+    synchronized void evict() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> entries = new ArrayList<>();
+        Map<Path, FileTime> lastUsed = new HashMap<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path entry : stream) {
+                try {
+                    long size = Files.size(entry);
+                    lastUsed.put(entry, Files.getLastModifiedTime(entry));
+                    sizes.put(entry, size);
+                    entries.add(entry);
+                    total += size;
+                } catch (IOException e) {
+                    // Removed by another run in the meantime
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        entries.sort(Comparator.comparing(lastUsed::get));
+        for (Path entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            Files.deleteIfExists(entry);
+            total -= sizes.get(entry);
+        }
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects the eviction order
+        }
+    }
+
+    /**
+     * Writes one entry as the sheet's rows stream in. Rows must all have the
+     * same columns, as the sheet readers produce them.
+     */
+    public class Writer implements Closeable {
+        private final Path path;
+        private Path temporary;
+        private Deflater deflater;
+        private DataOutputStream out;
+        private List<String> columns;
+        private boolean committed;
+
+        private Writer(Path path, String version) {
+            this.path = path;
+            try {
+                Files.createDirectories(directory);
+                temporary = Files.createTempFile(directory, "entry", ".tmp");
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 65536));
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                BinaryCodec.writeString(out, version);
+                out.writeLong(System.currentTimeMillis());
+                out.flush();
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new DeflaterOutputStream(out, deflater, 65536), 65536));
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        public void writeRow(Map<String, String> rowData) {
+            if (out == null) {
+                return;
+            }
+            try {
+                if (columns == null) {
+                    writeColumns(new ArrayList<>(rowData.keySet()));
+                }
+                out.writeByte(ROW);
+                for (String column : columns) {
+                    String value = rowData.get(column);
+                    BinaryCodec.writeString(out, value != null ? value : "");
+                }
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        /**
+         * Finish the entry and make it visible to later reads
+         *
+         * @return whether the entry was stored
+         */
+        public boolean commit() {
+            if (out == null) {
+                return false;
+            }
+            try {
+                if (columns == null) {
+                    writeColumns(Collections.emptyList());
+                }
+                out.writeByte(END_OF_ROWS);
+                out.close();
+                out = null;
+                deflater.end();
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                committed = true;
+                evict();
+            } catch (IOException e) {
+                abandon(e);
+            }
+            return committed;
+        }
+
+        private void writeColumns(List<String> names) throws IOException {
+            columns = names;
+            BinaryCodec.writeVarInt(out, names.size());
+            for (String name : names) {
+                BinaryCodec.writeString(out, name);
+            }
+        }
+
+        private void abandon(IOException e) {
+            if (!committed) {
+                System.err.println("Warning: could not write sheet cache entry: " + e.getMessage());
+            }
+            close();
+        }
+
+        /**
+         * Discards the entry unless it was committed
+         */
+        @Override
+        public void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Discarded below
+                }
+                out = null;
+            }
+            if (deflater != null) {
+                deflater.end();
+            }
+            if (!committed && temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    // Left for the next run to overwrite
+                }
+            }
+        }
+    }
+}
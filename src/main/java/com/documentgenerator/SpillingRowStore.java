@@ -0,0 +1,339 @@
+package com.documentgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Rows held in memory as a {@link RowTable} until their estimated size
+ * crosses a threshold, then moved to a temporary file and read back through
+ * a memory map. Callers that need indexed rows and a total up front - for
+ * example {@link GenerationEngine#generate(CompiledTemplate, List, String, List,
+ * GenerationEngine.GenerationListener)} or {@link DetailRows} - can then take
+ * sources of any size with a fixed heap; the pages of the file are cached
+ * by the operating system instead.
+ *
+ * Rows are added, then {@link #finish()} makes the store readable. On disk
+ * each row is a cell count followed by (column, length, UTF-8 bytes) per
+ * non-null cell, all lengths as varints; a second file holds the offset of
+ * every row. Rows read from disk are new maps in column order.
+ *
+ * Not thread-safe while rows are being added; once finished it may be read
+ * from any thread. Closing deletes the files.
+ */
+public class SpillingRowStore extends AbstractList<Map<String, String>> implements RandomAccess, Closeable {
+
+    // Defaults, overridable with -Ddocumerge.spill.thresholdMB and -Ddocumerge.spill.dir
+    static final long DEFAULT_THRESHOLD_BYTES = 128L * 1024 * 1024;
+
+    // Rough heap cost of a row and of each cell while rows are collected as maps
+    private static final int ROW_OVERHEAD = 48;
+    private static final int CELL_OVERHEAD = 64;
+
+    private final long thresholdBytes;
+    private final Path directory;
+
+    private RowTable.Builder builder = new RowTable.Builder();
+    private RowTable table;
+    private long estimatedBytes;
+    private int rowCount;
+
+    // Set once spilled
+    private final List<String> headers = new ArrayList<>();
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+    private Path dataFile;
+    private Path indexFile;
+    private DataOutputStream data;
+    private DataOutputStream index;
+    private long dataLength;
+    private MappedFile dataMap;
+    private MappedFile indexMap;
+
+    private boolean finished;
+    private boolean closed;
+
+    public SpillingRowStore() {
+        this(defaultThreshold(), defaultDirectory());
+    }
+
+    /**
+     * @param thresholdBytes estimated size in memory above which rows go to disk
+     * @param directory where the temporary files are created
+     */
+    public SpillingRowStore(long thresholdBytes, Path directory) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative: " + thresholdBytes);
+        }
+        this.thresholdBytes = thresholdBytes;
+        this.directory = directory;
+    }
+
+    static long defaultThreshold() {
+        Long megabytes = Long.getLong("documerge.spill.thresholdMB");
+        return megabytes != null ? megabytes * 1024 * 1024 : DEFAULT_THRESHOLD_BYTES;
+    }
+
+    static Path defaultDirectory() {
+        return Paths.get(System.getProperty("documerge.spill.dir", System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Read every row of a source into a finished store with the default threshold
+     */
+    public static SpillingRowStore load(RowSource source) throws Exception {
+        SpillingRowStore store = new SpillingRowStore();
+        try {
+            source.read((rowIndex, rowData) -> store.append(rowData));
+            store.finish();
+            return store;
+        } catch (Exception e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Add a row; it is copied, so the map may be reused by the caller
+     */
+    public void append(Map<String, String> row) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Store already finished");
+        }
+        if (data != null) {
+            writeRow(row);
+        } else {
+            builder.addRow(row);
+            estimatedBytes += ROW_OVERHEAD;
+            for (String value : row.values()) {
+                estimatedBytes += CELL_OVERHEAD + (value != null ? 2L * value.length() : 0);
+            }
+            if (estimatedBytes > thresholdBytes) {
+                spill();
+            }
+        }
+        rowCount++;
+    }
+
+    @Override
+    public boolean add(Map<String, String> row) {
+        try {
+            append(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Move the rows collected so far to disk; later rows are written straight there
+     */
+    private void spill() throws IOException {
+        RowTable collected = builder.build();
+        builder = null;
+        dataFile = Files.createTempFile(directory, "documerge-rows", ".bin");
+        indexFile = Files.createTempFile(directory, "documerge-rows", ".idx");
+        data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile.toFile()), 64 * 1024));
+        index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile.toFile()), 16 * 1024));
+        for (Map<String, String> row : collected) {
+            writeRow(row);
+        }
+    }
+
+    private void writeRow(Map<String, String> row) throws IOException {
+        index.writeLong(dataLength);
+        int cells = 0;
+        for (String value : row.values()) {
+            if (value != null) {
+                cells++;
+            }
+        }
+        long length = BinaryCodec.varIntSize(cells);
+        BinaryCodec.writeVarInt(data, cells);
+        for (Map.Entry<String, String> cell : row.entrySet()) {
+            if (cell.getValue() == null) {
+                continue;
+            }
+            Integer column = columnIndex.get(cell.getKey());
+            if (column == null) {
+                column = headers.size();
+                headers.add(cell.getKey());
+                columnIndex.put(cell.getKey(), column);
+            }
+            byte[] bytes = cell.getValue().getBytes(StandardCharsets.UTF_8);
+            BinaryCodec.writeVarInt(data, column);
+            BinaryCodec.writeVarInt(data, bytes.length);
+            data.write(bytes);
+            length += BinaryCodec.varIntSize(column) + BinaryCodec.varIntSize(bytes.length) + bytes.length;
+        }
+        // Counted here because DataOutputStream.size() stops at 2 GB
+        dataLength += length;
+    }
+
+    /**
+     * Stop adding rows and make the store readable
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (data == null) {
+            table = builder.build();
+            builder = null;
+            return;
+        }
+        data.close();
+        index.close();
+        dataMap = new MappedFile(dataFile);
+        indexMap = new MappedFile(indexFile);
+    }
+
+    /**
+     * Whether the rows outgrew the threshold and were moved to disk; callers
+     * report it where they report the rest of the job
+     */
+    public boolean isSpilled() {
+        return dataFile != null;
+    }
+
+    /**
+     * Column names in the order they first appeared
+     */
+    public List<String> getHeaders() {
+        checkFinished();
+        return table != null ? table.getHeaders() : Collections.unmodifiableList(headers);
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    @Override
+    public Map<String, String> get(int rowIndex) {
+        checkFinished();
+        Objects.checkIndex(rowIndex, rowCount);
+        if (table != null) {
+            return table.get(rowIndex);
+        }
+        long start = indexMap.getLong(8L * rowIndex);
+        long end = rowIndex + 1 < rowCount ? indexMap.getLong(8L * (rowIndex + 1)) : dataLength;
+        ByteBuffer in = dataMap.slice(start, (int) (end - start));
+        int cells = BinaryCodec.readVarInt(in);
+        Map<String, String> row = new LinkedHashMap<>(Math.max(4, cells * 2));
+        for (int i = 0; i < cells; i++) {
+            int column = BinaryCodec.readVarInt(in);
+            row.put(headers.get(column), BinaryCodec.readString(in));
+        }
+        return row;
+    }
+
+    private void checkFinished() {
+        if (closed) {
+            throw new IllegalStateException("Store is closed");
+        }
+        if (!finished) {
+            throw new IllegalStateException("Rows are still being added; call finish() first");
+        }
+    }
+
+    /**
+     * Delete the temporary files. Mapped pages are released when the maps
+     * are collected; where the platform keeps mapped files locked until
+     * then, they are deleted on exit instead.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        closed = true;
+        table = null;
+        builder = null;
+        dataMap = null;
+        indexMap = null;
+        if (data != null) {
+            data.close();
+            index.close();
+        }
+        delete(dataFile);
+        delete(indexFile);
+    }
+
+    private static void delete(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * A read-only file mapped in segments of up to 1 GB, since a single
+     * buffer cannot address more than 2 GB
+     */
+    private static final class MappedFile {
+        private static final int SEGMENT_BITS = 30;
+        private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+        private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+        private final ByteBuffer[] segments;
+
+        MappedFile(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+                for (int i = 0; i < segments.length; i++) {
+                    long start = (long) i << SEGMENT_BITS;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+                }
+            }
+        }
+
+        /**
+         * Offsets are 8-byte aligned, so a long never straddles two segments
+         */
+        long getLong(long position) {
+            return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+        }
+
+        /**
+         * The bytes from position as a buffer of their own, copied only when
+         * they straddle two segments
+         */
+        ByteBuffer slice(long position, int length) {
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+            int offset = (int) (position & SEGMENT_MASK);
+            if (offset + length <= segment.capacity()) {
+                return segment.slice(offset, length);
+            }
+            byte[] copy = new byte[length];
+            read(position, copy);
+            return ByteBuffer.wrap(copy);
+        }
+
+        private void read(long position, byte[] target) {
+            int copied = 0;
+            while (copied < target.length) {
+                ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+                int offset = (int) (position & SEGMENT_MASK);
+                int count = Math.min(target.length - copied, segment.capacity() - offset);
+                segment.get(offset, target, copied, count);
+                copied += count;
+                position += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.documentgenerator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Central directory of a template's ZIP package, parsed straight from the
+ * raw bytes so entries can be copied to the output without inflating them.
+ */
+public class TemplateArchive {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    /**
+     * One stored file of the package
+     */
+    public static class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final int versionMadeBy;
+        private final int versionNeeded;
+        private final int flags;
+        private final int method;
+        private final int time;
+        private final int date;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long externalAttributes;
+        private final int dataOffset;
+
+        Entry(byte[] nameBytes, int versionMadeBy, int versionNeeded, int flags, int method, int time,
+              int date, long crc, long compressedSize, long size, long externalAttributes, int dataOffset) {
+            this.nameBytes = nameBytes;
+            this.name = new String(nameBytes, StandardCharsets.UTF_8);
+            this.versionMadeBy = versionMadeBy;
+            this.versionNeeded = versionNeeded;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.externalAttributes = externalAttributes;
+            this.dataOffset = dataOffset;
+        }
+
+        public String getName() { return name; }
+        public int getMethod() { return method; }
+        public long getCompressedSize() { return compressedSize; }
+        public long getSize() { return size; }
+
+        byte[] getNameBytes() { return nameBytes; }
+        int getVersionMadeBy() { return versionMadeBy; }
+        int getVersionNeeded() { return versionNeeded; }
+        int getFlags() { return flags; }
+        int getTime() { return time; }
+        int getDate() { return date; }
+        long getCrc() { return crc; }
+        long getExternalAttributes() { return externalAttributes; }
+        int getDataOffset() { return dataOffset; }
+    }
+
+    private final byte[] bytes;
+    private final List<Entry> entries;
+
+    private TemplateArchive(byte[] bytes, List<Entry> entries) {
+        this.bytes = bytes;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Read the central directory of a ZIP file held in memory
+     */
+    public static TemplateArchive parse(byte[] zip) throws IOException {
+        int eocd = findEndOfCentralDirectory(zip);
+        int entryCount = readShort(zip, eocd + 10);
+        long directorySize = readInt(zip, eocd + 12);
+        long directoryOffset = readInt(zip, eocd + 16);
+        if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            throw new IOException("ZIP64 templates are not supported");
+        }
+
+        List<Entry> entries = new ArrayList<>(entryCount);
+        int position = (int) directoryOffset;
+        for (int i = 0; i < entryCount; i++) {
+            if (readInt(zip, position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Corrupt template: bad central directory entry " + i);
+            }
+            int versionMadeBy = readShort(zip, position + 4);
+            int versionNeeded = readShort(zip, position + 6);
+            int flags = readShort(zip, position + 8);
+            int method = readShort(zip, position + 10);
+            int time = readShort(zip, position + 12);
+            int date = readShort(zip, position + 14);
+            long crc = readInt(zip, position + 16);
+            long compressedSize = readInt(zip, position + 20);
+            long size = readInt(zip, position + 24);
+            int nameLength = readShort(zip, position + 28);
+            int extraLength = readShort(zip, position + 30);
+            int commentLength = readShort(zip, position + 32);
+            long externalAttributes = readInt(zip, position + 38);
+            long localHeaderOffset = readInt(zip, position + 42);
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new IOException("ZIP64 templates are not supported");
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            System.arraycopy(zip, position + 46, nameBytes, 0, nameLength);
+
+            // Sizes come from the central directory; the local header may defer them to a data descriptor
+            int local = (int) localHeaderOffset;
+            if (readInt(zip, local) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException("Corrupt template: bad local header for " + new String(nameBytes, StandardCharsets.UTF_8));
+            }
+            int dataOffset = local + 30 + readShort(zip, local + 26) + readShort(zip, local + 28);
+            if (dataOffset + compressedSize > zip.length) {
+                throw new IOException("Corrupt template: truncated entry " + new String(nameBytes, StandardCharsets.UTF_8));
+            }
+
+            entries.add(new Entry(nameBytes, versionMadeBy, versionNeeded, flags, method, time, date,
+                    crc, compressedSize, size, externalAttributes, dataOffset));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return new TemplateArchive(zip, entries);
+    }
+
+    private static int findEndOfCentralDirectory(byte[] zip) throws IOException {
+        int lowest = Math.max(0, zip.length - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF);
+        for (int i = zip.length - END_OF_CENTRAL_DIRECTORY_SIZE; i >= lowest; i--) {
+            if (readInt(zip, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return i;
+            }
+        }
+        throw new IOException("Template is not a valid ZIP package");
+    }
+
+    static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    static long readInt(byte[] b, int offset) {
+        return ((long) readShort(b, offset)) | ((long) readShort(b, offset + 2)) << 16;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * The raw package bytes the entry data offsets point into
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,46 @@
+package com.documentgenerator;
+
+/**
+ * Which threads carry the blocking parts of a batch - reading the source,
+ * fetching from Google Sheets and writing documents. Rendering always runs
+ * on the fixed pool of workers.
+ */
+public enum ThreadingMode {
+
+    /** One platform thread reads and the calling thread writes documents one at a time */
+    PLATFORM,
+
+    /** Reads and fetches run on virtual threads, and every document is written on its own virtual thread */
+    VIRTUAL;
+
+    /**
+     * Mode from the documerge.threads system property, PLATFORM if unset or
+     * not a mode name
+     */
+    public static ThreadingMode defaultMode() {
+        String configured = System.getProperty("documerge.threads");
+        if (configured == null || configured.trim().isEmpty()) {
+            return PLATFORM;
+        }
+        try {
+            return valueOf(configured.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: ignoring unknown documerge.threads " + configured + ", using " + PLATFORM);
+            return PLATFORM;
+        }
+    }
+
+    /**
+     * Whether the running JVM supports VIRTUAL (Java 21 or later)
+     */
+    public static boolean virtualThreadsAvailable() {
+        return VirtualThreads.isAvailable();
+    }
+
+    /**
+     * The mode actually used: VIRTUAL falls back to PLATFORM on older runtimes
+     */
+    public ThreadingMode effective() {
+        return this == VIRTUAL && !VirtualThreads.isAvailable() ? PLATFORM : this;
+    }
+}
@@ -8,6 +8,9 @@ import java.util.regex.Pattern;
 
 public class WordGenerator {
     
+    // Matches <<Name>> style placeholders; compiled once and shared by all threads
+    static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("<<([^<>]+)>>");
+    
     // Original method for backward compatibility
     public static void generateDocument(String templatePath, String outputPath, 
                                       Map<String, String> data) throws Exception {
@@ -18,45 +21,167 @@ public class WordGenerator {
     public static void generateDocument(String templatePath, String outputPath, 
                                       Map<String, String> data, 
                                       List<String> userSpecifiedPlaceholders) throws Exception {
-        try (FileInputStream fis = new FileInputStream(templatePath);
-             XWPFDocument document = new XWPFDocument(fis)) {
-            
-            // Get all placeholders from document
-            Set<String> detectedPlaceholders = detectPlaceholders(document);
-            System.out.println("Detected placeholders in template: " + detectedPlaceholders);
-            
-            // Determine which placeholders to use
-            Set<String> activePlaceholders = determineActivePlaceholders(
-                detectedPlaceholders, userSpecifiedPlaceholders, data);
-            System.out.println("Processing placeholders: " + activePlaceholders);
-            
-            // Replace placeholders with data
-            replacePlaceholders(document, data, activePlaceholders);
-            
-            // Save the modified document
-            try (FileOutputStream fos = new FileOutputStream(outputPath)) {
-                document.write(fos);
-                System.out.println("Document generated: " + outputPath);
-            }
-            
+        generateDocument(CompiledTemplate.forPath(templatePath), outputPath, data, userSpecifiedPlaceholders);
+    }
+    
+    // Render from a template compiled once per job
+    public static void generateDocument(CompiledTemplate template, String outputPath, 
+                                      Map<String, String> data, 
+                                      List<String> userSpecifiedPlaceholders) throws Exception {
+        generateDocument(template, outputPath, data, userSpecifiedPlaceholders, RenderEngine.POI);
+    }
+    
+    // Render with an explicitly selected output engine
+    public static void generateDocument(CompiledTemplate template, String outputPath, 
+                                      Map<String, String> data, 
+                                      List<String> userSpecifiedPlaceholders,
+                                      RenderEngine engine) throws Exception {
+        generateDocument(template, outputPath, data, userSpecifiedPlaceholders, engine,
+                GenerationMetrics.disabled());
+    }
+    
+    // Render and record per-stage timings
+    public static void generateDocument(CompiledTemplate template, String outputPath, 
+                                      Map<String, String> data, 
+                                      List<String> userSpecifiedPlaceholders,
+                                      RenderEngine engine, GenerationMetrics metrics) throws Exception {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath))) {
+            renderDocument(template, out, data, userSpecifiedPlaceholders, engine, metrics);
+            System.out.println("Document generated: " + outputPath);
         } catch (IOException e) {
             System.err.println("Error generating Word document: " + e.getMessage());
             throw e;
         }
     }
     
+    /**
+     * Render one filled-in document to a stream; the stream is left open
+     */
+    public static void renderDocument(CompiledTemplate template, OutputStream out, 
+                                      Map<String, String> data, 
+                                      List<String> userSpecifiedPlaceholders,
+                                      RenderEngine engine) throws Exception {
+        renderDocument(template, out, data, userSpecifiedPlaceholders, engine, GenerationMetrics.disabled());
+    }
+    
+    /**
+     * Render one filled-in document to a stream, recording per-stage timings
+     * and bytes written; the stream is left open
+     */
+    public static void renderDocument(CompiledTemplate template, OutputStream out, 
+                                      Map<String, String> data, 
+                                      List<String> userSpecifiedPlaceholders,
+                                      RenderEngine engine, GenerationMetrics metrics) throws Exception {
+        renderDocument(template, out, data, null, userSpecifiedPlaceholders, engine, metrics);
+    }
+    
+    /**
+     * Render one filled-in document with the detail records for its
+     * repeating rows. Templates with repeating rows always go through the
+     * segment writer, which streams the rows into the output instead of
+     * building the table in memory.
+     */
+    public static void renderDocument(CompiledTemplate template, OutputStream out, 
+                                      Map<String, String> data, DetailSource details,
+                                      List<String> userSpecifiedPlaceholders,
+                                      RenderEngine engine, GenerationMetrics metrics) throws Exception {
+        // Determine which placeholders to use
+        long start = metrics.startTimer();
+        Set<String> activePlaceholders = determineActivePlaceholders(
+            template.getPlaceholders(), userSpecifiedPlaceholders, data);
+        metrics.stopTimer(GenerationMetrics.Stage.SELECT_PLACEHOLDERS, start);
+        
+        CountingOutputStream counted = new CountingOutputStream(out);
+        if (engine == RenderEngine.SEGMENT || template.hasRepeatingRows()) {
+            // Pre-split XML segments: no XWPF objects per row
+            start = metrics.startTimer();
+            template.segmented(activePlaceholders).render(data, details, counted);
+            metrics.stopTimer(GenerationMetrics.Stage.WRITE_DOCUMENT, start);
+            metrics.addBytesWritten(counted.getCount());
+            return;
+        }
+        
+        start = metrics.startTimer();
+        try (XWPFDocument document = template.openDocument()) {
+            metrics.stopTimer(GenerationMetrics.Stage.OPEN_DOCUMENT, start);
+            
+            // Replace placeholders only in the paragraphs known to contain them,
+            // reusing one matcher and buffer for the whole document
+            start = metrics.startTimer();
+            Matcher matcher = PLACEHOLDER_PATTERN.matcher("");
+            StringBuilder buffer = new StringBuilder(256);
+            for (XWPFParagraph paragraph : template.resolveParagraphs(document)) {
+                replacePlaceholdersInParagraph(paragraph, data, activePlaceholders, matcher, buffer);
+            }
+            metrics.stopTimer(GenerationMetrics.Stage.REPLACE_TEXT, start);
+            
+            // Save the modified document
+            start = metrics.startTimer();
+            writeDocument(template, document, engine, counted);
+            metrics.stopTimer(GenerationMetrics.Stage.WRITE_DOCUMENT, start);
+        }
+        metrics.addBytesWritten(counted.getCount());
+    }
+    
+    /**
+     * Pass-through stream that counts the bytes written; close() is not forwarded
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+        
+        long getCount() {
+            return count;
+        }
+    }
+    
+    /**
+     * Serialize the filled-in document with the selected engine
+     */
+    private static void writeDocument(CompiledTemplate template, XWPFDocument document,
+                                      RenderEngine engine, OutputStream out) throws IOException {
+        switch (engine) {
+            case ZIP_PATCH:
+                ZipPatchRenderer.write(template, document, out);
+                break;
+            case POI:
+            default:
+                document.write(out);
+                break;
+        }
+    }
+    
     /**
      * Automatically detect all placeholders in the document
      */
-    private static Set<String> detectPlaceholders(XWPFDocument document) {
+    static Set<String> detectPlaceholders(XWPFDocument document) {
         Set<String> placeholders = new HashSet<>();
-        Pattern pattern = Pattern.compile("<<([^<>]+)>>");
         
         // Check paragraphs
         for (XWPFParagraph paragraph : document.getParagraphs()) {
             String text = paragraph.getText();
             if (text != null) {
-                Matcher matcher = pattern.matcher(text);
+                Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
                 while (matcher.find()) {
                     placeholders.add(matcher.group(1).trim());
                 }
@@ -69,7 +194,7 @@ public class WordGenerator {
                 for (XWPFTableCell cell : row.getTableCells()) {
                     String text = cell.getText();
                     if (text != null) {
-                        Matcher matcher = pattern.matcher(text);
+                        Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
                         while (matcher.find()) {
                             placeholders.add(matcher.group(1).trim());
                         }
@@ -83,7 +208,7 @@ public class WordGenerator {
             for (XWPFParagraph paragraph : header.getParagraphs()) {
                 String text = paragraph.getText();
                 if (text != null) {
-                    Matcher matcher = pattern.matcher(text);
+                    Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
                     while (matcher.find()) {
                         placeholders.add(matcher.group(1).trim());
                     }
@@ -96,7 +221,7 @@ public class WordGenerator {
             for (XWPFParagraph paragraph : footer.getParagraphs()) {
                 String text = paragraph.getText();
                 if (text != null) {
-                    Matcher matcher = pattern.matcher(text);
+                    Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
                     while (matcher.find()) {
                         placeholders.add(matcher.group(1).trim());
                     }
@@ -113,6 +238,24 @@ public class WordGenerator {
     private static Set<String> determineActivePlaceholders(Set<String> detected, 
                                                           List<String> userSpecified, 
                                                           Map<String, String> data) {
+        return selectPlaceholders(detected, userSpecified, data, null);
+    }
+    
+    /**
+     * Describe the placeholder selection for one row: which placeholders are
+     * used and which are missing from the template or the data. Batches
+     * report this once per job rather than once per document.
+     */
+    static List<String> describePlaceholders(CompiledTemplate template, List<String> userSpecified,
+                                             Map<String, String> data) {
+        List<String> lines = new ArrayList<>();
+        Set<String> active = selectPlaceholders(template.getPlaceholders(), userSpecified, data, lines);
+        lines.add("Processing placeholders: " + active);
+        return lines;
+    }
+    
+    private static Set<String> selectPlaceholders(Set<String> detected, List<String> userSpecified,
+                                                  Map<String, String> data, List<String> report) {
         Set<String> active = new HashSet<>();
         
         if (userSpecified != null && !userSpecified.isEmpty()) {
@@ -120,9 +263,9 @@ public class WordGenerator {
             for (String userPH : userSpecified) {
                 if (detected.contains(userPH)) {
                     active.add(userPH);
-                    System.out.println("✓ User-specified placeholder found: " + userPH);
+                    note(report, "✓ User-specified placeholder found: " + userPH);
                 } else {
-                    System.out.println("⚠ User-specified placeholder NOT found in template: " + userPH);
+                    note(report, "⚠ User-specified placeholder NOT found in template: " + userPH);
                 }
             }
             
@@ -130,7 +273,7 @@ public class WordGenerator {
             for (String detectedPH : detected) {
                 if (data.containsKey(detectedPH) && !active.contains(detectedPH)) {
                     active.add(detectedPH);
-                    System.out.println("✓ Auto-detected placeholder with data: " + detectedPH);
+                    note(report, "✓ Auto-detected placeholder with data: " + detectedPH);
                 }
             }
         } else {
@@ -138,9 +281,9 @@ public class WordGenerator {
             for (String detectedPH : detected) {
                 if (data.containsKey(detectedPH)) {
                     active.add(detectedPH);
-                    System.out.println("✓ Auto-detected placeholder: " + detectedPH);
+                    note(report, "✓ Auto-detected placeholder: " + detectedPH);
                 } else {
-                    System.out.println("⚠ Placeholder found but no data available: " + detectedPH);
+                    note(report, "⚠ Placeholder found but no data available: " + detectedPH);
                 }
             }
         }
@@ -148,70 +291,31 @@ public class WordGenerator {
         return active;
     }
     
-    /**
-     * Replace placeholders in the entire document
-     */
-    private static void replacePlaceholders(XWPFDocument document, Map<String, String> data, 
-                                          Set<String> activePlaceholders) {
-        // Replace in paragraphs
-        for (XWPFParagraph paragraph : document.getParagraphs()) {
-            replacePlaceholdersInParagraph(paragraph, data, activePlaceholders);
-        }
-        
-        // Replace in tables
-        for (XWPFTable table : document.getTables()) {
-            for (XWPFTableRow row : table.getRows()) {
-                for (XWPFTableCell cell : row.getTableCells()) {
-                    for (XWPFParagraph paragraph : cell.getParagraphs()) {
-                        replacePlaceholdersInParagraph(paragraph, data, activePlaceholders);
-                    }
-                }
-            }
-        }
-        
-        // Replace in headers
-        for (XWPFHeader header : document.getHeaderList()) {
-            for (XWPFParagraph paragraph : header.getParagraphs()) {
-                replacePlaceholdersInParagraph(paragraph, data, activePlaceholders);
-            }
-        }
-        
-        // Replace in footers
-        for (XWPFFooter footer : document.getFooterList()) {
-            for (XWPFParagraph paragraph : footer.getParagraphs()) {
-                replacePlaceholdersInParagraph(paragraph, data, activePlaceholders);
-            }
+    private static void note(List<String> report, String line) {
+        if (report != null) {
+            report.add(line);
         }
     }
     
     /**
-     * Enhanced placeholder replacement in paragraphs
+     * Enhanced placeholder replacement in paragraphs. Returns true if the
+     * paragraph's runs were rewritten.
      */
-    private static void replacePlaceholdersInParagraph(XWPFParagraph paragraph, 
+    static boolean replacePlaceholdersInParagraph(XWPFParagraph paragraph, 
                                                      Map<String, String> data,
-                                                     Set<String> activePlaceholders) {
+                                                     Set<String> activePlaceholders,
+                                                     Matcher matcher,
+                                                     StringBuilder buffer) {
         // Get the complete paragraph text
         String fullText = paragraph.getText();
         if (fullText == null || fullText.isEmpty()) {
-            return;
+            return false;
         }
         
-        String modifiedText = fullText;
-        boolean textChanged = false;
-        
-        // Replace only active placeholders
-        for (String placeholder : activePlaceholders) {
-            String placeholderPattern = "<<" + placeholder + ">>";
-            String replacement = data.getOrDefault(placeholder, "");
-            
-            if (modifiedText.contains(placeholderPattern)) {
-                modifiedText = modifiedText.replace(placeholderPattern, replacement);
-                textChanged = true;
-            }
-        }
+        String modifiedText = substitutePlaceholders(fullText, data, activePlaceholders, matcher, buffer);
         
         // If text was changed, update the paragraph
-        if (textChanged) {
+        if (modifiedText != null) {
             // Clear existing runs
             for (int i = paragraph.getRuns().size() - 1; i >= 0; i--) {
                 paragraph.removeRun(i);
@@ -220,17 +324,45 @@ public class WordGenerator {
             // Create a new run with the modified text
             XWPFRun newRun = paragraph.createRun();
             newRun.setText(modifiedText);
+            return true;
         }
+        return false;
+    }
+    
+    /**
+     * Rewrite every active placeholder in one left-to-right scan.
+     * Returns null when the text contains no active placeholder.
+     */
+    static String substitutePlaceholders(String text, Map<String, String> data,
+                                         Set<String> activePlaceholders,
+                                         Matcher matcher, StringBuilder buffer) {
+        matcher.reset(text);
+        buffer.setLength(0);
+        int copied = 0;
+        boolean textChanged = false;
+        
+        while (matcher.find()) {
+            String placeholder = matcher.group(1);
+            if (activePlaceholders.contains(placeholder)) {
+                buffer.append(text, copied, matcher.start());
+                buffer.append(data.getOrDefault(placeholder, ""));
+                copied = matcher.end();
+                textChanged = true;
+            }
+        }
+        
+        if (!textChanged) {
+            return null;
+        }
+        buffer.append(text, copied, text.length());
+        return buffer.toString();
     }
     
     /**
      * Utility method to get available placeholders from a template
      */
     public static Set<String> getAvailablePlaceholders(String templatePath) throws Exception {
-        try (FileInputStream fis = new FileInputStream(templatePath);
-             XWPFDocument document = new XWPFDocument(fis)) {
-            return detectPlaceholders(document);
-        }
+        return new HashSet<>(CompiledTemplate.forPath(templatePath).getPlaceholders());
     }
     
     /**
@@ -0,0 +1,105 @@
+package com.documentgenerator;
+
+import org.apache.poi.ooxml.POIXMLTypeLoader;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a filled-in document by re-serializing only the XML parts that
+ * contain placeholders and copying every other template entry (styles,
+ * themes, images...) straight from the template's ZIP bytes.
+ */
+public class ZipPatchRenderer {
+
+    private static final String WORDML_NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    /**
+     * Write the document to the stream; the stream is left open
+     */
+    public static void write(CompiledTemplate template, XWPFDocument document, OutputStream out) throws IOException {
+        Map<String, byte[]> parts = serializePlaceholderParts(template, document);
+        TemplateArchive archive = template.getArchive();
+
+        RawZipWriter zip = new RawZipWriter(out);
+        for (TemplateArchive.Entry entry : archive.getEntries()) {
+            byte[] content = parts.get(entry.getName());
+            if (content != null) {
+                zip.replaceEntry(entry, content);
+            } else {
+                zip.copyEntry(archive, entry);
+            }
+        }
+        zip.finish();
+    }
+
+    /**
+     * Serialize the main document, header and footer parts that held placeholders
+     * or repeating rows, the same way XWPFDocument and XWPFHeaderFooter commit them
+     */
+    static Map<String, byte[]> serializePlaceholderParts(CompiledTemplate template,
+                                                                 XWPFDocument document) throws IOException {
+        Map<String, byte[]> parts = new HashMap<>();
+        for (CompiledTemplate.PlaceholderLocation location : template.getLocations()) {
+            switch (location.getPartType()) {
+                case BODY:
+                case TABLE: {
+                    String name = entryName(document.getPackagePart());
+                    if (!parts.containsKey(name)) {
+                        parts.put(name, serialize(document.getDocument(), "document"));
+                    }
+                    break;
+                }
+                case HEADER: {
+                    XWPFHeader header = document.getHeaderList().get(location.getPartIndex());
+                    String name = entryName(header.getPackagePart());
+                    if (!parts.containsKey(name)) {
+                        parts.put(name, serialize(header._getHdrFtr(), "hdr"));
+                    }
+                    break;
+                }
+                case FOOTER: {
+                    XWPFFooter footer = document.getFooterList().get(location.getPartIndex());
+                    String name = entryName(footer.getPackagePart());
+                    if (!parts.containsKey(name)) {
+                        parts.put(name, serialize(footer._getHdrFtr(), "ftr"));
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+        String body = entryName(document.getPackagePart());
+        if (template.hasRepeatingRows() && !parts.containsKey(body)) {
+            parts.put(body, serialize(document.getDocument(), "document"));
+        }
+        return parts;
+    }
+
+    private static byte[] serialize(XmlObject xml, String rootElement) throws IOException {
+        XmlOptions options = new XmlOptions(POIXMLTypeLoader.DEFAULT_XML_OPTIONS);
+        options.setSaveSyntheticDocumentElement(new QName(WORDML_NAMESPACE, rootElement));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * 1024);
+        xml.save(bytes, options);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Part names are absolute ("/word/document.xml"); ZIP entry names are not
+     */
+    private static String entryName(PackagePart part) {
+        String name = part.getPartName().getName();
+        return name.startsWith("/") ? name.substring(1) : name;
+    }
+}
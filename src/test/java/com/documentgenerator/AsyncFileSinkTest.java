@@ -0,0 +1,118 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for AsyncFileSink.
+ */
+public class AsyncFileSinkTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test that every queued document is on disk, complete, once the sink is closed.
+     */
+    @Test
+    public void testWritesEveryDocument() throws Exception {
+        // A queue smaller than one document makes write() wait for the writer
+        AsyncFileSink sink = new AsyncFileSink(tempDir, true, 64);
+        for (int i = 0; i < 200; i++) {
+            String path = sink.write(i, "doc" + i + ".txt", ("document " + i).repeat(20).getBytes(StandardCharsets.UTF_8));
+            assertEquals(tempDir.resolve("doc" + i + ".txt").toString(), path);
+        }
+        sink.close();
+
+        assertEquals(200, sink.getWrittenCount());
+        assertEquals("document 7".repeat(20), Files.readString(tempDir.resolve("doc7.txt")));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(200, files.count());
+        }
+        assertThrows(IOException.class, () -> sink.write(200, "late.txt", new byte[1]));
+    }
+
+    /**
+     * Test that a failed write is reported by close after the others are written.
+     */
+    @Test
+    public void testReportsFailuresOnClose() throws Exception {
+        AsyncFileSink sink = new AsyncFileSink(tempDir, false);
+        sink.write(0, "missing/doc.txt", new byte[] {1});
+        sink.write(1, "doc.txt", new byte[] {2});
+
+        IOException error = assertThrows(IOException.class, sink::close);
+        assertTrue(error.getMessage().startsWith("1 document(s) could not be written"));
+        assertArrayEquals(new byte[] {2}, Files.readAllBytes(tempDir.resolve("doc.txt")));
+    }
+
+    /**
+     * Test that store callbacks run only once the file is in place, and
+     * never for a document that could not be written.
+     */
+    @Test
+    public void testCallsBackOnceStored() throws Exception {
+        AsyncFileSink sink = new AsyncFileSink(tempDir, false);
+        List<String> stored = Collections.synchronizedList(new ArrayList<>());
+        sink.write(0, "missing/doc.txt", new byte[] {1}, () -> stored.add("missing/doc.txt"));
+        sink.write(1, "doc.txt", new byte[] {2}, () -> {
+            assertTrue(Files.isRegularFile(tempDir.resolve("doc.txt")));
+            stored.add("doc.txt");
+        });
+        sink.writeDuplicate(2, "copy.txt", "doc.txt", new byte[] {2}, () -> stored.add("copy.txt"));
+
+        assertThrows(IOException.class, sink::close);
+        assertEquals(List.of("doc.txt", "copy.txt"), stored);
+    }
+
+    /**
+     * Test that with sync on close the store callbacks wait until the files
+     * have been synced.
+     */
+    @Test
+    public void testHoldsCallbacksUntilSynced() throws Exception {
+        AsyncFileSink sink = new AsyncFileSink(tempDir, true);
+        List<String> stored = Collections.synchronizedList(new ArrayList<>());
+        sink.write(0, "doc.txt", new byte[] {1}, () -> stored.add("doc.txt"));
+        while (sink.getWrittenCount() < 1) {
+            Thread.sleep(10);
+        }
+        assertTrue(stored.isEmpty());
+
+        sink.close();
+        assertEquals(List.of("doc.txt"), stored);
+    }
+
+    /**
+     * Test that a runtime failure fails one document and the writer keeps
+     * draining the queue, so later writes never block for good.
+     */
+    @Test
+    public void testSurvivesRuntimeFailures() throws Exception {
+        // A queue smaller than one document makes every write() wait for the writer
+        AsyncFileSink sink = new AsyncFileSink(tempDir, false, 64);
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            sink.write(0, "first.txt", new byte[100], () -> {
+                throw new IllegalStateException("Callback failed");
+            });
+            for (int i = 1; i < 20; i++) {
+                sink.write(i, "doc" + i + ".txt", new byte[100]);
+            }
+        });
+
+        IOException error = assertThrows(IOException.class, sink::close);
+        assertTrue(error.getMessage().endsWith("Callback failed"), error.getMessage());
+        assertEquals(20, sink.getWrittenCount());
+    }
+}
@@ -0,0 +1,78 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unit tests for BinaryCodec.
+ */
+public class BinaryCodecTest {
+
+    private static final int[] VALUES = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE};
+
+    /**
+     * Test that varints and strings read back the same from a stream and a buffer.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : VALUES) {
+            BinaryCodec.writeVarInt(out, value);
+        }
+        BinaryCodec.writeString(out, "Grüße");
+        BinaryCodec.writeBytes(out, new byte[] {1, 2, 3});
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        for (int value : VALUES) {
+            assertEquals(value, BinaryCodec.readVarInt(in));
+            assertEquals(value, BinaryCodec.readVarInt(buffer));
+        }
+        assertEquals("Grüße", BinaryCodec.readString(in));
+        assertEquals("Grüße", BinaryCodec.readString(buffer));
+        assertArrayEquals(new byte[] {1, 2, 3}, BinaryCodec.readBytes(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    /**
+     * Test the encoded sizes.
+     */
+    @Test
+    public void testVarIntSize() throws Exception {
+        for (int value : VALUES) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryCodec.writeVarInt(new DataOutputStream(bytes), value);
+            assertEquals(bytes.size(), BinaryCodec.varIntSize(value), "size of " + value);
+        }
+    }
+
+    /**
+     * Test that damaged input is reported rather than read as a huge length.
+     */
+    @Test
+    public void testDamagedInput() {
+        byte[] tooLong = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1};
+        assertThrows(IOException.class,
+                () -> BinaryCodec.readVarInt(new DataInputStream(new ByteArrayInputStream(tooLong))));
+        assertThrows(IllegalStateException.class, () -> BinaryCodec.readVarInt(ByteBuffer.wrap(tooLong)));
+
+        // A negative length
+        byte[] negative = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f};
+        assertThrows(IOException.class,
+                () -> BinaryCodec.readVarInt(new DataInputStream(new ByteArrayInputStream(negative))));
+        assertThrows(BufferUnderflowException.class, () -> BinaryCodec.readBytes(ByteBuffer.wrap(negative)));
+
+        // A length past the end
+        assertThrows(BufferUnderflowException.class, () -> BinaryCodec.readBytes(ByteBuffer.wrap(new byte[] {5, 1})));
+    }
+}
@@ -0,0 +1,48 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Unit tests for the command-line options of Cli.
+ */
+public class CliTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test that options override the job file and flags need no value.
+     */
+    @Test
+    public void testOptionsOverrideJobFile() throws Exception {
+        Path jobFile = tempDir.resolve("letters.properties");
+        Files.write(jobFile, ("source=people.xlsx\ntemplate=letter.docx\noutput=out\nengine=POI\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        Properties description = Cli.parseArguments(new String[] {
+                "--output", "elsewhere", "--job", jobFile.toString(), "--engine=SEGMENT", "--store-only"});
+
+        assertEquals("people.xlsx", description.getProperty("source"));
+        assertEquals("elsewhere", description.getProperty("output"));
+        assertEquals("SEGMENT", description.getProperty("engine"));
+        assertEquals("true", description.getProperty("storeOnly"));
+        assertNull(description.getProperty("archive"));
+    }
+
+    /**
+     * Test that unknown options and incomplete jobs exit with status 2.
+     */
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> Cli.parseArguments(new String[] {"--colour", "red"}));
+        assertThrows(IllegalArgumentException.class, () -> Cli.parseArguments(new String[] {"--source"}));
+        assertEquals(2, Cli.run(new String[] {"--source", "people.xlsx"}));
+    }
+}
@@ -0,0 +1,78 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * Unit tests for CompiledTemplate.
+ */
+public class CompiledTemplateTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test that placeholders and their paragraph locations are recorded.
+     */
+    @Test
+    public void testLocatesPlaceholders() throws Exception {
+        File file = TestTemplates.write(tempDir, "letter.docx", "Dear <<Name>>,", "No fields here",
+                "<<Company>> / <<Email>>");
+
+        CompiledTemplate template = CompiledTemplate.forPath(file.getPath());
+
+        assertEquals(3, template.getPlaceholders().size());
+        assertEquals(3, template.getLocations().size());
+        assertEquals(0, template.getLocations().get(0).getParagraphIndex());
+        assertEquals(2, template.getLocations().get(1).getParagraphIndex());
+        assertEquals(0, template.getLocations().get(1).getFirstRun());
+
+        try (XWPFDocument document = template.openDocument()) {
+            assertEquals(2, template.resolveParagraphs(document).size());
+        }
+    }
+
+    /**
+     * Test that the cache is reused until the template changes.
+     */
+    @Test
+    public void testCacheInvalidatedOnChange() throws Exception {
+        File file = TestTemplates.write(tempDir, "cached.docx", "Hello <<Name>>");
+
+        CompiledTemplate first = CompiledTemplate.forPath(file.getPath());
+        assertSame(first, CompiledTemplate.forPath(file.getPath()));
+
+        TestTemplates.write(tempDir, "cached.docx", "Hello <<Name>> from <<City>>");
+        file.setLastModified(first.getLastModified() + 2000);
+
+        CompiledTemplate second = CompiledTemplate.forPath(file.getPath());
+        assertNotSame(first, second);
+        assertNotEquals(first.getHash(), second.getHash());
+        assertTrue(second.getPlaceholders().contains("City"));
+    }
+
+    /**
+     * Test that the least recently used template is dropped once the cache is full.
+     */
+    @Test
+    public void testCacheEvictsLeastRecentlyUsed() throws Exception {
+        File oldest = TestTemplates.write(tempDir, "oldest.docx", "Hello <<Name>>");
+        File recent = TestTemplates.write(tempDir, "recent.docx", "Hello <<Name>>");
+        CompiledTemplate first = CompiledTemplate.forPath(oldest.getPath());
+        CompiledTemplate kept = CompiledTemplate.forPath(recent.getPath());
+
+        for (int i = 0; i < CompiledTemplate.DEFAULT_CACHE_SIZE - 1; i++) {
+            CompiledTemplate.forPath(recent.getPath());
+            File other = TestTemplates.write(tempDir, "other" + i + ".docx", "Hello <<Name>>");
+            CompiledTemplate.forPath(other.getPath());
+        }
+
+        assertSame(kept, CompiledTemplate.forPath(recent.getPath()));
+        assertNotSame(first, CompiledTemplate.forPath(oldest.getPath()));
+    }
+}
@@ -0,0 +1,80 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for ConcurrencyController.
+ */
+public class ConcurrencyControllerTest {
+
+    /**
+     * Test that heap pressure halves the limit and growth resumes once it is gone.
+     */
+    @Test
+    public void testShrinksUnderPressure() {
+        ConcurrencyController controller = new ConcurrencyController(1, 8, 1000);
+        assertEquals(8, controller.getLimit());
+
+        assertEquals(4, controller.decide(10, 0.01, 0.90));
+        assertEquals(2, controller.decide(10, 0.40, 0.50));
+        assertEquals(1, controller.decide(10, 0.40, 0.50));
+        assertEquals(1, controller.decide(10, 0.40, 0.50));
+
+        // Cooldown, then growth while each added worker raises throughput
+        assertEquals(1, controller.decide(10, 0.01, 0.30));
+        assertEquals(1, controller.decide(10, 0.01, 0.30));
+        assertEquals(2, controller.decide(10, 0.01, 0.30));
+        assertEquals(3, controller.decide(20, 0.01, 0.30));
+        assertEquals(3, controller.decide(20, 0.01, 0.80));
+    }
+
+    /**
+     * Test that a worker that does not raise throughput is taken back.
+     */
+    @Test
+    public void testBacksOffWithoutGain() {
+        ConcurrencyController controller = new ConcurrencyController(1, 4, 1000);
+        controller.decide(10, 0.30, 0.10);
+        controller.decide(10, 0, 0.10);
+        controller.decide(10, 0, 0.10);
+        assertEquals(2, controller.getLimit());
+
+        assertEquals(3, controller.decide(10, 0, 0.10));
+        assertEquals(2, controller.decide(10.2, 0, 0.10));
+        for (int i = 0; i < ConcurrencyController.PROBE_COOLDOWN; i++) {
+            assertEquals(2, controller.decide(10.2, 0, 0.10));
+        }
+        assertEquals(3, controller.decide(10.2, 0, 0.10));
+    }
+
+    /**
+     * Test that lowering the limit holds back workers until slots are returned.
+     */
+    @Test
+    public void testLimitsConcurrentRenders() throws Exception {
+        ConcurrencyController controller = new ConcurrencyController(1, 2, 1000);
+        controller.decide(1, 0.50, 0.10);
+        assertEquals(1, controller.getLimit());
+
+        controller.acquire();
+        Thread waiting = new Thread(() -> {
+            try {
+                controller.acquire();
+                controller.release();
+            } catch (InterruptedException e) {
+                // Test failed below
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+
+        controller.release();
+        waiting.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(waiting.isAlive());
+        controller.close();
+    }
+}
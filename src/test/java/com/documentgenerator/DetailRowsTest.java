@@ -0,0 +1,49 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Unit tests for DetailRows.
+ */
+public class DetailRowsTest {
+
+    private static Map<String, String> line(String invoice, String description) {
+        Map<String, String> line = new HashMap<>();
+        line.put("InvoiceNo", invoice);
+        line.put("Description", description);
+        return line;
+    }
+
+    /**
+     * Test that records are grouped by key and keep their sheet order.
+     */
+    @Test
+    public void testGroupsByKey() throws Exception {
+        DetailRows details = DetailRows.load(RowSource.of(Arrays.asList(
+                line("A-1", "Bolts"), line("B-2", "Nuts"), line("A-1", "Washers"))), "InvoiceNo");
+
+        assertEquals(3, details.size());
+        assertEquals(2, details.groupCount());
+        List<Map<String, String>> rows = details.rowsFor("A-1");
+        assertEquals(2, rows.size());
+        assertEquals("Bolts", rows.get(0).get("Description"));
+        assertEquals("Washers", rows.get(1).get("Description"));
+        assertTrue(details.rowsFor("C-3").isEmpty());
+        assertTrue(details.rowsFor(null).isEmpty());
+        assertEquals(rows, details.rows("Items", Collections.singletonMap("InvoiceNo", "A-1")));
+    }
+
+    /**
+     * Test that a missing key column is reported.
+     */
+    @Test
+    public void testMissingKeyColumn() {
+        IOException error = assertThrows(IOException.class, () ->
+                DetailRows.of(Collections.singletonList(line("A-1", "Bolts")), "OrderNo"));
+        assertTrue(error.getMessage().contains("OrderNo"));
+    }
+}
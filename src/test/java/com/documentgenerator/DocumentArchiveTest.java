@@ -0,0 +1,54 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unit tests for DocumentArchive.
+ */
+public class DocumentArchiveTest {
+
+    private static Map<String, byte[]> unzip(byte[] zip, Map<String, Integer> methods) throws Exception {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                contents.put(entry.getName(), in.readAllBytes());
+                methods.put(entry.getName(), entry.getMethod());
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Test that entries read back and the manifest lists rows in order.
+     */
+    @Test
+    public void testEntriesAndManifest() throws Exception {
+        for (boolean storeOnly : new boolean[] {false, true}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (DocumentArchive archive = new DocumentArchive(out, storeOnly)) {
+                // Completion order differs from row order
+                archive.addDocument(1, "document_2_Bob.docx", "second".getBytes(StandardCharsets.UTF_8));
+                archive.addDocument(0, "document_1_Smith,_Ann.docx", "first".getBytes(StandardCharsets.UTF_8));
+            }
+
+            Map<String, Integer> methods = new LinkedHashMap<>();
+            Map<String, byte[]> contents = unzip(out.toByteArray(), methods);
+            assertEquals("first", new String(contents.get("document_1_Smith,_Ann.docx"), StandardCharsets.UTF_8));
+            assertEquals("second", new String(contents.get("document_2_Bob.docx"), StandardCharsets.UTF_8));
+            assertEquals(storeOnly ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                    (int) methods.get("document_2_Bob.docx"));
+            assertEquals("row,entry\n1,\"document_1_Smith,_Ann.docx\"\n2,document_2_Bob.docx\n",
+                    new String(contents.get(DocumentArchive.MANIFEST_NAME), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Unit tests for the streaming ExcelReader.
+ */
+public class ExcelReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test that string, numeric, date, boolean and blank cells convert as before.
+     */
+    @Test
+    public void testCellConversion() throws Exception {
+        Date hired = new GregorianCalendar(2023, Calendar.MARCH, 14, 9, 30).getTime();
+        File file = tempDir.resolve("people.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             FileOutputStream fos = new FileOutputStream(file)) {
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Sheet sheet = workbook.createSheet("People");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue(" Name ");
+            header.createCell(1).setCellValue("Age");
+            header.createCell(2).setCellValue("Hired");
+            header.createCell(3).setCellValue("Active");
+            header.createCell(4).setCellValue("Notes");
+
+            Row row = sheet.createRow(1);
+            row.createCell(0).setCellValue("Jane Doe");
+            row.createCell(1).setCellValue(41.7);
+            row.createCell(2).setCellValue(hired);
+            row.getCell(2).setCellStyle(dateStyle);
+            row.createCell(3).setCellValue(true);
+
+            // Row index 2 is never created and must be skipped
+            sheet.createRow(3).createCell(0).setCellValue("John Roe");
+            workbook.write(fos);
+        }
+
+        List<Map<String, String>> rows = ExcelReader.readExcelData(file.getPath());
+
+        assertEquals(2, rows.size());
+        Map<String, String> first = rows.get(0);
+        assertEquals("Jane Doe", first.get("Name"));
+        assertEquals("41", first.get("Age"));
+        assertEquals(hired.toString(), first.get("Hired"));
+        assertEquals("true", first.get("Active"));
+        assertEquals("", first.get("Notes"));
+        assertEquals("John Roe", rows.get(1).get("Name"));
+        assertEquals("", rows.get(1).get("Age"));
+    }
+
+    /**
+     * Test that rows are streamed with consecutive indexes.
+     */
+    @Test
+    public void testStreamsRowsInOrder() throws Exception {
+        File file = tempDir.resolve("many.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             FileOutputStream fos = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet();
+            sheet.createRow(0).createCell(0).setCellValue("Name");
+            for (int i = 1; i <= 500; i++) {
+                sheet.createRow(i).createCell(0).setCellValue("Person " + i);
+            }
+            workbook.write(fos);
+        }
+
+        List<Integer> indexes = new ArrayList<>();
+        ExcelReader.streamExcelData(file.getPath(), (rowIndex, rowData) -> {
+            assertEquals("Person " + (rowIndex + 1), rowData.get("Name"));
+            indexes.add(rowIndex);
+        });
+        assertEquals(500, indexes.size());
+        assertEquals(499, indexes.get(499));
+    }
+
+    /**
+     * Test that only the requested columns are read.
+     */
+    @Test
+    public void testReadsOnlyRequestedColumns() throws Exception {
+        File file = tempDir.resolve("wide.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             FileOutputStream fos = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet();
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < 120; c++) {
+                header.createCell(c).setCellValue("Column" + c);
+            }
+            for (int i = 1; i <= 3; i++) {
+                Row row = sheet.createRow(i);
+                for (int c = 0; c < 120; c++) {
+                    row.createCell(c).setCellValue("r" + i + "c" + c);
+                }
+            }
+            workbook.write(fos);
+        }
+
+        Set<String> columns = new HashSet<>(Arrays.asList("Column3", "Column118", "Missing"));
+        List<Map<String, String>> rows = ExcelReader.readExcelData(file.getPath(), columns);
+
+        assertEquals(3, rows.size());
+        assertEquals(new HashSet<>(Arrays.asList("Column3", "Column118")), rows.get(0).keySet());
+        assertEquals("r1c3", rows.get(0).get("Column3"));
+        assertEquals("r3c118", rows.get(2).get("Column118"));
+    }
+}
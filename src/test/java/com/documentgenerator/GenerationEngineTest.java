@@ -0,0 +1,290 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the read-render-write pipeline of GenerationEngine.
+ */
+public class GenerationEngineTest {
+
+    @TempDir
+    Path tempDir;
+
+    private CompiledTemplate template() throws Exception {
+        Path templatePath = tempDir.resolve("template.docx");
+        try (InputStream in = getClass().getResourceAsStream("/templates/document-template.docx")) {
+            Files.copy(in, templatePath);
+        }
+        return CompiledTemplate.forPath(templatePath.toString());
+    }
+
+    private static Map<String, String> row(int index) {
+        Map<String, String> row = new HashMap<>();
+        row.put("Name", "Person " + index);
+        return row;
+    }
+
+    /**
+     * Test that every row keeps its document name whatever order the workers
+     * finish in, and that a failed row is collected without stopping the rest.
+     */
+    @Test
+    public void testParallelBatch() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(row(i));
+        }
+        // No Name, so the row has no document name
+        rows.set(7, new HashMap<>());
+
+        GenerationEngine.GenerationResult result = new GenerationEngine(4).generate(template, rows,
+                outputDir.toString(), null, null);
+
+        assertEquals(20, result.getTotalRows());
+        assertEquals(19, result.getGenerated());
+        assertEquals(1, result.getFailures().size());
+        assertEquals(7, result.getFailures().get(0).getRowIndex());
+        for (int i = 0; i < 20; i++) {
+            Path document = outputDir.resolve("document_" + (i + 1) + "_Person_" + i + ".docx");
+            assertEquals(i != 7, Files.isRegularFile(document), document.toString());
+        }
+    }
+
+    /**
+     * Test that a streamed source is generated in full while the reader is
+     * never more than the queues and in-flight rows ahead of the writer.
+     */
+    @Test
+    public void testStreamedSource() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        int parallelism = 2;
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger maxLead = new AtomicInteger();
+        List<Integer> totals = Collections.synchronizedList(new ArrayList<>());
+
+        RowSource source = handler -> {
+            for (int i = 0; i < 40; i++) {
+                maxLead.accumulateAndGet(i - written.get(), Math::max);
+                handler.handleRow(i, row(i));
+            }
+        };
+        GenerationEngine engine = new GenerationEngine(parallelism);
+        GenerationEngine.GenerationResult result = engine.generate(template, source, outputDir.toString(), null,
+                new GenerationEngine.GenerationListener() {
+                    @Override
+                    public void rowCompleted(int rowIndex, int completed, int total, String outputPath) {
+                        written.incrementAndGet();
+                        totals.add(total);
+                    }
+
+                    @Override
+                    public void rowFailed(int rowIndex, int completed, int total, Exception error) {
+                        fail(error);
+                    }
+                });
+
+        assertEquals(40, result.getTotalRows());
+        assertEquals(40, result.getGenerated());
+        assertTrue(Files.isRegularFile(outputDir.resolve("document_40_Person_39.docx")));
+        // Two queues of two slots per worker, one row per worker, one being written, one being handed over
+        assertTrue(maxLead.get() <= 5 * parallelism + 2, "lead " + maxLead.get());
+        assertEquals(40, totals.get(totals.size() - 1).intValue());
+    }
+
+    /**
+     * Test that rows read before a read error are still generated and the
+     * error is thrown afterwards.
+     */
+    @Test
+    public void testReadFailure() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        RowSource source = handler -> {
+            for (int i = 0; i < 3; i++) {
+                handler.handleRow(i, row(i));
+            }
+            throw new IOException("Truncated file");
+        };
+
+        IOException error = assertThrows(IOException.class, () ->
+                new GenerationEngine(2).generate(template, source, outputDir.toString(), null, null));
+
+        assertEquals("Truncated file", error.getMessage());
+        try (var files = Files.list(outputDir)) {
+            assertEquals(3, files.count());
+        }
+    }
+
+    /**
+     * Test that an error stopping every renderer is thrown instead of
+     * leaving the reader blocked on a full queue.
+     */
+    @Test
+    public void testRendererErrorStopsReader() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        RowSource source = handler -> {
+            for (int i = 0; i < 100; i++) {
+                handler.handleRow(i, new HashMap<String, String>() {
+                    @Override
+                    public String get(Object key) {
+                        throw new OutOfMemoryError("Rendering");
+                    }
+                });
+            }
+        };
+
+        OutOfMemoryError error = assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                assertThrows(OutOfMemoryError.class, () ->
+                        new GenerationEngine(2).generate(template, source, outputDir.toString(), null, null)));
+
+        assertEquals("Rendering", error.getMessage());
+    }
+
+    /**
+     * Test that VIRTUAL mode writes every document, with concurrent writes on
+     * Java 21 and the platform fallback before it.
+     */
+    @Test
+    public void testVirtualThreadingMode() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(row(i));
+        }
+
+        GenerationEngine engine = new GenerationEngine(2);
+        engine.setThreadingMode(ThreadingMode.VIRTUAL);
+        engine.setWriteConcurrency(4);
+        GenerationEngine.GenerationResult result = engine.generate(template, rows, outputDir.toString(), null, null);
+
+        assertEquals(20, result.getGenerated());
+        assertFalse(result.hasFailures());
+        try (var files = Files.list(outputDir)) {
+            assertEquals(20, files.count());
+        }
+    }
+
+    /**
+     * Test that the memory and background file sinks receive the same documents.
+     */
+    @Test
+    public void testOutputSinks() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            rows.add(row(i));
+        }
+        GenerationEngine engine = new GenerationEngine(3);
+        engine.setRenderEngine(RenderEngine.SEGMENT);
+
+        MemorySink memory = new MemorySink();
+        GenerationEngine.GenerationResult inMemory = engine.generate(template, RowSource.of(rows), memory, null, null);
+        GenerationEngine.GenerationResult onDisk;
+        try (AsyncFileSink files = new AsyncFileSink(outputDir, true)) {
+            onDisk = engine.generate(template, RowSource.of(rows), files, null, null);
+        }
+
+        assertEquals(12, inMemory.getGenerated());
+        assertEquals(12, onDisk.getGenerated());
+        assertEquals(12, memory.getCount());
+        String name = GenerationEngine.documentName(11, rows.get(11));
+        assertArrayEquals(memory.getDocument(name), Files.readAllBytes(outputDir.resolve(name)));
+        try (var files = Files.list(outputDir)) {
+            assertEquals(12, files.count());
+        }
+    }
+
+    /**
+     * Test that rows differing only in columns the template does not use are
+     * rendered once per distinct content and the rest linked to the first file.
+     */
+    @Test
+    public void testRenderCache() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            Map<String, String> row = row(i % 3);
+            row.put("Id", String.valueOf(i));
+            rows.add(row);
+        }
+        GenerationMetrics metrics = new GenerationMetrics();
+        GenerationEngine engine = new GenerationEngine(2);
+        engine.setRenderEngine(RenderEngine.SEGMENT);
+        engine.setMetrics(metrics);
+        engine.setRenderCache(new RenderCache());
+
+        GenerationEngine.GenerationResult result = engine.generate(template, rows, outputDir.toString(), null, null);
+
+        assertEquals(12, result.getGenerated());
+        assertEquals(12, metrics.getRenderCacheHits() + metrics.getRenderCacheMisses());
+        assertTrue(metrics.getRenderCacheMisses() >= 3);
+        assertTrue(metrics.summaryLine().contains("render cache"));
+        Path first = outputDir.resolve(GenerationEngine.documentName(0, rows.get(0)));
+        for (int i = 3; i < 12; i += 3) {
+            Path copy = outputDir.resolve(GenerationEngine.documentName(i, rows.get(i)));
+            assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(copy));
+        }
+
+        // A second run finds everything, and writes its own files rather than linking to the first run's
+        Path secondDir = Files.createDirectory(tempDir.resolve("second"));
+        GenerationMetrics secondMetrics = new GenerationMetrics();
+        engine.setMetrics(secondMetrics);
+        engine.generate(template, rows, secondDir.toString(), null, null);
+        assertEquals(12, secondMetrics.getRenderCacheHits());
+        assertFalse(Files.isSameFile(first, secondDir.resolve(first.getFileName())));
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(secondDir.resolve(first.getFileName())));
+    }
+
+    /**
+     * Test that the placeholder selection is logged once for the batch, not
+     * once per document.
+     */
+    @Test
+    public void testPlaceholdersLoggedOnce() throws Exception {
+        CompiledTemplate template = template();
+        Path outputDir = Files.createDirectory(tempDir.resolve("out"));
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rows.add(row(i));
+        }
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+        GenerationEngine.GenerationResult result = new GenerationEngine(2).generate(template, rows,
+                outputDir.toString(), Arrays.asList("Name", "Missing"), new GenerationEngine.GenerationListener() {
+                    @Override
+                    public void rowCompleted(int rowIndex, int completed, int total, String outputPath) {
+                    }
+
+                    @Override
+                    public void rowFailed(int rowIndex, int completed, int total, Exception error) {
+                        fail(error);
+                    }
+
+                    @Override
+                    public void log(String message) {
+                        messages.add(message);
+                    }
+                });
+
+        assertEquals(10, result.getGenerated());
+        assertEquals(1, messages.stream().filter(m -> m.startsWith("Processing placeholders: ")).count());
+        assertTrue(messages.contains("⚠ User-specified placeholder NOT found in template: Missing"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for GenerationManifest.
+ */
+public class GenerationManifestTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test that row hashes ignore column order but not values.
+     */
+    @Test
+    public void testHashRow() {
+        Map<String, String> first = new LinkedHashMap<>();
+        first.put("Name", "Ann");
+        first.put("Email", "ann@example.com");
+        Map<String, String> second = new LinkedHashMap<>();
+        second.put("Email", "ann@example.com");
+        second.put("Name", "Ann");
+
+        assertEquals(GenerationManifest.hashRow(first), GenerationManifest.hashRow(second));
+        second.put("Name", "Anne");
+        assertNotEquals(GenerationManifest.hashRow(first), GenerationManifest.hashRow(second));
+    }
+
+    /**
+     * Test that recorded rows are up to date on the next run until their data,
+     * their output file or the fingerprint changes.
+     */
+    @Test
+    public void testRerun() throws Exception {
+        File directory = tempDir.toFile();
+        File output = tempDir.resolve("document_1_Ann.docx").toFile();
+        Files.write(output.toPath(), new byte[] {1});
+        Map<String, String> row = new HashMap<>();
+        row.put("Name", "Ann");
+        String hash = GenerationManifest.hashRow(row);
+
+        try (GenerationManifest manifest = GenerationManifest.open(directory, "v1")) {
+            assertFalse(manifest.isUpToDate(output.getName(), hash, output));
+            manifest.record(0, output.getName(), hash);
+            manifest.record(0, output.getName(), hash);
+        }
+
+        try (GenerationManifest manifest = GenerationManifest.open(directory, "v1")) {
+            assertEquals(1, manifest.getReusableEntries());
+            assertTrue(manifest.isUpToDate(output.getName(), hash, output));
+            assertFalse(manifest.isUpToDate(output.getName(), "changed", output));
+            assertFalse(manifest.isUpToDate(output.getName(), hash, tempDir.resolve("missing.docx").toFile()));
+        }
+        // Compacted to the header and one line
+        assertEquals(2, Files.readAllLines(tempDir.resolve(GenerationManifest.FILE_NAME)).size());
+
+        try (GenerationManifest manifest = GenerationManifest.open(directory, "v2")) {
+            assertEquals(0, manifest.getReusableEntries());
+            assertFalse(manifest.isUpToDate(output.getName(), hash, output));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for GenerationMetrics.
+ */
+public class GenerationMetricsTest {
+
+    /**
+     * Test that percentiles stay within the histogram's 25% bucket width.
+     */
+    @Test
+    public void testPercentiles() {
+        GenerationMetrics.LatencyHistogram histogram = new GenerationMetrics.LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        long p50 = histogram.getPercentileNanos(0.5);
+        assertTrue(p50 >= 500_000 && p50 <= 625_000, "p50 " + p50);
+        long p99 = histogram.getPercentileNanos(0.99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 " + p99);
+        assertEquals(1_000_000, histogram.getPercentileNanos(1.0));
+    }
+
+    /**
+     * Test that bucket bounds cover every value without gaps.
+     */
+    @Test
+    public void testBucketBounds() {
+        int previous = GenerationMetrics.LatencyHistogram.bucketFor(1);
+        for (long value = 2; value < 100_000; value++) {
+            int bucket = GenerationMetrics.LatencyHistogram.bucketFor(value);
+            assertTrue(value <= GenerationMetrics.LatencyHistogram.upperBound(bucket), "value " + value);
+            if (bucket != previous) {
+                assertTrue(bucket > previous, "value " + value);
+                assertEquals(value - 1, GenerationMetrics.LatencyHistogram.upperBound(previous), "value " + value);
+            }
+            previous = bucket;
+        }
+    }
+
+    /**
+     * Test the exported counters and stage series.
+     */
+    @Test
+    public void testExports() {
+        GenerationMetrics metrics = new GenerationMetrics();
+        metrics.startRun();
+        metrics.stopTimer(GenerationMetrics.Stage.ROW, metrics.startTimer());
+        metrics.documentCompleted();
+        metrics.rowFailed();
+        metrics.addBytesWritten(2048);
+        metrics.finishRun();
+
+        String json = metrics.toJson();
+        assertTrue(json.contains("\"documents\": 1,"));
+        assertTrue(json.contains("\"bytesWritten\": 2048,"));
+        assertTrue(json.contains("\"row\": {\"count\": 1,"));
+
+        String prometheus = metrics.toPrometheus();
+        assertTrue(prometheus.contains("documerge_documents_total 1\n"));
+        assertTrue(prometheus.contains("documerge_failures_total 1\n"));
+        assertTrue(prometheus.contains("documerge_stage_seconds_count{stage=\"row\"} 1\n"));
+        assertTrue(prometheus.contains("documerge_stage_seconds{stage=\"replace_text\",quantile=\"0.99\"} 0.000000\n"));
+    }
+
+    /**
+     * Test that the shared disabled instance records nothing.
+     */
+    @Test
+    public void testDisabled() {
+        GenerationMetrics metrics = GenerationMetrics.disabled();
+        metrics.stopTimer(GenerationMetrics.Stage.ROW, metrics.startTimer());
+        metrics.documentCompleted();
+        metrics.addBytesWritten(10);
+        assertEquals(0, metrics.getStage(GenerationMetrics.Stage.ROW).getCount());
+        assertEquals(0, metrics.getDocuments());
+        assertEquals(0, metrics.getBytesWritten());
+    }
+}
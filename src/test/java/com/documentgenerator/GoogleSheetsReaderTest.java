@@ -0,0 +1,360 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.services.sheets.v4.Sheets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests the paged Google Sheets reader against a local stand-in for the
+ * Sheets API that serves a fixed grid.
+ */
+public class GoogleSheetsReaderTest {
+
+    private static final Pattern ROW_RANGE = Pattern.compile("'(.*)'!(\\d+):(\\d+)");
+    private static final Pattern COLUMN_RANGE = Pattern.compile("'(.*)'!([A-Z]+)(\\d+):([A-Z]+)(\\d+)");
+    private static final Pattern PLAIN_RANGE = Pattern.compile("([^'!]+)!([A-Z]+)(\\d+):([A-Z]+)(\\d+)");
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private Sheets service;
+    private final List<String> requestedRanges = new CopyOnWriteArrayList<>();
+
+    // Rows of the sheet; empty lists are blank rows
+    private List<List<String>> grid;
+    private int gridRowCount;
+    private boolean reportRowCount = true;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v4/spreadsheets/", this::handle);
+        server.start();
+        service = GoogleSheetsReader.createSheetsService(new NetHttpTransport(), null,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String body;
+        int valuesAt = path.indexOf("/values/");
+        if (path.endsWith("/values:batchGet")) {
+            StringBuilder json = new StringBuilder("{\"spreadsheetId\":\"sheet-id\",\"valueRanges\":[");
+            int count = 0;
+            boolean pastGrid = false;
+            for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+                if (parameter.startsWith("ranges=")) {
+                    String range = URLDecoder.decode(parameter.substring("ranges=".length()), StandardCharsets.UTF_8);
+                    Matcher columns = COLUMN_RANGE.matcher(range);
+                    if (columns.matches()) {
+                        requestedRanges.add(range);
+                        String values = valuesJson(range,
+                                Integer.parseInt(columns.group(3)), Integer.parseInt(columns.group(5)),
+                                ExcelReader.columnIndex(columns.group(2)), ExcelReader.columnIndex(columns.group(4)));
+                        pastGrid |= values == null;
+                        json.append(count++ > 0 ? "," : "").append(values);
+                        continue;
+                    }
+                    requestedRanges.add("probe " + range);
+                    Matcher matcher = ROW_RANGE.matcher(range);
+                    assertTrue(matcher.matches(), range);
+                    String values = valuesJson(range,
+                            Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)));
+                    pastGrid |= values == null;
+                    json.append(count++ > 0 ? "," : "").append(values);
+                }
+            }
+            body = pastGrid ? null : json.append("]}").toString();
+        } else if (valuesAt < 0) {
+            body = "{\"sheets\":[{\"properties\":{\"title\":\"Sheet1\""
+                    + (reportRowCount ? ",\"gridProperties\":{\"rowCount\":" + gridRowCount + "}" : "") + "}}]}";
+        } else {
+            String range = path.substring(valuesAt + "/values/".length());
+            requestedRanges.add(range);
+            Matcher plain = PLAIN_RANGE.matcher(range);
+            Matcher matcher = ROW_RANGE.matcher(range);
+            if (plain.matches()) {
+                body = valuesJson(range, Integer.parseInt(plain.group(3)), Integer.parseInt(plain.group(5)),
+                        ExcelReader.columnIndex(plain.group(2)), ExcelReader.columnIndex(plain.group(4)));
+            } else {
+                assertTrue(matcher.matches(), range);
+                body = valuesJson(range, Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)));
+            }
+        }
+        int status = 200;
+        if (body == null) {
+            // Like the real API, a range starting past the grid is an error
+            status = 400;
+            body = "{\"error\":{\"code\":400,\"message\":\"Range exceeds grid limits\"}}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String valuesJson(String range, int firstRow, int lastRow) {
+        return valuesJson(range, firstRow, lastRow, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like the real API, trailing blank rows and cells of the range are left
+     * out and the range answered for ends at the end of the grid
+     *
+     * @return null if the range starts past the grid
+     */
+    private String valuesJson(String range, int firstRow, int lastRow, int firstColumn, int lastColumn) {
+        if (firstRow > gridRowCount) {
+            return null;
+        }
+        int last = Math.min(lastRow, grid.size());
+        while (last >= firstRow && cells(last, firstColumn, lastColumn).isEmpty()) {
+            last--;
+        }
+        String answered = range.replaceFirst("\\d+$", String.valueOf(Math.min(lastRow, gridRowCount)));
+        StringBuilder json = new StringBuilder("{\"range\":\"").append(answered.replace("'", "\\u0027"))
+                .append("\",\"majorDimension\":\"ROWS\"");
+        if (last >= firstRow) {
+            json.append(",\"values\":[");
+            for (int row = firstRow; row <= last; row++) {
+                json.append(row > firstRow ? "," : "").append('[');
+                List<String> cells = cells(row, firstColumn, lastColumn);
+                for (int c = 0; c < cells.size(); c++) {
+                    json.append(c > 0 ? "," : "").append('"').append(cells.get(c)).append('"');
+                }
+                json.append(']');
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    private List<String> cells(int row, int firstColumn, int lastColumn) {
+        List<String> cells = grid.get(row - 1);
+        List<String> slice = new ArrayList<>(cells.subList(Math.min(firstColumn, cells.size()),
+                Math.min(lastColumn + 1, cells.size())));
+        while (!slice.isEmpty() && slice.get(slice.size() - 1).isEmpty()) {
+            slice.remove(slice.size() - 1);
+        }
+        return slice;
+    }
+
+    private List<Map<String, String>> read(int pageSize) throws Exception {
+        return read(pageSize, null);
+    }
+
+    private List<Map<String, String>> read(int pageSize, SheetsCache cache) throws Exception {
+        List<Map<String, String>> rows = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        GoogleSheetsReader.streamValues(service, "sheet-id", "Sheet1", pageSize, cache, (rowIndex, rowData) -> {
+            indexes.add(rowIndex);
+            rows.add(rowData);
+        });
+        for (int i = 0; i < indexes.size(); i++) {
+            assertEquals(i, indexes.get(i).intValue());
+        }
+        return rows;
+    }
+
+    /**
+     * Test that pages are stitched together, including blank rows that fall
+     * at the end of a page, and that trailing blank rows are dropped.
+     */
+    @Test
+    public void testPagedRead() throws Exception {
+        grid = new ArrayList<>();
+        grid.add(Arrays.asList("Name", "Email"));
+        for (int i = 1; i <= 12; i++) {
+            // Sheet rows 5 and 6 close the first page of four data rows
+            grid.add(i == 4 || i == 5 ? Collections.emptyList() : Arrays.asList("Name " + i, "n" + i + "@example.com"));
+        }
+        grid.add(Collections.emptyList());
+        gridRowCount = 20;
+
+        List<Map<String, String>> rows = read(4);
+
+        assertEquals(12, rows.size());
+        assertEquals("Name 1", rows.get(0).get("Name"));
+        assertEquals("", rows.get(3).get("Name"));
+        assertEquals("", rows.get(4).get("Email"));
+        assertEquals("Name 12", rows.get(11).get("Name"));
+        assertEquals(Arrays.asList("'Sheet1'!1:1", "'Sheet1'!2:5", "'Sheet1'!6:9", "'Sheet1'!10:13",
+                "'Sheet1'!14:17", "'Sheet1'!18:20"), requestedRanges);
+    }
+
+    /**
+     * Test that a sheet without a reported row count is read past a blank
+     * block longer than a page, up to the end of its grid and no further.
+     */
+    @Test
+    public void testUnsizedSheet() throws Exception {
+        grid = new ArrayList<>();
+        grid.add(Arrays.asList("Name", "Email"));
+        grid.add(Arrays.asList("Name 1", "n1@example.com"));
+        grid.add(Arrays.asList("Name 2", "n2@example.com"));
+        for (int i = 0; i < 6; i++) {
+            grid.add(Collections.emptyList());
+        }
+        grid.add(Arrays.asList("Name 9", "n9@example.com"));
+        grid.add(Arrays.asList("Name 10", "n10@example.com"));
+        gridRowCount = 13;
+        reportRowCount = false;
+
+        List<Map<String, String>> rows = read(3);
+
+        assertEquals(10, rows.size());
+        assertEquals("Name 2", rows.get(1).get("Name"));
+        assertEquals("", rows.get(2).get("Name"));
+        assertEquals("Name 9", rows.get(8).get("Name"));
+        assertEquals("n10@example.com", rows.get(9).get("Email"));
+        assertEquals(Arrays.asList("'Sheet1'!1:1", "'Sheet1'!2:5", "'Sheet1'!5:8", "'Sheet1'!8:11",
+                "'Sheet1'!11:14"), requestedRanges);
+    }
+
+    /**
+     * Test that a name that is not a tab title is read as a range.
+     */
+    @Test
+    public void testPlainRange() throws Exception {
+        grid = new ArrayList<>();
+        grid.add(Arrays.asList("Name", "Email", "Notes"));
+        for (int i = 1; i <= 5; i++) {
+            grid.add(Arrays.asList("Name " + i, "n" + i + "@example.com", "note " + i));
+        }
+        gridRowCount = 6;
+
+        List<Map<String, String>> rows = new ArrayList<>();
+        GoogleSheetsReader.streamValues(service, "sheet-id", "Sheet1!A1:B4", 2, null, null,
+                (rowIndex, rowData) -> rows.add(rowData));
+
+        assertEquals(3, rows.size());
+        assertEquals("Name 3", rows.get(2).get("Name"));
+        assertEquals(new HashSet<>(Arrays.asList("Name", "Email")), rows.get(0).keySet());
+        assertEquals(Collections.singletonList("Sheet1!A1:B4"), requestedRanges);
+    }
+
+    /**
+     * Test that a sheet with only a header row yields no rows.
+     */
+    @Test
+    public void testHeaderOnly() throws Exception {
+        grid = Collections.singletonList(Arrays.asList("Name"));
+        gridRowCount = 1;
+
+        assertTrue(read(100).isEmpty());
+        assertEquals(Collections.singletonList("'Sheet1'!1:1"), requestedRanges);
+    }
+
+    /**
+     * Test that an unchanged sheet is read from the cache after only the
+     * probe request, and that a change near either end is downloaded again.
+     */
+    @Test
+    public void testCachedRead() throws Exception {
+        grid = new ArrayList<>();
+        grid.add(Arrays.asList("Name", "Email"));
+        for (int i = 1; i <= 60; i++) {
+            grid.add(new ArrayList<>(Arrays.asList("Name " + i, "n" + i + "@example.com")));
+        }
+        gridRowCount = 61;
+        SheetsCache cache = new SheetsCache(tempDir, SheetsCache.DEFAULT_MAX_BYTES, 0);
+
+        List<Map<String, String>> first = read(25, cache);
+        assertEquals(60, first.size());
+        assertEquals(Arrays.asList("probe 'Sheet1'!1:21", "probe 'Sheet1'!42:61", "'Sheet1'!1:1",
+                "'Sheet1'!2:26", "'Sheet1'!27:51", "'Sheet1'!52:61"), requestedRanges);
+
+        requestedRanges.clear();
+        assertEquals(first, read(25, cache));
+        assertEquals(Arrays.asList("probe 'Sheet1'!1:21", "probe 'Sheet1'!42:61"), requestedRanges);
+
+        // An edit in the last rows is picked up
+        grid.get(60).set(1, "changed@example.com");
+        requestedRanges.clear();
+        List<Map<String, String>> changed = read(25, cache);
+        assertEquals("changed@example.com", changed.get(59).get("Email"));
+        assertEquals(6, requestedRanges.size());
+
+        requestedRanges.clear();
+        assertEquals(changed, read(25, cache));
+        assertEquals(2, requestedRanges.size());
+    }
+
+    /**
+     * Test that only the column ranges of the requested columns are fetched,
+     * and that a row with data only in other columns still counts as a row.
+     */
+    @Test
+    public void testProjectedRead() throws Exception {
+        grid = new ArrayList<>();
+        grid.add(Arrays.asList("Name", "Email", "Notes", "City", "Zip"));
+        for (int i = 1; i <= 6; i++) {
+            grid.add(i == 3 ? Arrays.asList("", "only@example.com")
+                    : Arrays.asList("Name " + i, "n" + i + "@example.com", "note", "City " + i, "1000" + i));
+        }
+        gridRowCount = 7;
+        Set<String> columns = new HashSet<>(Arrays.asList("Name", "City", "Zip", "Missing"));
+
+        List<Map<String, String>> rows = new ArrayList<>();
+        GoogleSheetsReader.streamValues(service, "sheet-id", "Sheet1", 4, null, columns,
+                (rowIndex, rowData) -> rows.add(rowData));
+
+        assertEquals(6, rows.size());
+        assertEquals(new HashSet<>(Arrays.asList("Name", "City", "Zip")), rows.get(0).keySet());
+        assertEquals("City 1", rows.get(0).get("City"));
+        assertEquals("10006", rows.get(5).get("Zip"));
+        assertEquals("", rows.get(2).get("Name"));
+        assertEquals(Arrays.asList("'Sheet1'!1:1", "'Sheet1'!A2:A5", "'Sheet1'!D2:E5", "'Sheet1'!A6:A7",
+                "'Sheet1'!D6:E7"), requestedRanges);
+    }
+
+    /**
+     * Test the row a range answered by the API ends at.
+     */
+    @Test
+    public void testLastRow() {
+        assertEquals(1000, GoogleSheetsReader.lastRow("Sheet1!A2:Z1000"));
+        assertEquals(5, GoogleSheetsReader.lastRow("'Sheet1'!2:5"));
+        assertEquals(-1, GoogleSheetsReader.lastRow("Sheet1!A:Z"));
+        assertEquals(-1, GoogleSheetsReader.lastRow("Sheet1"));
+        assertEquals(-1, GoogleSheetsReader.lastRow(null));
+    }
+
+    /**
+     * Test the A1 column letters.
+     */
+    @Test
+    public void testColumnName() {
+        assertEquals("A", GoogleSheetsReader.columnName(0));
+        assertEquals("Z", GoogleSheetsReader.columnName(25));
+        assertEquals("AA", GoogleSheetsReader.columnName(26));
+        assertEquals("DR", GoogleSheetsReader.columnName(121));
+        assertEquals(121, ExcelReader.columnIndex("DR"));
+    }
+}
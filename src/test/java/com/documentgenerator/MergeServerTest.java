@@ -0,0 +1,172 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+
+/**
+ * Tests jobs submitted to the merge server.
+ */
+public class MergeServerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Properties job(String output) throws Exception {
+        Path source = tempDir.resolve("people.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             FileOutputStream fos = new FileOutputStream(source.toFile())) {
+            Sheet sheet = workbook.createSheet();
+            sheet.createRow(0).createCell(0).setCellValue("Name");
+            for (int i = 1; i <= 5; i++) {
+                sheet.createRow(i).createCell(0).setCellValue("Person " + i);
+            }
+            workbook.write(fos);
+        }
+        Path template = tempDir.resolve("template.docx");
+        try (InputStream in = getClass().getResourceAsStream("/templates/document-template.docx")) {
+            Files.copy(in, template, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Properties description = new Properties();
+        description.setProperty("source", source.toString());
+        description.setProperty("template", template.toString());
+        description.setProperty("output", tempDir.resolve(output).toString());
+        return description;
+    }
+
+    private static BatchJob await(MergeServer server, int id) throws InterruptedException {
+        BatchJob job = server.getJob(id);
+        for (int i = 0; i < 600 && job.finishedAt == 0; i++) {
+            Thread.sleep(50);
+        }
+        return job;
+    }
+
+    /**
+     * Test that two jobs run in turn and both write all their documents.
+     */
+    @Test
+    public void testJobsRunInTurn() throws Exception {
+        MergeServer server = new MergeServer(0, tempDir.resolve("server.token"));
+        try {
+            BatchJob first = server.submit(job("first"));
+            BatchJob second = server.submit(job("second"));
+
+            assertEquals(BatchJob.State.SUCCEEDED, await(server, first.id).state, first.error);
+            assertEquals(BatchJob.State.SUCCEEDED, await(server, second.id).state, second.error);
+            assertEquals(5, second.result.getGenerated());
+            assertTrue(second.startedAt >= first.finishedAt);
+            try (var files = Files.list(tempDir.resolve("second"))) {
+                assertEquals(5, files.filter(file -> file.toString().endsWith(".docx")).count());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Test that a job without a template is rejected over HTTP.
+     */
+    @Test
+    public void testRejectsIncompleteJob() throws Exception {
+        MergeServer server = new MergeServer(0, tempDir.resolve("server.token"));
+        server.start();
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getPort() + "/jobs");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty(MergeServer.TOKEN_HEADER, server.getToken());
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write("source=people.xlsx\noutput=out\n".getBytes(StandardCharsets.UTF_8));
+            }
+
+            assertEquals(400, connection.getResponseCode());
+            String body = new String(connection.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(body.contains("Missing template"), body);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static int post(MergeServer server, String token) throws Exception {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + "/jobs");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        if (token != null) {
+            connection.setRequestProperty(MergeServer.TOKEN_HEADER, token);
+        }
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write("output=out\n".getBytes(StandardCharsets.UTF_8));
+        }
+        return connection.getResponseCode();
+    }
+
+    /**
+     * Status line of a request sent as written; HttpURLConnection won't set Host or Origin
+     */
+    private static String send(MergeServer server, String headers) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write(("GET /status HTTP/1.1\r\n" + headers + MergeServer.TOKEN_HEADER + ": "
+                    + server.getToken() + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            return response.substring(0, Math.max(0, response.indexOf("\r\n")));
+        }
+    }
+
+    /**
+     * Test that requests without the token, from a browser page or for
+     * another host name are refused.
+     */
+    @Test
+    public void testRejectsForeignRequests() throws Exception {
+        Path tokenFile = tempDir.resolve("server.token");
+        MergeServer server = new MergeServer(0, tokenFile);
+        server.start();
+        try {
+            assertEquals(server.getToken(), Files.readString(tokenFile));
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(tokenFile));
+            }
+
+            assertEquals(401, post(server, null));
+            assertEquals(401, post(server, "wrong"));
+            // Let through, and turned down only for the missing keys
+            assertEquals(400, post(server, server.getToken()));
+
+            String host = "Host: 127.0.0.1:" + server.getPort() + "\r\n";
+            assertEquals("HTTP/1.1 200 OK", send(server, host));
+            assertTrue(send(server, host + "Origin: https://example.com\r\n").startsWith("HTTP/1.1 403"));
+            // A page on a rebound name reaches the port with its own Host
+            assertTrue(send(server, "Host: attacker.example:" + server.getPort() + "\r\n")
+                    .startsWith("HTTP/1.1 403"));
+
+            assertTrue(MergeServer.isLocalHost("localhost:8765"));
+            assertTrue(MergeServer.isLocalHost("[::1]:8765"));
+            assertFalse(MergeServer.isLocalHost("127.0.0.1.example.com"));
+            assertFalse(MergeServer.isLocalHost(null));
+        } finally {
+            server.stop();
+        }
+        assertFalse(Files.exists(tokenFile));
+    }
+}
@@ -0,0 +1,76 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Unit tests for PrecompiledTemplate.
+ */
+public class PrecompiledTemplateTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test that a loaded artifact renders exactly what the compiled template renders.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = TestTemplates.write(tempDir, "letter.docx", "Dear <<Name>>,", "From <<Company>>");
+        Path artifacts = tempDir.resolve("artifacts");
+
+        Path artifact = PrecompiledTemplate.precompile(file, artifacts);
+        assertTrue(artifact.startsWith(artifacts));
+        CompiledTemplate compiled = CompiledTemplate.compileFile(file);
+        CompiledTemplate loaded = PrecompiledTemplate.load(file, artifact);
+
+        assertNotNull(loaded);
+        assertEquals(compiled.getHash(), loaded.getHash());
+        assertEquals(compiled.getPlaceholders(), loaded.getPlaceholders());
+        assertEquals(compiled.getLocations().toString(), loaded.getLocations().toString());
+        assertEquals(1, loaded.getSegmentedTemplates().size());
+
+        Map<String, String> data = new HashMap<>();
+        data.put("Name", "Jane & Co");
+        data.put("Company", "Acme");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        compiled.segmented(compiled.getPlaceholders()).render(data, expected);
+        loaded.segmented(new HashSet<>(Arrays.asList("Company", "Name"))).render(data, actual);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    /**
+     * Test that an artifact is used for the same content and ignored once the template changes.
+     */
+    @Test
+    public void testIgnoredWhenTemplateChanges() throws Exception {
+        File file = TestTemplates.write(tempDir, "notice.docx", "Hello <<Name>>");
+        Path artifact = PrecompiledTemplate.precompile(file, null);
+        assertEquals(file.getPath() + PrecompiledTemplate.SUFFIX, artifact.toString());
+
+        file.setLastModified(file.lastModified() + 2000);
+        assertNotNull(PrecompiledTemplate.load(file, artifact));
+
+        // Same size and modification time, different content
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        long lastModified = file.lastModified();
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file.toPath(), bytes);
+        file.setLastModified(lastModified);
+        assertNull(PrecompiledTemplate.load(file, artifact));
+
+        TestTemplates.write(tempDir, "notice.docx", "Hello <<Name>> from <<City>>");
+        assertNull(PrecompiledTemplate.load(file, artifact));
+
+        Files.write(artifact, new byte[] {1, 2, 3});
+        assertThrows(Exception.class, () -> PrecompiledTemplate.load(file, artifact));
+    }
+}
@@ -0,0 +1,76 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Unit tests for ProgressDispatcher.
+ */
+public class ProgressDispatcherTest {
+
+    /**
+     * Test that many row callbacks arrive as a few updates ending with the full counts.
+     */
+    @Test
+    public void testCoalescesRows() throws Exception {
+        List<ProgressDispatcher.Progress> updates = Collections.synchronizedList(new ArrayList<>());
+        ProgressDispatcher dispatcher = new ProgressDispatcher(updates::add, Runnable::run, 20, null);
+        dispatcher.start();
+        for (int i = 0; i < 20000; i++) {
+            if (i % 1000 == 0) {
+                dispatcher.rowFailed(i, i + 1, -1, new IOException("bad row"));
+            } else {
+                dispatcher.rowCompleted(i, i + 1, -1, "out/" + i);
+            }
+            if (i % 5000 == 0) {
+                Thread.sleep(30);
+            }
+        }
+        dispatcher.finish(20000);
+
+        assertTrue(updates.size() < 100, "updates: " + updates.size());
+        assertEquals(ProgressDispatcher.Phase.STARTED, updates.get(0).getPhase());
+        ProgressDispatcher.Progress last = updates.get(updates.size() - 1);
+        assertEquals(ProgressDispatcher.Phase.FINISHED, last.getPhase());
+        assertEquals(20000, last.getCompleted());
+        assertEquals(20, last.getFailed());
+        assertEquals(1.0, last.getFraction());
+        int failures = 0;
+        for (ProgressDispatcher.Progress update : updates) {
+            failures += update.getMessages().size();
+        }
+        assertEquals(20, failures);
+    }
+
+    /**
+     * Test that messages beyond the queue limit are counted instead of kept.
+     */
+    @Test
+    public void testDropsExcessMessages() {
+        List<ProgressDispatcher.Progress> updates = new ArrayList<>();
+        ProgressDispatcher dispatcher = new ProgressDispatcher(updates::add, Runnable::run, 60_000, null);
+        dispatcher.start();
+        for (int i = 0; i < ProgressDispatcher.MAX_PENDING_MESSAGES + 50; i++) {
+            dispatcher.log("line " + i);
+        }
+        dispatcher.finish(-1);
+
+        List<String> messages = updates.get(updates.size() - 1).getMessages();
+        assertEquals(ProgressDispatcher.MAX_PENDING_MESSAGES + 1, messages.size());
+        assertEquals("... 50 more message(s) not shown", messages.get(messages.size() - 1));
+        assertEquals(-1, updates.get(updates.size() - 1).getFraction());
+    }
+
+    /**
+     * Test the duration format used for ETA and run time.
+     */
+    @Test
+    public void testFormatDuration() {
+        assertEquals("0:05", ProgressDispatcher.formatDuration(5_400));
+        assertEquals("12:00", ProgressDispatcher.formatDuration(720_000));
+        assertEquals("2:03:04", ProgressDispatcher.formatDuration(7_384_000));
+    }
+}
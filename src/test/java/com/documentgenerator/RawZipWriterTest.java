@@ -0,0 +1,67 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unit tests for TemplateArchive and RawZipWriter.
+ */
+public class RawZipWriterTest {
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws Exception {
+        Map<String, byte[]> contents = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                contents.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Test that copied entries are unchanged and replaced entries read back.
+     */
+    @Test
+    public void testCopyAndReplace() throws Exception {
+        byte[] template;
+        try (InputStream in = getClass().getResourceAsStream("/templates/document-template.docx")) {
+            assertNotNull(in);
+            template = in.readAllBytes();
+        }
+        TemplateArchive archive = TemplateArchive.parse(template);
+        assertFalse(archive.getEntries().isEmpty());
+
+        byte[] replacement = "<w:document>patched</w:document>".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (RawZipWriter zip = new RawZipWriter(out)) {
+            for (TemplateArchive.Entry entry : archive.getEntries()) {
+                if ("word/document.xml".equals(entry.getName())) {
+                    zip.replaceEntry(entry, replacement);
+                } else {
+                    zip.copyEntry(archive, entry);
+                }
+            }
+        }
+
+        Map<String, byte[]> original = unzip(template);
+        Map<String, byte[]> patched = unzip(out.toByteArray());
+        assertEquals(original.keySet(), patched.keySet());
+        for (String name : original.keySet()) {
+            if ("word/document.xml".equals(name)) {
+                assertArrayEquals(replacement, patched.get(name));
+            } else {
+                assertArrayEquals(original.get(name), patched.get(name), name);
+            }
+        }
+    }
+}
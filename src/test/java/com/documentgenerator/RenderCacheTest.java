@@ -0,0 +1,75 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for RenderCache.
+ */
+public class RenderCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private CompiledTemplate template() throws Exception {
+        return CompiledTemplate.forPath(TestTemplates.write(tempDir, "notice.docx",
+                "Dear <<Name>>, your balance is <<Balance>>.").getPath());
+    }
+
+    /**
+     * Test that keys ignore columns the template does not use but not the
+     * values, presence or selection of its placeholders.
+     */
+    @Test
+    public void testKeyCoversOnlyTemplateValues() throws Exception {
+        CompiledTemplate template = template();
+        Map<String, String> row = new HashMap<>();
+        row.put("Name", "Ann");
+        row.put("Balance", "10");
+        row.put("Email", "ann@example.com");
+        String key = RenderCache.key(template, row, null, null, RenderEngine.SEGMENT);
+
+        Map<String, String> other = new HashMap<>(row);
+        other.put("Email", "someone@example.com");
+        other.put("Id", "7");
+        assertEquals(key, RenderCache.key(template, other, null, null, RenderEngine.SEGMENT));
+
+        other.put("Balance", "11");
+        assertNotEquals(key, RenderCache.key(template, other, null, null, RenderEngine.SEGMENT));
+        assertNotEquals(key, RenderCache.key(template, row, null, null, RenderEngine.POI));
+
+        // Without the column the placeholder stays, unless it is selected and blanked
+        other.remove("Balance");
+        String unfilled = RenderCache.key(template, other, null, null, RenderEngine.SEGMENT);
+        assertNotEquals(unfilled, RenderCache.key(template, other, null,
+                Collections.singletonList("Balance"), RenderEngine.SEGMENT));
+    }
+
+    /**
+     * Test that the least recently used documents go once the size limit is reached.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RenderCache cache = new RenderCache(100);
+        Object run = new Object();
+        cache.put("a", run, "a.docx", new byte[40]);
+        cache.put("b", run, "b.docx", new byte[40]);
+        assertNotNull(cache.get("a"));
+        cache.put("c", run, "c.docx", new byte[40]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("c.docx", cache.get("c").getName());
+        assertEquals(80, cache.getBytes());
+
+        cache.put("huge", run, "huge.docx", new byte[101]);
+        assertNull(cache.get("huge"));
+        assertEquals(2, cache.size());
+    }
+}
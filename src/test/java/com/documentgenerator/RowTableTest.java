@@ -0,0 +1,79 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+/**
+ * Unit tests for RowTable.
+ */
+public class RowTableTest {
+
+    private static List<Map<String, String>> rows(int count) {
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> row = new HashMap<>();
+            row.put("Name", "Person " + i);
+            row.put("City", i % 3 == 0 ? "Oslo" : i % 3 == 1 ? "Lima" : "");
+            row.put("Team", "Team " + (i % 1000));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Test that row views read back as the maps that were added.
+     */
+    @Test
+    public void testRowViews() {
+        List<Map<String, String>> rows = rows(5000);
+        RowTable table = RowTable.of(rows);
+
+        assertEquals(rows.size(), table.size());
+        assertEquals(rows, table);
+        Map<String, String> row = table.get(4);
+        assertEquals("Person 4", row.get("Name"));
+        assertEquals("Lima", row.get("City"));
+        assertNull(row.get("Missing"));
+        assertFalse(row.containsKey("Missing"));
+        assertEquals(rows.get(4).hashCode(), row.hashCode());
+        assertThrows(UnsupportedOperationException.class, () -> row.put("Name", "Changed"));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.get(5000));
+    }
+
+    /**
+     * Test that low-cardinality columns are dictionary encoded and unique ones are not.
+     */
+    @Test
+    public void testEncodings() {
+        RowTable table = RowTable.of(rows(5000));
+
+        assertTrue(table.isDictionaryEncoded("City"));
+        assertTrue(table.isDictionaryEncoded("Team"));
+        assertFalse(table.isDictionaryEncoded("Name"));
+        assertEquals("Team 999", table.getValue(4999, "Team"));
+        assertEquals("Person 4999", table.getValue(4999, "Name"));
+    }
+
+    /**
+     * Test that a column first seen part-way through has no value in earlier rows.
+     */
+    @Test
+    public void testLateColumn() {
+        RowTable.Builder builder = new RowTable.Builder();
+        builder.addRow(Collections.singletonMap("Name", "Ann"));
+        Map<String, String> second = new HashMap<>();
+        second.put("Name", "Bob");
+        second.put("Email", "bob@example.com");
+        builder.addRow(second);
+        builder.addRow(Collections.singletonMap("Name", "Cy"));
+        RowTable table = builder.build();
+
+        assertEquals(Arrays.asList("Name", "Email"), table.getHeaders());
+        assertEquals(Collections.singletonMap("Name", "Ann"), table.get(0));
+        assertEquals(second, table.get(1));
+        assertFalse(table.get(2).containsKey("Email"));
+        assertEquals(1, table.get(2).size());
+    }
+}
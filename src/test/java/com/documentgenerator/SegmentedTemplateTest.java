@@ -0,0 +1,158 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the segment-based render engine.
+ */
+public class SegmentedTemplateTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final Pattern TEXT_PATTERN = Pattern.compile("<w:t(?: [^>]*)?>([^<]*)</w:t>");
+
+    /**
+     * Text runs of word/document.xml, in document order
+     */
+    private static List<String> documentText(byte[] docx) throws Exception {
+        List<String> texts = new ArrayList<>();
+        Matcher matcher = TEXT_PATTERN.matcher(documentXml(docx));
+        while (matcher.find()) {
+            texts.add(matcher.group(1));
+        }
+        return texts;
+    }
+
+    private static String documentXml(byte[] docx) throws Exception {
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(docx))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if ("word/document.xml".equals(entry.getName())) {
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Test that values are escaped the way the XML serializer escapes them.
+     */
+    @Test
+    public void testEscapeXml() {
+        assertEquals("Tom &amp; &lt;Jerry&gt;",
+                new String(SegmentedTemplate.escapeXml("Tom & <Jerry>"), StandardCharsets.UTF_8));
+        assertEquals("a?b&#13;\n",
+                new String(SegmentedTemplate.escapeXml("a\u0001b\r\n"), StandardCharsets.UTF_8));
+        assertEquals("\uD83D\uDE00 ?",
+                new String(SegmentedTemplate.escapeXml("\uD83D\uDE00 \uDE00"), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that the SEGMENT engine writes the same text runs as the POI engine.
+     */
+    @Test
+    public void testMatchesPoiEngine() throws Exception {
+        Path templatePath = tempDir.resolve("template.docx");
+        try (InputStream in = getClass().getResourceAsStream("/templates/document-template.docx")) {
+            assertNotNull(in);
+            Files.copy(in, templatePath);
+        }
+        CompiledTemplate template = CompiledTemplate.forPath(templatePath.toString());
+
+        Map<String, String> data = new HashMap<>();
+        data.put("Name", "  Jane & Co  ");
+        data.put("Email", "jane@example.com");
+        data.put("Position", "<Lead>");
+
+        Path poiOut = tempDir.resolve("poi.docx");
+        Path segmentOut = tempDir.resolve("segment.docx");
+        WordGenerator.generateDocument(template, poiOut.toString(), data, null, RenderEngine.POI);
+        WordGenerator.generateDocument(template, segmentOut.toString(), data, null, RenderEngine.SEGMENT);
+
+        String segmentXml = documentXml(Files.readAllBytes(segmentOut));
+        assertNotNull(segmentXml);
+        assertTrue(segmentXml.contains("Jane &amp; Co"));
+        assertTrue(segmentXml.contains("&lt;Lead&gt;"));
+        assertFalse(segmentXml.contains("&lt;&lt;Name&gt;&gt;"));
+        assertEquals(documentText(Files.readAllBytes(poiOut)), documentText(Files.readAllBytes(segmentOut)));
+    }
+
+    /**
+     * Test that a marked table row is written once per detail record of the
+     * document row, whatever engine is selected.
+     */
+    @Test
+    public void testRepeatingRows() throws Exception {
+        Path templatePath = tempDir.resolve("invoice.docx");
+        try (XWPFDocument document = new XWPFDocument();
+             FileOutputStream out = new FileOutputStream(templatePath.toFile())) {
+            document.createParagraph().createRun().setText("Invoice <<InvoiceNo>>");
+            XWPFTable table = document.createTable(3, 2);
+            table.getRow(0).getCell(0).setText("Description");
+            table.getRow(0).getCell(1).setText("Qty");
+            table.getRow(1).getCell(0).setText("<<#Items>><<Description>>");
+            table.getRow(1).getCell(1).setText("<<Qty>>");
+            table.getRow(2).getCell(0).setText("Total");
+            document.write(out);
+        }
+        CompiledTemplate template = CompiledTemplate.forPath(templatePath.toString());
+        assertEquals(Collections.singleton("InvoiceNo"), template.getPlaceholders());
+        assertEquals(1, template.getRepeatingRows().size());
+        assertEquals("Items", template.getRepeatingRows().get(0).getSection());
+
+        List<Map<String, String>> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, String> line = new HashMap<>();
+            line.put("InvoiceNo", i < 2 ? "A-1" : "B-2");
+            line.put("Description", "Part & " + i);
+            line.put("Qty", Integer.toString(i));
+            lines.add(line);
+        }
+        DetailRows details = DetailRows.of(lines, "InvoiceNo");
+        Map<String, String> data = new HashMap<>();
+        data.put("InvoiceNo", "A-1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WordGenerator.renderDocument(template, out, data, details, null, RenderEngine.POI,
+                GenerationMetrics.disabled());
+        assertEquals(Arrays.asList("Invoice A-1", "Description", "Qty", "Part &amp; 0", "0",
+                "Part &amp; 1", "1", "Total"), documentText(out.toByteArray()));
+
+        data.put("InvoiceNo", "B-2");
+        out.reset();
+        WordGenerator.renderDocument(template, out, data, details, null, RenderEngine.SEGMENT,
+                GenerationMetrics.disabled());
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(out.toByteArray()))) {
+            XWPFTable table = document.getTables().get(0);
+            assertEquals(1000, table.getRows().size());
+            assertEquals("Part & 999", table.getRow(998).getCell(0).getText());
+            assertEquals("Total", table.getRow(999).getCell(0).getText());
+        }
+
+        data.put("InvoiceNo", "C-3");
+        out.reset();
+        WordGenerator.renderDocument(template, out, data, details, null, RenderEngine.SEGMENT,
+                GenerationMetrics.disabled());
+        assertEquals(Arrays.asList("Invoice C-3", "Description", "Qty", "Total"), documentText(out.toByteArray()));
+    }
+}
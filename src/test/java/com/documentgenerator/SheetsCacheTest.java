@@ -0,0 +1,160 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * Unit tests for SheetsCache.
+ */
+public class SheetsCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<Map<String, String>> rows(int count) {
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> row = new HashMap<>();
+            row.put("Name", "Name " + i);
+            row.put("Notes", i % 2 == 0 ? "" : "Grüße – " + "x".repeat(200));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static void store(SheetsCache cache, String id, String version, List<Map<String, String>> rows) {
+        try (SheetsCache.Writer writer = cache.openWriter(id, "Sheet1", version)) {
+            for (Map<String, String> row : rows) {
+                writer.writeRow(row);
+            }
+            assertTrue(writer.commit());
+        }
+    }
+
+    private static List<Map<String, String>> replay(SheetsCache cache, String id, String version) throws Exception {
+        List<Map<String, String>> rows = new ArrayList<>();
+        if (!cache.replay(id, "Sheet1", version, (rowIndex, rowData) -> {
+            assertEquals(rows.size(), rowIndex);
+            rows.add(rowData);
+        })) {
+            return null;
+        }
+        return rows;
+    }
+
+    /**
+     * Test that stored rows come back unchanged for the same version only.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        SheetsCache cache = new SheetsCache(tempDir, SheetsCache.DEFAULT_MAX_BYTES, 0);
+        List<Map<String, String>> rows = rows(500);
+        store(cache, "sheet-id", "v1", rows);
+
+        assertEquals(rows, replay(cache, "sheet-id", "v1"));
+        assertNull(replay(cache, "sheet-id", "v2"));
+        assertNull(replay(cache, "other-id", "v1"));
+
+        store(cache, "sheet-id", "v3", Collections.emptyList());
+        assertEquals(Collections.emptyList(), replay(cache, "sheet-id", "v3"));
+    }
+
+    /**
+     * Test that an entry left unfinished is discarded and a damaged one is ignored.
+     */
+    @Test
+    public void testIncompleteEntries() throws Exception {
+        SheetsCache cache = new SheetsCache(tempDir, SheetsCache.DEFAULT_MAX_BYTES, 0);
+        try (SheetsCache.Writer writer = cache.openWriter("sheet-id", "Sheet1", "v1")) {
+            writer.writeRow(rows(1).get(0));
+        }
+        assertNull(replay(cache, "sheet-id", "v1"));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+
+        Files.write(cache.entryPath("sheet-id", "Sheet1"), new byte[] {1, 2, 3});
+        assertNull(replay(cache, "sheet-id", "v1"));
+        assertFalse(Files.exists(cache.entryPath("sheet-id", "Sheet1")));
+    }
+
+    /**
+     * Test that an error from the handler reaches the caller as it is and
+     * leaves the entry in place.
+     */
+    @Test
+    public void testHandlerErrorPassesThrough() throws Exception {
+        SheetsCache cache = new SheetsCache(tempDir, SheetsCache.DEFAULT_MAX_BYTES, 0);
+        store(cache, "sheet-id", "v1", rows(3));
+        IOException writeFailed = new IOException("No space left on device");
+
+        IOException thrown = assertThrows(IOException.class, () -> cache.replay("sheet-id", "Sheet1", "v1",
+                (rowIndex, rowData) -> {
+                    throw writeFailed;
+                }));
+
+        assertSame(writeFailed, thrown);
+        assertEquals(rows(3), replay(cache, "sheet-id", "v1"));
+    }
+
+    /**
+     * Test that the least recently used entries are evicted first.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        SheetsCache unlimited = new SheetsCache(tempDir, Long.MAX_VALUE, 0);
+        store(unlimited, "a", "v1", rows(200));
+        long entrySize = Files.size(unlimited.entryPath("a", "Sheet1"));
+        store(unlimited, "b", "v1", rows(200));
+        store(unlimited, "c", "v1", rows(200));
+        Files.setLastModifiedTime(unlimited.entryPath("a", "Sheet1"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(unlimited.entryPath("b", "Sheet1"), FileTime.fromMillis(2000));
+        Files.setLastModifiedTime(unlimited.entryPath("c", "Sheet1"), FileTime.fromMillis(3000));
+
+        // A hit makes "a" the most recently used
+        assertNotNull(replay(unlimited, "a", "v1"));
+
+        SheetsCache limited = new SheetsCache(tempDir, entrySize * 2 + entrySize / 2, 0);
+        limited.evict();
+        assertTrue(Files.exists(limited.entryPath("a", "Sheet1")));
+        assertFalse(Files.exists(limited.entryPath("b", "Sheet1")));
+        assertTrue(Files.exists(limited.entryPath("c", "Sheet1")));
+    }
+
+    /**
+     * Test that the cache is off unless it is turned on.
+     */
+    @Test
+    public void testDisabledByDefault() {
+        String setting = System.clearProperty("documerge.sheets.cache");
+        try {
+            assertNull(SheetsCache.fromSystemProperties());
+            System.setProperty("documerge.sheets.cache", "true");
+            assertNotNull(SheetsCache.fromSystemProperties());
+        } finally {
+            if (setting != null) {
+                System.setProperty("documerge.sheets.cache", setting);
+            } else {
+                System.clearProperty("documerge.sheets.cache");
+            }
+        }
+    }
+
+    /**
+     * Test that entries older than the maximum age are not served.
+     */
+    @Test
+    public void testExpiry() throws Exception {
+        SheetsCache cache = new SheetsCache(tempDir, SheetsCache.DEFAULT_MAX_BYTES, 1);
+        store(cache, "sheet-id", "v1", rows(3));
+        Thread.sleep(20);
+        assertNull(replay(cache, "sheet-id", "v1"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for SpillingRowStore.
+ */
+public class SpillingRowStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static Map<String, String> row(int i) {
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put("Name", "Person " + i);
+        row.put("City", i % 2 == 0 ? "Zürich" : "東京");
+        if (i >= 100) {
+            row.put("Note", "added later " + i);
+        }
+        return row;
+    }
+
+    private static long fileCount(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Test that rows past the threshold are written to disk and read back by index.
+     */
+    @Test
+    public void testSpillsPastThreshold() throws Exception {
+        SpillingRowStore store = new SpillingRowStore(16 * 1024, tempDir);
+        for (int i = 0; i < 2000; i++) {
+            store.append(row(i));
+        }
+        store.finish();
+
+        assertTrue(store.isSpilled());
+        assertEquals(2, fileCount(tempDir));
+        assertEquals(2000, store.size());
+        assertEquals(Arrays.asList("Name", "City", "Note"), store.getHeaders());
+        assertEquals(row(1999), store.get(1999));
+        assertEquals(row(7), store.get(7));
+        assertFalse(store.get(7).containsKey("Note"));
+        assertEquals("東京", store.get(101).get("City"));
+        int index = 0;
+        for (Map<String, String> read : store) {
+            assertEquals(row(index++), read);
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> store.get(2000));
+        assertThrows(IllegalStateException.class, () -> store.append(row(0)));
+
+        store.close();
+        assertEquals(0, fileCount(tempDir));
+        IllegalStateException closed = assertThrows(IllegalStateException.class, () -> store.get(0));
+        assertEquals("Store is closed", closed.getMessage());
+    }
+
+    /**
+     * Test that small row sets stay in memory and never create files.
+     */
+    @Test
+    public void testSmallRowsStayInMemory() throws Exception {
+        SpillingRowStore store = new SpillingRowStore(1024 * 1024, tempDir);
+        for (int i = 0; i < 200; i++) {
+            store.add(row(i));
+        }
+        assertThrows(IllegalStateException.class, () -> store.get(0));
+        store.finish();
+
+        assertFalse(store.isSpilled());
+        assertEquals(0, fileCount(tempDir));
+        assertEquals(row(150), store.get(150));
+        store.close();
+    }
+
+    /**
+     * Test that null cells are left out of the rows read back from disk.
+     */
+    @Test
+    public void testNullCells() throws Exception {
+        try (SpillingRowStore store = new SpillingRowStore(0, tempDir)) {
+            Map<String, String> row = new LinkedHashMap<>();
+            row.put("Name", null);
+            row.put("City", "");
+            store.append(row);
+            store.finish();
+
+            assertTrue(store.isSpilled());
+            assertEquals(Collections.singletonMap("City", ""), store.get(0));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.documentgenerator;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Word templates written on the fly for tests.
+ */
+final class TestTemplates {
+
+    private TestTemplates() {
+    }
+
+    /**
+     * Write a template with one paragraph of a single run per text
+     */
+    static File write(Path directory, String name, String... paragraphs) throws IOException {
+        File file = directory.resolve(name).toFile();
+        try (XWPFDocument document = new XWPFDocument();
+             FileOutputStream out = new FileOutputStream(file)) {
+            for (String text : paragraphs) {
+                document.createParagraph().createRun().setText(text);
+            }
+            document.write(out);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,71 @@
+package com.documentgenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+ * Unit tests for WordGenerator placeholder substitution.
+ */
+public class WordGeneratorTest {
+
+    /**
+     * The previous implementation: one contains/replace pass per placeholder.
+     */
+    private static String replaceOneByOne(String text, Map<String, String> data, Set<String> active) {
+        String modifiedText = text;
+        boolean textChanged = false;
+        for (String placeholder : active) {
+            String placeholderPattern = "<<" + placeholder + ">>";
+            if (modifiedText.contains(placeholderPattern)) {
+                modifiedText = modifiedText.replace(placeholderPattern, data.getOrDefault(placeholder, ""));
+                textChanged = true;
+            }
+        }
+        return textChanged ? modifiedText : null;
+    }
+
+    private static String substitute(String text, Map<String, String> data, Set<String> active) {
+        Matcher matcher = WordGenerator.PLACEHOLDER_PATTERN.matcher("");
+        return WordGenerator.substitutePlaceholders(text, data, active, matcher, new StringBuilder());
+    }
+
+    /**
+     * Test that single-pass substitution matches the old per-placeholder loop.
+     */
+    @Test
+    public void testMatchesPerPlaceholderReplace() {
+        Map<String, String> data = new HashMap<>();
+        data.put("Name", "Jane Doe");
+        data.put("Company", "ACME & Sons");
+        data.put("Empty", "");
+        Set<String> active = new HashSet<>(data.keySet());
+
+        String[] samples = {
+            "Dear <<Name>>,",
+            "<<Name>> works at <<Company>>; <<Name>> again",
+            "<<<Name>>> and <<Unknown>> and << Name >>",
+            "Nothing to replace here",
+            "<<Empty>>",
+            "<<Name",
+            "a<<Company>>b<<Empty>>c<<Name>>d"
+        };
+        for (String sample : samples) {
+            assertEquals(replaceOneByOne(sample, data, active), substitute(sample, data, active), sample);
+        }
+    }
+
+    /**
+     * Test that inactive placeholders are left untouched.
+     */
+    @Test
+    public void testInactivePlaceholdersKept() {
+        Map<String, String> data = Collections.singletonMap("Name", "Jane");
+        Set<String> active = Collections.singleton("Name");
+
+        assertEquals("Hi Jane from <<City>>", substitute("Hi <<Name>> from <<City>>", data, active));
+        assertNull(substitute("Hi <<City>>", data, active));
+    }
+}